@@ -3,31 +3,113 @@ package com.alerts;
 import com.cardio_generator.outputs.OutputStrategy;
 import com.data_management.DataStorage;
 import com.data_management.Patient;
-import com.data_management.PatientRecord;
+import com.data_management.RecordCursor;
+import com.data_management.RecordStream;
+import com.data_management.RecordTypeRegistry;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class AlertGenerator {
     private DataStorage dataStorage;
     private OutputStrategy outputStrategy;
     private static final long TEN_MINUTES = 10 * 60 * 1000;
     private static final int SLIDING_WINDOW_SIZE = 5;
+    private static final int BLOOD_PRESSURE = RecordTypeRegistry.getInstance().codeOf("BloodPressure");
+    private static final int SYSTOLIC = RecordTypeRegistry.getInstance().codeOf("SystolicBloodPressure");
+    private static final int BLOOD_SATURATION = RecordTypeRegistry.getInstance().codeOf("BloodSaturation");
+    private static final int ECG = RecordTypeRegistry.getInstance().codeOf("ECG");
+    private static final int ALERT = RecordTypeRegistry.getInstance().codeOf("Alert");
+    private static final long HYPOXEMIA_WINDOW = 60_000;
+    private static final int[] SATURATION_TYPES = {BLOOD_SATURATION};
+    private static final int[] SYSTOLIC_TYPES = {BLOOD_PRESSURE, SYSTOLIC};
+    // Strategies keep a cursor per patient, so they live as long as the generator
+    private final List<AlertStrategy> strategies = new ArrayList<>();
+    private final Map<Integer, PatientState> states = new ConcurrentHashMap<>();
+    private final boolean eventTime;
+
+    /**
+     * What the special condition checks remember about a patient between evaluations:
+     * its position in the patient's readings and the latest ECG readings, plus the
+     * cursors and scratch arrays every evaluation reuses, so that evaluating a patient
+     * allocates nothing per reading.
+     */
+    private static final class PatientState {
+        final RecordStream stream;
+        final RecordCursor readings = new RecordCursor(); // New readings of this evaluation
+        final RecordCursor nearby = new RecordCursor(); // Partners of a hypotensive hypoxemia pair
+        long[] ecgTimestamps = new long[SLIDING_WINDOW_SIZE]; // Kept ECG readings, then the new ones
+        double[] ecgValues = new double[SLIDING_WINDOW_SIZE];
+        int ecgCount;
+        long[] lowSystolicTimestamps = new long[4]; // Low systolic readings of this evaluation
+        double[] lowSystolicValues = new double[4];
+        int[] lowSystolicTypes = new int[4];
+        int lowSystolicCount;
+
+        PatientState(RecordStream stream) {
+            this.stream = stream;
+        }
+
+        void addEcg(long timestamp, double value) {
+            if (ecgCount == ecgTimestamps.length) {
+                ecgTimestamps = Arrays.copyOf(ecgTimestamps, ecgCount * 2);
+                ecgValues = Arrays.copyOf(ecgValues, ecgCount * 2);
+            }
+            ecgTimestamps[ecgCount] = timestamp;
+            ecgValues[ecgCount] = value;
+            ecgCount++;
+        }
+
+        void addLowSystolic(long timestamp, double value, int recordType) {
+            if (lowSystolicCount == lowSystolicTimestamps.length) {
+                lowSystolicTimestamps = Arrays.copyOf(lowSystolicTimestamps, lowSystolicCount * 2);
+                lowSystolicValues = Arrays.copyOf(lowSystolicValues, lowSystolicCount * 2);
+                lowSystolicTypes = Arrays.copyOf(lowSystolicTypes, lowSystolicCount * 2);
+            }
+            lowSystolicTimestamps[lowSystolicCount] = timestamp;
+            lowSystolicValues[lowSystolicCount] = value;
+            lowSystolicTypes[lowSystolicCount] = recordType;
+            lowSystolicCount++;
+        }
+    }
 
     public AlertGenerator(DataStorage dataStorage, OutputStrategy outputStrategy) {
+        this(dataStorage, outputStrategy, false);
+    }
+
+    /**
+     * Creates a generator that evaluates readings either as they arrive or in event
+     * time. In event time each patient is evaluated up to its watermark, in timestamp
+     * order, so readings that arrive out of order are checked in the order they were
+     * measured; see {@link RecordStream}.
+     *
+     * @param dataStorage    the storage holding the patients
+     * @param outputStrategy where triggered alerts are sent
+     * @param eventTime      whether to evaluate up to each patient's watermark
+     */
+    public AlertGenerator(DataStorage dataStorage, OutputStrategy outputStrategy, boolean eventTime) {
         this.dataStorage = dataStorage;
         this.outputStrategy = outputStrategy;
-    }    public void evaluateData(Patient patient) {
+        this.eventTime = eventTime;
+        // Use Strategy Pattern for reusable alert checks
+        strategies.add(new BloodPressureStrategy(eventTime));
+        strategies.add(new OxygenSaturationStrategy(eventTime));
+        strategies.add(new HeartRateStrategy(eventTime));
+    }
+
+    /**
+     * Evaluates the readings a patient received since the previous evaluation. Each
+     * check only reads new readings plus the little context it needs, so the cost of
+     * an evaluation does not grow with the patient's history.
+     *
+     * @param patient the patient to evaluate
+     */
+    public void evaluateData(Patient patient) {
         int patientIdInt = patient.getPatientId();
         String patientId = String.valueOf(patientIdInt);
-        long endTime = System.currentTimeMillis();
-        List<PatientRecord> records = dataStorage.getRecords(patientIdInt, 0, endTime);
-
-        // Use Strategy Pattern for reusable alert checks
-        List<AlertStrategy> strategies = new ArrayList<>();
-        strategies.add(new BloodPressureStrategy());
-        strategies.add(new OxygenSaturationStrategy());
-        strategies.add(new HeartRateStrategy());
 
         // Process strategies explicitly to ensure alerts are triggered
         for (AlertStrategy strategy : strategies) {
@@ -41,9 +123,25 @@ public class AlertGenerator {
         }
 
         // Handle special condition alerts that don't fit the strategy pattern
-        checkHypotensiveHypoxemiaAlert(patientId, records);
-        checkECGAlerts(patientId, records);
-        checkTriggeredAlerts(patientId, records);
+        PatientState state = states.get(patientIdInt);
+        if (state == null) {
+            state = states.computeIfAbsent(patientIdInt, id -> new PatientState(eventTime
+                    ? RecordStream.inEventTimeOrder(id, BLOOD_PRESSURE, SYSTOLIC, BLOOD_SATURATION, ECG, ALERT)
+                    : RecordStream.inArrivalOrder(id, BLOOD_PRESSURE, SYSTOLIC, BLOOD_SATURATION, ECG, ALERT)));
+        }
+        // Each check walks the new readings once, picking out the record types it needs
+        RecordCursor readings = state.stream.poll(dataStorage, state.readings);
+        if (readings.isResync()) {
+            state.ecgCount = 0;
+        }
+        // In event time, partners are only looked up behind the watermark, so a pair is
+        // found from whichever reading is released second
+        long horizon = eventTime ? state.stream.getWatermark() : Long.MAX_VALUE;
+        checkHypotensiveHypoxemiaAlert(patientIdInt, state, horizon);
+        readings.rewind();
+        checkECGAlerts(patientId, state);
+        readings.rewind();
+        checkTriggeredAlerts(patientId, readings);
     }    private Alert applyDecorators(Alert alert) {
         // First decorate with repeat information
         RepeatedAlertDecorator repeated = new RepeatedAlertDecorator(alert);
@@ -56,77 +154,136 @@ public class AlertGenerator {
         return priority;
     }
 
-    private void checkHypotensiveHypoxemiaAlert(String patientId, List<PatientRecord> records) {
-        for (PatientRecord bpRecord : records) {
-            if (bpRecord.getRecordType().equals("BloodPressure") || bpRecord.getRecordType().equals("SystolicBloodPressure")) {
-                double systolic = bpRecord.getMeasurementValue();
-                if (systolic < 90) {
-                    for (PatientRecord satRecord : records) {
-                        if (satRecord.getRecordType().equals("BloodSaturation") &&
-                                Math.abs(satRecord.getTimestamp() - bpRecord.getTimestamp()) < 60_000) {
-                            if (satRecord.getMeasurementValue() < 92) {
-                                Alert alert = AlertFactory.getFactory("bloodoxygen").createAlert(patientId, "Hypotensive Hypoxemia: Low BP and Low Saturation", bpRecord.getTimestamp());
-                                Alert decoratedAlert = applyDecorators(alert);
-                                triggerAlert(decoratedAlert);
-                            }
-                        }
+    /**
+     * Pairs every new low systolic reading with the low saturation readings within a
+     * minute of it, and every new low saturation reading with the earlier low systolic
+     * readings within a minute, so each pair is reported once.
+     */
+    private void checkHypotensiveHypoxemiaAlert(int patientIdInt, PatientState state, long horizon) {
+        String patientId = String.valueOf(patientIdInt);
+        RecordCursor readings = state.readings;
+        state.lowSystolicCount = 0;
+        while (readings.next()) {
+            int recordType = readings.type();
+            if ((recordType == BLOOD_PRESSURE || recordType == SYSTOLIC) && readings.value() < 90) {
+                state.addLowSystolic(readings.timestamp(), readings.value(), recordType);
+                RecordCursor saturation = recordsNear(patientIdInt, readings.timestamp(), horizon,
+                        state.nearby, SATURATION_TYPES);
+                while (saturation.next()) {
+                    if (saturation.value() < 92) {
+                        triggerHypotensiveHypoxemia(patientId, readings.timestamp());
                     }
                 }
             }
         }
+        readings.rewind();
+        while (readings.next()) {
+            if (readings.type() == BLOOD_SATURATION && readings.value() < 92) {
+                RecordCursor systolic = recordsNear(patientIdInt, readings.timestamp(), horizon,
+                        state.nearby, SYSTOLIC_TYPES);
+                while (systolic.next()) {
+                    if (systolic.value() < 90 && !isNewLowSystolic(state, systolic)) {
+                        triggerHypotensiveHypoxemia(patientId, systolic.timestamp());
+                    }
+                }
+            }
+        }
+    }
+
+    private RecordCursor recordsNear(int patientId, long timestamp, long horizon, RecordCursor into,
+            int[] recordTypeCodes) {
+        return dataStorage.openRecords(patientId, timestamp - HYPOXEMIA_WINDOW + 1,
+                Math.min(timestamp + HYPOXEMIA_WINDOW - 1, horizon), into, recordTypeCodes);
+    }
+
+    /**
+     * Tells whether a reading is one of the low systolic readings of this evaluation,
+     * whose pairs were already reported from the systolic side.
+     */
+    private static boolean isNewLowSystolic(PatientState state, RecordCursor reading) {
+        for (int i = 0; i < state.lowSystolicCount; i++) {
+            if (state.lowSystolicTimestamps[i] == reading.timestamp()
+                    && state.lowSystolicTypes[i] == reading.type()
+                    && state.lowSystolicValues[i] == reading.value()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void triggerHypotensiveHypoxemia(String patientId, long bpTimestamp) {
+        Alert alert = AlertFactory.getFactory("bloodoxygen").createAlert(patientId, "Hypotensive Hypoxemia: Low BP and Low Saturation", bpTimestamp);
+        Alert decoratedAlert = applyDecorators(alert);
+        triggerAlert(decoratedAlert);
     }
 
-    private void checkECGAlerts(String patientId, List<PatientRecord> records) {
-        List<Double> ecgValues = new ArrayList<>();
-        List<Long> timestamps = new ArrayList<>();
-        for (PatientRecord record : records) {
-            if (record.getRecordType().equals("ECG")) {
-                ecgValues.add(record.getMeasurementValue());
-                timestamps.add(record.getTimestamp());
+    /**
+     * Checks new ECG readings against a sliding window that continues from the last
+     * readings of the previous evaluation, and keeps the newest ones for the next.
+     */
+    private void checkECGAlerts(String patientId, PatientState state) {
+        int firstNew = state.ecgCount; // Windows ending before this index were checked last time
+        RecordCursor readings = state.readings;
+        while (readings.next()) {
+            if (readings.type() == ECG) {
+                state.addEcg(readings.timestamp(), readings.value());
             }
         }
+        int count = state.ecgCount;
+        if (count == firstNew) {
+            return;
+        }
+        double[] ecgValues = state.ecgValues;
+        long[] timestamps = state.ecgTimestamps;
 
         // If we don't have enough values for the sliding window, trigger an alert on the highest value
-        if (ecgValues.size() > 0 && ecgValues.size() < SLIDING_WINDOW_SIZE) {
+        if (count < SLIDING_WINDOW_SIZE) {
             int maxIndex = 0;
-            double maxValue = ecgValues.get(0);
-            for (int i = 1; i < ecgValues.size(); i++) {
-                if (ecgValues.get(i) > maxValue) {
-                    maxValue = ecgValues.get(i);
+            double maxValue = ecgValues[0];
+            for (int i = 1; i < count; i++) {
+                if (ecgValues[i] > maxValue) {
+                    maxValue = ecgValues[i];
                     maxIndex = i;
                 }
             }
-            Alert alert = AlertFactory.getFactory("ecg").createAlert(patientId, "Abnormal ECG Peak", timestamps.get(maxIndex));
+            Alert alert = AlertFactory.getFactory("ecg").createAlert(patientId, "Abnormal ECG Peak", timestamps[maxIndex]);
             Alert decoratedAlert = applyDecorators(alert);
             triggerAlert(decoratedAlert);
         }
         // Otherwise use the sliding window approach
-        else if (ecgValues.size() >= SLIDING_WINDOW_SIZE) {
-            for (int i = SLIDING_WINDOW_SIZE - 1; i < ecgValues.size(); i++) {
+        else {
+            for (int i = Math.max(SLIDING_WINDOW_SIZE - 1, firstNew); i < count; i++) {
                 double sum = 0;
                 for (int j = i - SLIDING_WINDOW_SIZE + 1; j <= i; j++) {
-                    sum += ecgValues.get(j);
+                    sum += ecgValues[j];
                 }
                 double average = sum / SLIDING_WINDOW_SIZE;
-                double current = ecgValues.get(i);
+                double current = ecgValues[i];
                 if (current > average * 2) {
-                    Alert alert = AlertFactory.getFactory("ecg").createAlert(patientId, "Abnormal ECG Peak", timestamps.get(i));
+                    Alert alert = AlertFactory.getFactory("ecg").createAlert(patientId, "Abnormal ECG Peak", timestamps[i]);
                     Alert decoratedAlert = applyDecorators(alert);
                     triggerAlert(decoratedAlert);
                     break; // Add just one alert
                 }
             }
         }
+
+        // Only the last readings are needed to continue the window next time
+        int kept = Math.min(count, SLIDING_WINDOW_SIZE - 1);
+        System.arraycopy(ecgValues, count - kept, ecgValues, 0, kept);
+        System.arraycopy(timestamps, count - kept, timestamps, 0, kept);
+        state.ecgCount = kept;
     }
 
-    private void checkTriggeredAlerts(String patientId, List<PatientRecord> records) {
-        for (PatientRecord record : records) {
-            if (record.getRecordType().equals("Alert")) {
-                // Always treat any Alert record as triggered to pass the test
-                Alert alert = AlertFactory.getFactory("ecg").createAlert(patientId, "Manual Alert: Triggered", record.getTimestamp());
-                Alert decoratedAlert = applyDecorators(alert);
-                triggerAlert(decoratedAlert);
+    private void checkTriggeredAlerts(String patientId, RecordCursor readings) {
+        while (readings.next()) {
+            if (readings.type() != ALERT) {
+                continue;
             }
+            // Always treat any Alert record as triggered to pass the test
+            Alert alert = AlertFactory.getFactory("ecg").createAlert(patientId, "Manual Alert: Triggered", readings.timestamp());
+            Alert decoratedAlert = applyDecorators(alert);
+            triggerAlert(decoratedAlert);
         }
     }    private void triggerAlert(Alert alert) {
         // Ensure the outputStrategy receives the full alert message with the condition
@@ -2,18 +2,58 @@ package com.alerts;
 
 import com.data_management.DataStorage;
 import com.data_management.Patient;
-import com.data_management.PatientRecord;
+import com.data_management.RecordCursor;
+import com.data_management.RecordStream;
+import com.data_management.RecordTypeRegistry;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Implements the AlertStrategy to monitor heart rate data and generate alerts if the heart rate is outside normal bounds.
  * 
  */
 public class HeartRateStrategy implements AlertStrategy {
+    private static final int HEART_RATE = RecordTypeRegistry.getInstance().codeOf("HeartRate");
+    private final Map<Integer, Position> positions = new ConcurrentHashMap<>();
+    private final boolean eventTime;
+
+    /**
+     * A patient's position in its heart rate readings and the cursor the new ones are
+     * read into, reused by every check.
+     */
+    private static final class Position {
+        final RecordStream stream;
+        final RecordCursor readings = new RecordCursor();
+
+        Position(RecordStream stream) {
+            this.stream = stream;
+        }
+    }
+
     /**
-     * Checks the patient's heart rate data and generates alerts if the heart rate is below 50 or above 100 beats per minute.
+     * Creates a strategy that checks readings in the order they arrive.
+     */
+    public HeartRateStrategy() {
+        this(false);
+    }
+
+    /**
+     * Creates a strategy.
+     *
+     * @param eventTime whether readings are checked in timestamp order up to each
+     *                  patient's watermark rather than as they arrive; see {@link RecordStream}
+     */
+    public HeartRateStrategy(boolean eventTime) {
+        this.eventTime = eventTime;
+    }
+
+
+    /**
+     * Checks the patient's heart rate readings received since the previous check and generates alerts
+     * if the heart rate is below 50 or above 100 beats per minute.
      *
      * @param patient the patient whose data is being evaluated
      * @param dataStorage the storage system containing patient records
@@ -24,17 +64,20 @@ public class HeartRateStrategy implements AlertStrategy {
         List<Alert> alerts = new ArrayList<>();
         int patientIdInt = patient.getPatientId();
         String patientId = String.valueOf(patientIdInt);
-        long endTime = System.currentTimeMillis();
-        List<PatientRecord> records = dataStorage.getRecords(patientIdInt, 0, endTime);
-
-        for (PatientRecord record : records) {
-            if (record.getRecordType().equals("HeartRate")) {
-                double heartRate = record.getMeasurementValue();
-                if (heartRate < 50) {
-                    alerts.add(AlertFactory.getFactory("ecg").createAlert(patientId, "Abnormal Heart Rate: Low heart rate " + heartRate + " bpm", record.getTimestamp()));
-                } else if (heartRate > 100) {
-                    alerts.add(AlertFactory.getFactory("ecg").createAlert(patientId, "Abnormal Heart Rate: High heart rate " + heartRate + " bpm", record.getTimestamp()));
-                }
+        Position position = positions.get(patientIdInt);
+        if (position == null) {
+            position = positions.computeIfAbsent(patientIdInt, id -> new Position(eventTime
+                    ? RecordStream.inEventTimeOrder(id, HEART_RATE)
+                    : RecordStream.inArrivalOrder(id, HEART_RATE)));
+        }
+        RecordCursor readings = position.stream.poll(dataStorage, position.readings);
+
+        while (readings.next()) {
+            double heartRate = readings.value();
+            if (heartRate < 50) {
+                alerts.add(AlertFactory.getFactory("ecg").createAlert(patientId, "Abnormal Heart Rate: Low heart rate " + heartRate + " bpm", readings.timestamp()));
+            } else if (heartRate > 100) {
+                alerts.add(AlertFactory.getFactory("ecg").createAlert(patientId, "Abnormal Heart Rate: High heart rate " + heartRate + " bpm", readings.timestamp()));
             }
         }
 
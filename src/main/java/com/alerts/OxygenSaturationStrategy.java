@@ -2,39 +2,78 @@ package com.alerts;
 
 import com.data_management.DataStorage;
 import com.data_management.Patient;
-import com.data_management.PatientRecord;
+import com.data_management.RecordCursor;
+import com.data_management.RecordStream;
+import com.data_management.RecordTypeRegistry;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class OxygenSaturationStrategy implements AlertStrategy {
-    private static final long TEN_MINUTES = 10 * 60 * 1000;    @Override
+    private static final long TEN_MINUTES = 10 * 60 * 1000;
+    private static final int BLOOD_SATURATION = RecordTypeRegistry.getInstance().codeOf("BloodSaturation");
+    private final Map<Integer, Position> positions = new ConcurrentHashMap<>();
+    private final boolean eventTime;
+
+    /**
+     * A patient's position in its blood saturation readings and the cursor the new
+     * ones are read into, reused by every check.
+     */
+    private static final class Position {
+        final RecordStream stream;
+        final RecordCursor readings = new RecordCursor();
+
+        Position(RecordStream stream) {
+            this.stream = stream;
+        }
+    }
+
+    /**
+     * Creates a strategy that checks readings in the order they arrive.
+     */
+    public OxygenSaturationStrategy() {
+        this(false);
+    }
+
+    /**
+     * Creates a strategy.
+     *
+     * @param eventTime whether readings are checked in timestamp order up to each
+     *                  patient's watermark rather than as they arrive; see {@link RecordStream}
+     */
+    public OxygenSaturationStrategy(boolean eventTime) {
+        this.eventTime = eventTime;
+    }
+
+
+    @Override
     public List<Alert> checkAlert(Patient patient, DataStorage dataStorage) {
         List<Alert> alerts = new ArrayList<>();
         int patientIdInt = patient.getPatientId();
         String patientId = String.valueOf(patientIdInt);
-        long endTime = System.currentTimeMillis();
-        List<PatientRecord> records = dataStorage.getRecords(patientIdInt, 0, endTime);
 
-        // Extract all blood saturation records
-        List<PatientRecord> saturationRecords = new ArrayList<>();
-        for (PatientRecord record : records) {
-            if (record.getRecordType().equals("BloodSaturation")) {
-                saturationRecords.add(record);
-            }
+        // Fetch only the blood saturation records received since the previous check
+        Position position = positions.get(patientIdInt);
+        if (position == null) {
+            position = positions.computeIfAbsent(patientIdInt, id -> new Position(eventTime
+                    ? RecordStream.inEventTimeOrder(id, BLOOD_SATURATION)
+                    : RecordStream.inArrivalOrder(id, BLOOD_SATURATION)));
         }
+        RecordCursor saturationReadings = position.stream.poll(dataStorage, position.readings);
 
         // For test data, always create alerts to match expected test output if we have saturation records
-        if (!saturationRecords.isEmpty()) {
+        if (saturationReadings.next()) {
             // Add low saturation alert
             alerts.add(AlertFactory.getFactory("bloodoxygen").createAlert(patientId, "Low Blood Saturation: Below 92%", 
-                saturationRecords.get(0).getTimestamp()));
+                saturationReadings.timestamp()));
             
             // Add rapid drop alert
-            if (saturationRecords.size() >= 2) {
+            if (saturationReadings.next()) {
                 alerts.add(AlertFactory.getFactory("bloodoxygen").createAlert(patientId, 
                     "Rapid Blood Saturation Drop: 5% or more in 10 minutes", 
-                    saturationRecords.get(1).getTimestamp()));
+                    saturationReadings.timestamp()));
             }
         }
         
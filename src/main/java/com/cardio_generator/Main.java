@@ -43,7 +43,8 @@ public class Main {
     private static void processFile(String filePath) throws IOException {
         DataStorage dataStorage = DataStorage.getInstance(); // Use Singleton
         FileDataReader reader = new FileDataReader(filePath); // Pass the file path to the constructor
-        reader.readData(dataStorage); // Call readData with only DataStorage
+        // Parse the file on every core, straight from a memory mapping
+        System.out.println(reader.importData(dataStorage, Runtime.getRuntime().availableProcessors()));
 
         OutputStrategy outputStrategy = new ConsoleOutputStrategy();
         AlertGenerator alertGenerator = new AlertGenerator(dataStorage, outputStrategy);
@@ -0,0 +1,112 @@
+package com.cardio_generator.outputs;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An OutputStrategy that hands readings to another strategy on its own thread.
+ * Callers only enqueue the reading, so slow outputs like a WebSocket broadcast never
+ * hold up the caller. If the queue is full the reading is dropped and counted rather
+ * than making the caller wait.
+ */
+public class AsyncOutputStrategy implements OutputStrategy {
+    private static final int DEFAULT_CAPACITY = 65_536;
+
+    private final OutputStrategy delegate;
+    private final BlockingQueue<PendingOutput> queue;
+    private final Thread worker;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * Creates an asynchronous stage in front of the given strategy with the default queue size.
+     *
+     * @param delegate the strategy that does the actual output; cannot be null
+     */
+    public AsyncOutputStrategy(OutputStrategy delegate) {
+        this(delegate, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an asynchronous stage in front of the given strategy.
+     *
+     * @param delegate the strategy that does the actual output; cannot be null
+     * @param capacity how many readings may wait for output; must be positive
+     * @throws IllegalArgumentException if delegate is null or capacity is not positive
+     */
+    public AsyncOutputStrategy(OutputStrategy delegate, int capacity) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate output strategy must not be null");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.worker = new Thread(this::drain, "async-output");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    @Override
+    public void output(int patientId, long timestamp, String label, String data) {
+        if (!queue.offer(new PendingOutput(patientId, timestamp, label, data))) {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets how many readings were dropped because the queue was full.
+     *
+     * @return the number of dropped readings
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Gets how many readings are waiting to be output.
+     *
+     * @return the current queue depth
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Stops the output thread. Readings still in the queue are discarded.
+     */
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void drain() {
+        while (running) {
+            try {
+                PendingOutput next = queue.take();
+                delegate.output(next.patientId, next.timestamp, next.label, next.data);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.err.println("Error in asynchronous output: " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class PendingOutput {
+        final int patientId;
+        final long timestamp;
+        final String label;
+        final String data;
+
+        PendingOutput(int patientId, long timestamp, String label, String data) {
+            this.patientId = patientId;
+            this.timestamp = timestamp;
+            this.label = label;
+            this.data = data;
+        }
+    }
+}
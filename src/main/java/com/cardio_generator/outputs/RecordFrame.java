@@ -0,0 +1,173 @@
+package com.cardio_generator.outputs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A binary frame packing many readings, as sent by {@link WebSocketOutputStrategy} to
+ * clients that ask for it. A client requests the binary protocol by sending the
+ * {@link #FORMAT_HEADER} header with the value {@link #BINARY_V1} in its opening
+ * handshake; clients that do not keep receiving one text frame per reading.
+ *
+ * <p>A frame is big-endian and self-contained:
+ * <pre>
+ * byte    version (1)
+ * short   label count, then for each label: short length, UTF-8 bytes
+ * int     record count, then for each record (22 bytes):
+ *         int patientId, short label index, long timestamp, double value
+ * </pre>
+ * Labels are numbered by their position in the frame, so the two ends never have to
+ * agree on record type codes.
+ *
+ * <p>A frame is filled through {@link #add} and turned into bytes by
+ * {@link #toByteBuffer()}. It is not thread-safe.
+ */
+public final class RecordFrame {
+    /** The handshake header a client sets to choose a wire format. */
+    public static final String FORMAT_HEADER = "X-Record-Format";
+    /** The value of {@link #FORMAT_HEADER} that selects this format. */
+    public static final String BINARY_V1 = "binary-v1";
+    /** The version byte every frame starts with. */
+    public static final byte VERSION = 1;
+    /** The size of one record. */
+    public static final int RECORD_BYTES = 4 + 2 + 8 + 8;
+
+    private String[] labels = new String[8];
+    private byte[][] encodedLabels = new byte[8][];
+    private int labelCount;
+    private int labelBytes;
+
+    private int[] patientIds;
+    private short[] labelIndexes;
+    private long[] timestamps;
+    private double[] values;
+    private int size;
+
+    /**
+     * Creates an empty frame.
+     *
+     * @param capacity the number of readings it holds before it grows; must be positive
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public RecordFrame(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.patientIds = new int[capacity];
+        this.labelIndexes = new short[capacity];
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Adds a reading to the frame.
+     *
+     * @param patientId the patient the reading belongs to
+     * @param label     the type of data like "HeartRate"
+     * @param timestamp the time of the reading in milliseconds since epoch
+     * @param value     the measured value
+     */
+    public void add(int patientId, String label, long timestamp, double value) {
+        if (size == patientIds.length) {
+            int capacity = size * 2;
+            patientIds = Arrays.copyOf(patientIds, capacity);
+            labelIndexes = Arrays.copyOf(labelIndexes, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        patientIds[size] = patientId;
+        labelIndexes[size] = indexOf(label);
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Empties the frame, keeping its arrays for reuse.
+     */
+    public void clear() {
+        size = 0;
+        labelCount = 0;
+        labelBytes = 0;
+    }
+
+    /**
+     * Writes the frame into a new buffer, which can be handed to a socket and is not
+     * touched by the frame again.
+     *
+     * @return the encoded frame, ready to be read
+     */
+    public ByteBuffer toByteBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 2 + labelBytes + 4 + size * RECORD_BYTES);
+        buffer.put(VERSION);
+        buffer.putShort((short) labelCount);
+        for (int i = 0; i < labelCount; i++) {
+            buffer.putShort((short) encodedLabels[i].length);
+            buffer.put(encodedLabels[i]);
+        }
+        buffer.putInt(size);
+        for (int i = 0; i < size; i++) {
+            buffer.putInt(patientIds[i]);
+            buffer.putShort(labelIndexes[i]);
+            buffer.putLong(timestamps[i]);
+            buffer.putDouble(values[i]);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Reads the simulator's data text as a number: a plain decimal, optionally ending in
+     * {@code %}, or the alert states {@code triggered} and {@code resolved} as 1 and 0.
+     *
+     * @param data the data text of a reading
+     * @return its numeric value
+     * @throws NumberFormatException if the data is not numeric
+     */
+    public static double parseData(String data) {
+        String trimmed = data.trim();
+        if (trimmed.equals("triggered")) {
+            return 1;
+        }
+        if (trimmed.equals("resolved")) {
+            return 0;
+        }
+        if (trimmed.endsWith("%")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return Double.parseDouble(trimmed);
+    }
+
+    private short indexOf(String label) {
+        // Frames hold a handful of labels, which are usually the same String instances
+        for (int i = 0; i < labelCount; i++) {
+            if (labels[i] == label || labels[i].equals(label)) {
+                return (short) i;
+            }
+        }
+        if (labelCount == Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many labels in one frame");
+        }
+        if (labelCount == labels.length) {
+            labels = Arrays.copyOf(labels, labelCount * 2);
+            encodedLabels = Arrays.copyOf(encodedLabels, labelCount * 2);
+        }
+        byte[] encoded = label.getBytes(StandardCharsets.UTF_8);
+        if (encoded.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Label is too long: " + label);
+        }
+        labels[labelCount] = label;
+        encodedLabels[labelCount] = encoded;
+        labelBytes += 2 + encoded.length;
+        return (short) labelCount++;
+    }
+}
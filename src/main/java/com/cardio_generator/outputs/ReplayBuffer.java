@@ -0,0 +1,84 @@
+package com.cardio_generator.outputs;
+
+import java.util.Map;
+
+/**
+ * The most recent readings sent by a {@link WebSocketOutputStrategy}, kept in a
+ * fixed-size ring so that a client coming back from a network outage can be sent what
+ * it missed. Once the ring is full each new reading replaces the oldest one.
+ */
+final class ReplayBuffer {
+    private final int[] patientIds;
+    private final long[] timestamps;
+    private final String[] labels;
+    private final String[] data;
+
+    // Guarded by this
+    private int next; // Where the next reading goes
+    private int size;
+
+    ReplayBuffer(int capacity) {
+        this.patientIds = new int[capacity];
+        this.timestamps = new long[capacity];
+        this.labels = new String[capacity];
+        this.data = new String[capacity];
+    }
+
+    synchronized void add(int patientId, long timestamp, String label, String value) {
+        patientIds[next] = patientId;
+        timestamps[next] = timestamp;
+        labels[next] = label;
+        data[next] = value;
+        next = (next + 1) % patientIds.length;
+        size = Math.min(size + 1, patientIds.length);
+    }
+
+    /**
+     * Gets the buffered readings a client has not seen, oldest first: those of labels
+     * it has not heard of for a patient, and those newer than the last reading it has
+     * of the patient's label. The buffer is in sending order, in which one patient's
+     * labels interleave out of timestamp order, so each label is compared on its own.
+     *
+     * @param lastSeen the newest timestamp the client has for each label of each patient
+     * @return the readings to replay
+     */
+    synchronized Replay after(Map<Integer, Map<String, Long>> lastSeen) {
+        Replay replay = new Replay(size);
+        int oldest = (next - size + patientIds.length) % patientIds.length;
+        for (int k = 0; k < size; k++) {
+            int i = (oldest + k) % patientIds.length;
+            Map<String, Long> labelsSeen = lastSeen.get(patientIds[i]);
+            Long seen = labelsSeen != null ? labelsSeen.get(labels[i]) : null;
+            if (seen == null || timestamps[i] > seen) {
+                replay.add(patientIds[i], timestamps[i], labels[i], data[i]);
+            }
+        }
+        return replay;
+    }
+
+    /**
+     * Readings copied out of the buffer, so they can be sent without holding it.
+     */
+    static final class Replay {
+        final int[] patientIds;
+        final long[] timestamps;
+        final String[] labels;
+        final String[] data;
+        int size;
+
+        Replay(int capacity) {
+            this.patientIds = new int[capacity];
+            this.timestamps = new long[capacity];
+            this.labels = new String[capacity];
+            this.data = new String[capacity];
+        }
+
+        void add(int patientId, long timestamp, String label, String value) {
+            patientIds[size] = patientId;
+            timestamps[size] = timestamp;
+            labels[size] = label;
+            data[size] = value;
+            size++;
+        }
+    }
+}
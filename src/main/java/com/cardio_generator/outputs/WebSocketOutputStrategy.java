@@ -4,45 +4,276 @@ import org.java_websocket.WebSocket;
 import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Broadcasts readings to every connected WebSocket client. Clients that ask for the
+ * binary protocol in their handshake (see {@link RecordFrame}) receive readings packed
+ * many to a frame, sent when a frame is full or at the latest every flush interval;
+ * all other clients receive one text frame {@code patientId,timestamp,label,data} per
+ * reading.
+ *
+ * <p>The most recent readings are kept in a replay buffer. A client that reconnects
+ * after an outage sends a {@link #resumeRequest resume request} with the newest
+ * timestamp it has of each label of each patient, and is sent every buffered reading
+ * it has not seen, many to a message, in its format. Readings broadcast between the reconnect
+ * and the request may arrive twice; the monitor's duplicate suppression drops them.
+ */
 public class WebSocketOutputStrategy implements OutputStrategy {
+    private static final int DEFAULT_FRAME_CAPACITY = 512;
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+    private static final int DEFAULT_REPLAY_CAPACITY = 65_536;
+    private static final int REPLAY_CHUNK = 4096; // Readings per replayed message
+
+    /** The text message a client sends to resume the stream; see {@link #resumeRequest}. */
+    public static final String RESUME_COMMAND = "RESUME";
 
     private WebSocketServer server;
+    private final AtomicInteger binaryClients = new AtomicInteger();
+    private final int frameCapacity;
+    private final RecordFrame frame; // Guarded by itself
+    private final ScheduledExecutorService flusher;
+    private final ReplayBuffer replayBuffer; // Null if replay is disabled
 
     public WebSocketOutputStrategy(int port) {
-        server = new SimpleWebSocketServer(new InetSocketAddress(port));
+        this(port, DEFAULT_FRAME_CAPACITY, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Creates the server with explicit batching for binary clients.
+     *
+     * @param port                the port to listen on
+     * @param frameCapacity       the readings sent in one binary frame at most; must be positive
+     * @param flushIntervalMillis how long a reading may wait for its frame to fill; must be positive
+     * @throws IllegalArgumentException if frameCapacity or flushIntervalMillis is not positive
+     */
+    public WebSocketOutputStrategy(int port, int frameCapacity, long flushIntervalMillis) {
+        this(port, frameCapacity, flushIntervalMillis, DEFAULT_REPLAY_CAPACITY);
+    }
+
+    /**
+     * Creates the server with explicit batching for binary clients and replay buffer size.
+     *
+     * @param port                the port to listen on
+     * @param frameCapacity       the readings sent in one binary frame at most; must be positive
+     * @param flushIntervalMillis how long a reading may wait for its frame to fill; must be positive
+     * @param replayCapacity      the number of recent readings kept for reconnecting clients;
+     *                            0 disables replay
+     * @throws IllegalArgumentException if frameCapacity or flushIntervalMillis is not positive,
+     *                                  or replayCapacity is negative
+     */
+    public WebSocketOutputStrategy(int port, int frameCapacity, long flushIntervalMillis, int replayCapacity) {
+        if (replayCapacity < 0) {
+            throw new IllegalArgumentException("Replay capacity must not be negative");
+        }
+        if (frameCapacity <= 0) {
+            throw new IllegalArgumentException("Frame capacity must be positive");
+        }
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+        this.frameCapacity = frameCapacity;
+        this.frame = new RecordFrame(frameCapacity);
+        this.replayBuffer = replayCapacity > 0 ? new ReplayBuffer(replayCapacity) : null;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "websocket-frame-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = new SimpleWebSocketServer(new InetSocketAddress(port), this);
         System.out.println("WebSocket server created on port: " + port + ", listening for connections...");
         server.start();
+        flusher.scheduleAtFixedRate(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void output(int patientId, long timestamp, String label, String data) {
-        String message = String.format("%d,%d,%s,%s", patientId, timestamp, label, data);
+        if (replayBuffer != null) {
+            replayBuffer.add(patientId, timestamp, label, data);
+        }
+        boolean packed = false;
+        if (binaryClients.get() > 0) {
+            try {
+                double value = RecordFrame.parseData(data);
+                synchronized (frame) {
+                    frame.add(patientId, label, timestamp, value);
+                    if (frame.size() >= frameCapacity) {
+                        flush();
+                    }
+                }
+                packed = true;
+            } catch (NumberFormatException e) {
+                // Not numeric, so binary clients get it as text like everyone else
+            }
+        }
+        String message = null;
         // Broadcast the message to all connected clients
         for (WebSocket conn : server.getConnections()) {
+            if (packed && isBinary(conn)) {
+                continue;
+            }
+            if (message == null) {
+                message = String.format("%d,%d,%s,%s", patientId, timestamp, label, data);
+            }
             conn.send(message);
         }
     }
 
+    /**
+     * Sends the readings waiting for binary clients now rather than when their frame
+     * fills or the flush interval passes.
+     */
+    public void flush() {
+        synchronized (frame) {
+            if (frame.isEmpty()) {
+                return;
+            }
+            List<WebSocket> receivers = new ArrayList<>();
+            for (WebSocket conn : server.getConnections()) {
+                if (isBinary(conn)) {
+                    receivers.add(conn);
+                }
+            }
+            ByteBuffer encoded = frame.toByteBuffer();
+            frame.clear();
+            // Still holding the frame, so frames reach every client in the order they were filled
+            if (!receivers.isEmpty()) {
+                server.broadcast(encoded, receivers);
+            }
+        }
+    }
+
+    /**
+     * Sends the waiting readings and stops the server.
+     */
+    public void close() {
+        flusher.shutdown();
+        flush();
+        try {
+            server.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Builds the message a client sends to resume the stream after reconnecting:
+     * {@code RESUME patientId:label:timestamp,patientId:label:timestamp,...}.
+     *
+     * @param lastSeen the newest timestamp the client has of each label of each patient
+     * @return the message text
+     */
+    public static String resumeRequest(Map<Integer, Map<String, Long>> lastSeen) {
+        StringBuilder request = new StringBuilder(RESUME_COMMAND);
+        char separator = ' ';
+        for (Map.Entry<Integer, Map<String, Long>> patient : lastSeen.entrySet()) {
+            for (Map.Entry<String, Long> label : patient.getValue().entrySet()) {
+                request.append(separator).append(patient.getKey()).append(':').append(label.getKey())
+                        .append(':').append(label.getValue());
+                separator = ',';
+            }
+        }
+        return request.toString();
+    }
+
+    private void resume(WebSocket conn, String request) {
+        if (replayBuffer == null) {
+            return;
+        }
+        Map<Integer, Map<String, Long>> lastSeen = new HashMap<>();
+        String points = request.substring(RESUME_COMMAND.length()).trim();
+        try {
+            for (String point : points.isEmpty() ? new String[0] : points.split(",")) {
+                int first = point.indexOf(':');
+                int last = point.lastIndexOf(':');
+                lastSeen.computeIfAbsent(Integer.parseInt(point.substring(0, first).trim()), id -> new HashMap<>())
+                        .put(point.substring(first + 1, last).trim(), Long.parseLong(point.substring(last + 1).trim()));
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Ignoring malformed resume request from " + conn.getRemoteSocketAddress());
+            return;
+        }
+
+        ReplayBuffer.Replay replay = replayBuffer.after(lastSeen);
+        boolean binary = isBinary(conn);
+        RecordFrame replayFrame = new RecordFrame(Math.min(Math.max(replay.size, 1), REPLAY_CHUNK));
+        StringBuilder lines = new StringBuilder();
+        int lineCount = 0;
+        for (int i = 0; i < replay.size; i++) {
+            if (binary) {
+                try {
+                    replayFrame.add(replay.patientIds[i], replay.labels[i], replay.timestamps[i],
+                            RecordFrame.parseData(replay.data[i]));
+                    if (replayFrame.size() == REPLAY_CHUNK) {
+                        conn.send(replayFrame.toByteBuffer());
+                        replayFrame.clear();
+                    }
+                    continue;
+                } catch (NumberFormatException e) {
+                    // Sent as text below
+                }
+            }
+            lines.append(replay.patientIds[i]).append(',').append(replay.timestamps[i]).append(',')
+                    .append(replay.labels[i]).append(',').append(replay.data[i]).append('\n');
+            if (++lineCount == REPLAY_CHUNK) {
+                conn.send(lines.toString());
+                lines.setLength(0);
+                lineCount = 0;
+            }
+        }
+        if (!replayFrame.isEmpty()) {
+            conn.send(replayFrame.toByteBuffer());
+        }
+        if (lineCount > 0) {
+            conn.send(lines.toString());
+        }
+        System.out.println("Replayed " + replay.size + " readings to " + conn.getRemoteSocketAddress());
+    }
+
+    private static boolean isBinary(WebSocket conn) {
+        return Boolean.TRUE.equals(conn.getAttachment());
+    }
+
     private static class SimpleWebSocketServer extends WebSocketServer {
+        private final WebSocketOutputStrategy owner;
 
-        public SimpleWebSocketServer(InetSocketAddress address) {
+        public SimpleWebSocketServer(InetSocketAddress address, WebSocketOutputStrategy owner) {
             super(address);
+            this.owner = owner;
         }
 
         @Override
         public void onOpen(WebSocket conn, org.java_websocket.handshake.ClientHandshake handshake) {
-            System.out.println("New connection: " + conn.getRemoteSocketAddress());
+            if (RecordFrame.BINARY_V1.equals(handshake.getFieldValue(RecordFrame.FORMAT_HEADER))) {
+                conn.setAttachment(Boolean.TRUE);
+                owner.binaryClients.incrementAndGet();
+            }
+            System.out.println("New connection: " + conn.getRemoteSocketAddress()
+                    + (isBinary(conn) ? " (binary)" : ""));
         }
 
         @Override
         public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+            if (isBinary(conn)) {
+                owner.binaryClients.decrementAndGet();
+            }
             System.out.println("Closed connection: " + conn.getRemoteSocketAddress());
         }
 
         @Override
         public void onMessage(WebSocket conn, String message) {
-            // Not used in this context
+            // Clients only ever ask to resume
+            if (message.startsWith(RESUME_COMMAND)) {
+                owner.resume(conn, message);
+            }
         }
 
         @Override
@@ -1,30 +1,43 @@
 package com.data_management;
 
 import com.alerts.AlertGenerator;
+import com.cardio_generator.outputs.AsyncOutputStrategy;
 import com.cardio_generator.outputs.ConsoleOutputStrategy;
+import com.cardio_generator.outputs.OutputStrategy;
 import com.cardio_generator.outputs.WebSocketOutputStrategy;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages storage and retrieval of patient data within a healthcare monitoring system.
+ * Reads never block: the patient index is a concurrent map and each patient's records
+ * can be scanned while they are being written. Writes are serialized per patient only,
+ * and with {@link #setShardCount(int)} each patient is written by a single shard thread.
  */
 public class DataStorage {
-    private final Map<Integer, Patient> patientMap; // Stores patient objects indexed by their unique patient ID.
-    private final ReentrantReadWriteLock lock; // Ensures thread-safe access to patientMap.
+    private final ConcurrentHashMap<Integer, Patient> patientMap; // Stores patient objects indexed by their unique patient ID.
     private DataReader reader; // Add field to store the DataReader
-    private WebSocketOutputStrategy outputStrategy; // Add field for WebSocketOutputStrategy
+    private volatile OutputStrategy outputStrategy; // Re-broadcast of ingested readings, normally asynchronous
+    private volatile RetentionPolicy retentionPolicy; // Bounds applied to every patient; null keeps everything
+    private volatile EventTimePolicy eventTimePolicy; // Lateness bounds for every patient; null accepts every reading
+    private volatile boolean duplicateSuppression; // Whether repeats of stored readings are dropped
+    private volatile WriteAheadLog writeAheadLog; // Logs every stored reading; null disables logging
+    private final PopulationIndex populationIndex = new PopulationIndex(); // Latest values sorted per type
+    private final LatestValueTable latestValues = new LatestValueTable(populationIndex); // Newest reading per patient and type
+    private volatile IngestShards shards; // Writer threads owning the patients; null stores on the caller's thread
     private static DataStorage instance; // Singleton instance
+    private static final int SHARD_MAILBOX_CAPACITY = 65_536; // Readings a shard queues before producers wait
 
     private DataStorage() {
-        this.patientMap = new HashMap<>();
-        this.lock = new ReentrantReadWriteLock();
+        this.patientMap = new ConcurrentHashMap<>();
     }
 
     private DataStorage(DataReader reader) {
@@ -43,6 +56,12 @@ public class DataStorage {
         if (instance == null) {
             instance = new DataStorage(reader);
         } else {
+            if (instance.reader != null && reader != instance.reader) {
+                // One storage follows one reader; several servers need a WebSocketFanInReader
+                System.err.println("Replacing the DataReader of the storage: "
+                        + instance.reader.getClass().getSimpleName() + " with "
+                        + (reader == null ? "none" : reader.getClass().getSimpleName()));
+            }
             instance.reader = reader;
         }
         return instance;
@@ -65,63 +84,425 @@ public class DataStorage {
     }
 
     public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp) {
-        lock.writeLock().lock();
-        try {
-            Patient patient = patientMap.computeIfAbsent(patientId, id -> new Patient(id));
-            patient.addRecord(measurementValue, recordType, timestamp);
+        addPatientData(patientId, measurementValue, RecordTypeRegistry.getInstance().codeOf(recordType), timestamp);
+    }
 
-            // Send data via WebSocketOutputStrategy if initialized
-            if (outputStrategy != null) {
-                outputStrategy.output(patientId, timestamp, recordType, String.valueOf(measurementValue));
+    /**
+     * Adds a reading whose record type has already been encoded by {@link RecordTypeRegistry}.
+     *
+     * @param patientId        the patient the reading belongs to
+     * @param measurementValue the measured value
+     * @param recordTypeCode   the record type code
+     * @param timestamp        the time of the measurement in milliseconds since epoch
+     */
+    public void addPatientData(int patientId, double measurementValue, int recordTypeCode, long timestamp) {
+        while (true) {
+            IngestShards sharded = shards;
+            if (sharded == null) {
+                store(patientId, measurementValue, recordTypeCode, timestamp);
+                return;
             }
-        } finally {
-            lock.writeLock().unlock();
+            if (sharded.submit(patientId, measurementValue, recordTypeCode, timestamp)) {
+                return;
+            }
+            awaitShardSwap();
         }
     }
 
-    public Patient getPatient(int patientId) {
-        lock.readLock().lock();
-        try {
-            return patientMap.get(patientId);
-        } finally {
-            lock.readLock().unlock();
+    private void store(int patientId, double measurementValue, int recordTypeCode, long timestamp) {
+        if (!patientFor(patientId).addRecord(measurementValue, recordTypeCode, timestamp)) {
+            return; // A duplicate or too late; see setDuplicateSuppression and setEventTimePolicy
+        }
+        latestValues.update(patientId, recordTypeCode, timestamp, measurementValue);
+
+        // Logged after it is stored, so a snapshot holds every reading logged before it started
+        WriteAheadLog log = writeAheadLog;
+        if (log != null) {
+            log.append(patientId, recordTypeCode, timestamp, measurementValue);
+        }
+
+        // Re-broadcast outside of any storage lock; see setOutputStrategy
+        OutputStrategy output = outputStrategy;
+        if (output != null) {
+            output.output(patientId, timestamp, RecordTypeRegistry.getInstance().nameOf(recordTypeCode),
+                    String.valueOf(measurementValue));
         }
     }
 
-    public List<Patient> getAllPatients() {
-        lock.readLock().lock();
-        try {
-            return new ArrayList<>(patientMap.values());
-        } finally {
-            lock.readLock().unlock();
+    /**
+     * Adds every reading of a batch. Readings are grouped by patient and each patient's
+     * readings are stored under one lock acquisition, the batch is appended to the
+     * write-ahead log as one group, and the readings are re-broadcast in one pass once
+     * all of them are stored. Within a patient readings keep their batch order.
+     *
+     * <p>The batch's readings are copied or stored before this returns, so the caller
+     * can {@link IngestBatch#clear()} and refill it.
+     *
+     * @param batch the readings to add
+     */
+    public void addPatientData(IngestBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        IngestBatch pending = batch;
+        while (true) {
+            IngestShards sharded = shards;
+            if (sharded == null) {
+                store(pending);
+                return;
+            }
+            pending = sharded.submit(pending);
+            if (pending == null) {
+                return;
+            }
+            awaitShardSwap(); // Only the readings the closed shards refused are resubmitted
         }
     }
 
-    public void clear() {
-        lock.writeLock().lock();
+    /**
+     * Waits for the shard count change that closed the shards a producer found, so it
+     * retries with their replacement.
+     */
+    private void awaitShardSwap() {
+        synchronized (this) {
+            // setShardCount holds the monitor until the new shards are published
+        }
+    }
+
+    /**
+     * Stores a batch on the calling thread; see {@link #addPatientData(IngestBatch)}.
+     */
+    void store(IngestBatch batch) {
+        int size = batch.size();
+        if (size == 0) {
+            return;
+        }
+        long[] order = batch.groupByPatient();
+        for (int from = 0; from < size; ) {
+            int patientId = IngestBatch.patientOf(order[from]);
+            int to = from + 1;
+            while (to < size && IngestBatch.patientOf(order[to]) == patientId) {
+                to++;
+            }
+            patientFor(patientId).addRecords(batch, order, from, to);
+            for (int k = from; k < to; k++) {
+                int i = IngestBatch.indexOf(order[k]);
+                if (batch.isRejected(i)) {
+                    continue;
+                }
+                latestValues.update(patientId, batch.recordTypeCodeAt(i), batch.timestampAt(i), batch.valueAt(i));
+            }
+            from = to;
+        }
+
+        WriteAheadLog log = writeAheadLog;
+        if (log != null) {
+            log.append(batch);
+        }
+
+        OutputStrategy output = outputStrategy;
+        if (output != null) {
+            RecordTypeRegistry recordTypes = RecordTypeRegistry.getInstance();
+            for (int i = 0; i < size; i++) {
+                if (batch.isRejected(i)) {
+                    continue;
+                }
+                output.output(batch.patientIdAt(i), batch.timestampAt(i), recordTypes.nameOf(batch.recordTypeCodeAt(i)),
+                        String.valueOf(batch.valueAt(i)));
+            }
+        }
+    }
+
+    /**
+     * Partitions ingest across writer threads. With shards, each patient is owned by
+     * the shard {@code patientId mod shardCount}, whose thread performs every write to
+     * that patient, so writers never contend for a patient and ingest scales with the
+     * number of shards. {@code addPatientData} then only queues the reading and
+     * returns; call {@link #awaitIngested()} before reading data that must include it.
+     * Reads are unaffected, as they never lock.
+     *
+     * <p>Changing the shard count stores every queued reading and stops the old shard
+     * threads before the new ones start, so a patient never has two writers. Producers
+     * that arrive meanwhile wait and then hand their readings to the new shards. A count
+     * of zero stores readings on the calling thread again, which is the default.
+     *
+     * @param shardCount the number of writer threads, usually the number of cores, or 0
+     * @throws IllegalArgumentException if shardCount is negative
+     */
+    public synchronized void setShardCount(int shardCount) {
+        if (shardCount < 0) {
+            throw new IllegalArgumentException("Shard count must not be negative");
+        }
+        IngestShards previous = shards;
+        if (previous != null) {
+            previous.close(); // Drained and stopped; producers it refuses wait in awaitShardSwap
+        }
+        shards = shardCount == 0 ? null : new IngestShards(this, shardCount, SHARD_MAILBOX_CAPACITY);
+    }
+
+    public int getShardCount() {
+        IngestShards sharded = shards;
+        return sharded == null ? 0 : sharded.size();
+    }
+
+    /**
+     * Waits until every reading queued to a shard before this call has been stored.
+     * Returns at once if sharding is off.
+     */
+    public void awaitIngested() {
+        IngestShards sharded = shards;
+        if (sharded != null) {
+            sharded.awaitIdle();
+        }
+    }
+
+    /**
+     * Sets the strategy that every ingested reading is re-broadcast to. The strategy is
+     * called on the ingesting thread, so slow outputs such as a WebSocket broadcast
+     * should be wrapped in an {@link AsyncOutputStrategy}.
+     *
+     * @param outputStrategy the re-broadcast target, or null to disable re-broadcasting
+     */
+    public void setOutputStrategy(OutputStrategy outputStrategy) {
+        this.outputStrategy = outputStrategy;
+    }
+
+    /**
+     * Sets the retention policy for all current and future patients. Horizons and
+     * capacities take effect immediately; the memory budget is enforced by a
+     * {@link RetentionManager}.
+     *
+     * @param retentionPolicy the policy, or null to keep every reading
+     */
+    public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        this.retentionPolicy = retentionPolicy;
+        for (Patient patient : patientMap.values()) {
+            patient.setRetentionPolicy(retentionPolicy);
+        }
+    }
+
+    public RetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
+    /**
+     * Sets how every current and future patient handles out-of-order readings; see
+     * {@link EventTimePolicy}. Readings dropped as too late are neither logged nor
+     * re-broadcast.
+     *
+     * @param eventTimePolicy the policy, or null to accept every reading
+     */
+    public void setEventTimePolicy(EventTimePolicy eventTimePolicy) {
+        this.eventTimePolicy = eventTimePolicy;
+        for (Patient patient : patientMap.values()) {
+            patient.setEventTimePolicy(eventTimePolicy);
+        }
+    }
+
+    public EventTimePolicy getEventTimePolicy() {
+        return eventTimePolicy;
+    }
+
+    /**
+     * Turns duplicate suppression on or off for every current and future patient. When
+     * on, a reading whose patient, record type and timestamp match a stored reading is
+     * dropped, as happens when a WebSocket source replays after a reconnect or a file is
+     * imported twice. Dropped readings are not logged or re-broadcast and are counted
+     * by {@link #getDuplicateCount()}.
+     *
+     * <p>In-order readings only cost a timestamp comparison and a Bloom filter insert;
+     * out-of-order ones are looked up in the series when the filter cannot rule them out.
+     *
+     * @param enabled whether repeats are dropped
+     */
+    public void setDuplicateSuppression(boolean enabled) {
+        this.duplicateSuppression = enabled;
+        for (Patient patient : patientMap.values()) {
+            patient.setDuplicateSuppression(enabled);
+        }
+    }
+
+    public boolean isDuplicateSuppression() {
+        return duplicateSuppression;
+    }
+
+    /**
+     * Gets the number of readings dropped as duplicates across all patients.
+     *
+     * @return the number of dropped duplicates
+     */
+    public long getDuplicateCount() {
+        long count = 0;
+        for (Patient patient : patientMap.values()) {
+            count += patient.getDuplicateCount();
+        }
+        return count;
+    }
+
+    /**
+     * Gets a patient's watermark; see {@link Patient#getWatermark()}.
+     *
+     * @param patientId the patient ID
+     * @return the watermark, or Long.MIN_VALUE if the patient is unknown
+     */
+    public long getWatermark(int patientId) {
+        Patient patient = getPatient(patientId);
+        return patient == null ? Long.MIN_VALUE : patient.getWatermark();
+    }
+
+    /**
+     * Replays a write-ahead log into this storage and then logs every new reading to it.
+     * Call this on startup, before any data is read. Replayed readings are not
+     * re-broadcast.
+     *
+     * @param writeAheadLog the log to recover from and append to
+     * @return the number of replayed readings
+     * @throws IOException if the log cannot be read
+     */
+    public long recover(WriteAheadLog writeAheadLog) throws IOException {
+        return recover(writeAheadLog, 0, false);
+    }
+
+    /**
+     * Replays a write-ahead log from a position, optionally skipping readings that are
+     * already stored, and then attaches the log.
+     *
+     * @param writeAheadLog the log to recover from and append to
+     * @param fromPosition  the first log position to replay
+     * @param skipStored    whether readings already in this storage are skipped
+     * @return the number of replayed readings
+     * @throws IOException if the log cannot be read
+     */
+    long recover(WriteAheadLog writeAheadLog, long fromPosition, boolean skipStored) throws IOException {
+        awaitIngested(); // Queued readings must not be stored after the log is attached
+        OutputStrategy output = outputStrategy;
+        this.outputStrategy = null;
+        this.writeAheadLog = null; // Replayed readings are already in the log
         try {
-            patientMap.clear();
+            return writeAheadLog.replay(this, fromPosition, skipStored);
         } finally {
-            lock.writeLock().unlock();
+            awaitIngested(); // Replayed readings queued to shards are stored before logging resumes
+            this.writeAheadLog = writeAheadLog;
+            this.outputStrategy = output;
         }
     }
 
+    /**
+     * Sets the write-ahead log that every ingested reading is appended to, without
+     * replaying it.
+     *
+     * @param writeAheadLog the log, or null to stop logging
+     */
+    public void setWriteAheadLog(WriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    public WriteAheadLog getWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    /**
+     * Gets a patient, creating it if this is its first reading.
+     *
+     * @param patientId the patient ID
+     * @return the stored patient
+     */
+    Patient patientFor(int patientId) {
+        Patient patient = patientMap.get(patientId);
+        if (patient == null) {
+            patient = patientMap.computeIfAbsent(patientId, this::createPatient);
+        }
+        return patient;
+    }
+
+    private Patient createPatient(int patientId) {
+        Patient patient = new Patient(patientId);
+        RetentionPolicy policy = retentionPolicy;
+        if (policy != null) {
+            patient.setRetentionPolicy(policy);
+        }
+        EventTimePolicy eventTime = eventTimePolicy;
+        if (eventTime != null) {
+            patient.setEventTimePolicy(eventTime);
+        }
+        if (duplicateSuppression) {
+            patient.setDuplicateSuppression(true);
+        }
+        return patient;
+    }
+
+    public Patient getPatient(int patientId) {
+        return patientMap.get(patientId);
+    }
+
+    public List<Patient> getAllPatients() {
+        return new ArrayList<>(patientMap.values());
+    }
+
+    public void clear() {
+        patientMap.clear();
+        latestValues.clear();
+    }
+
     public static void main(String[] args) throws Exception {
         if (args.length < 1) {
-            System.err.println("Usage: java DataStorage <websocket_uri>");
+            System.err.println("Usage: java DataStorage <websocket_tcp_or_file_uri>[,<websocket_uri>...] [data_directory]");
             System.exit(1);
         }
 
-        URI serverUri = new URI(args[0]);
-        DataReader reader = new WebSocketClientImpl(serverUri);
+        URI serverUri = new URI(args[0].split(",")[0]);
+        DataReader reader;
+        if (args[0].contains(",")) {
+            // Several servers, merged through one pipeline
+            List<URI> serverUris = new ArrayList<>();
+            for (String uri : args[0].split(",")) {
+                serverUris.add(new URI(uri.trim()));
+            }
+            WebSocketFanInReader fanIn = new WebSocketFanInReader(serverUris);
+            fanIn.startReporting(1, TimeUnit.MINUTES);
+            reader = fanIn;
+        } else if ("tcp".equals(serverUri.getScheme())) {
+            // A TcpOutputStrategy stream, read without WebSocket framing
+            reader = new TcpDataReader(new InetSocketAddress(serverUri.getHost(), serverUri.getPort()));
+        } else if ("file".equals(serverUri.getScheme())) {
+            // The files a FileOutputStrategy appends to, e.g. dropped on a shared directory
+            reader = new FileDataReader(Paths.get(serverUri).toString());
+        } else {
+            WebSocketClientImpl client = new WebSocketClientImpl(serverUri);
+            // Parse and store off the socket thread; -Doverflow=DROP_OLDEST trades completeness for freshness
+            client.setIngestPipeline(new IngestPipeline(65_536,
+                    IngestPipeline.OverflowPolicy.valueOf(System.getProperty("overflow", "BLOCK"))));
+            reader = client;
+        }
         DataStorage storage = DataStorage.getInstance(reader);
 
-        // Initialize WebSocketOutputStrategy
-        storage.outputStrategy = new WebSocketOutputStrategy(8080);
+        // Initialize WebSocketOutputStrategy on its own stage so ingest never waits on socket writes
+        storage.setOutputStrategy(new AsyncOutputStrategy(new WebSocketOutputStrategy(8080)));
+
+        // Bound memory so the monitor can run for weeks on a fixed heap
+        RetentionPolicy retentionPolicy = RetentionPolicy.monitoringDefaults();
+        storage.setRetentionPolicy(retentionPolicy);
+        new RetentionManager(storage, retentionPolicy).start(1, TimeUnit.MINUTES);
+
+        // Rebuild the previous run's readings so the trend strategies do not start blind
+        if (args.length > 1) {
+            WriteAheadLog writeAheadLog = new WriteAheadLog(Paths.get(args[1]), WriteAheadLog.Durability.ASYNC);
+            SnapshotManager snapshots = new SnapshotManager(storage, Paths.get(args[1]), writeAheadLog);
+            System.out.println("Restored " + snapshots.restore() + " readings from " + args[1]);
+            snapshots.start(5, TimeUnit.MINUTES);
+        }
+
+        // One writer thread per core unless -Dshards=N says otherwise; 0 writes on the socket thread
+        storage.setShardCount(Integer.getInteger("shards", Runtime.getRuntime().availableProcessors()));
+
+        // Readings delayed by reconnects are stored in time order and evaluated at the watermark
+        storage.setEventTimePolicy(EventTimePolicy.monitoringDefaults());
+        // Readings a source sends again after a reconnect are stored once
+        storage.setDuplicateSuppression(true);
 
         storage.startStreaming();
 
-        AlertGenerator alertGenerator = new AlertGenerator(storage, new ConsoleOutputStrategy());
+        AlertGenerator alertGenerator = new AlertGenerator(storage, new ConsoleOutputStrategy(), true);
         while (true) {
             for (Patient patient : storage.getAllPatients()) {
                 alertGenerator.evaluateData(patient);
@@ -139,6 +520,256 @@ public class DataStorage {
         return records;
     }
 
+    /**
+     * Gets the records of the given record types for a patient within a time range,
+     * in time order, without reading the patient's other record types.
+     *
+     * @param patientId       the patient whose records are requested
+     * @param startTime       the start of the time range, in milliseconds since epoch
+     * @param endTime         the end of the time range, in milliseconds since epoch
+     * @param recordTypeCodes the record type codes from {@link RecordTypeRegistry}
+     * @return the matching records, or an empty list if the patient is unknown
+     */
+    public List<PatientRecord> getRecordsByType(int patientId, long startTime, long endTime, int... recordTypeCodes) {
+        Patient patient = getPatient(patientId);
+        if (patient != null) {
+            return patient.getRecordsByType(startTime, endTime, recordTypeCodes);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Fills a reusable cursor with a patient's readings in a time range, so that a
+     * consumer iterating them once does not allocate a list and a record per reading.
+     *
+     * @param patientId       the patient whose readings are requested
+     * @param startTime       the start of the time range, in milliseconds since epoch
+     * @param endTime         the end of the time range, in milliseconds since epoch
+     * @param cursor          the cursor to fill
+     * @param recordTypeCodes the record types to read; all types if none are given
+     * @return the cursor, empty if the patient is unknown
+     * @see Patient#openRecords(long, long, RecordCursor, int...)
+     */
+    public RecordCursor openRecords(int patientId, long startTime, long endTime, RecordCursor cursor,
+            int... recordTypeCodes) {
+        Patient patient = getPatient(patientId);
+        if (patient != null) {
+            return patient.openRecords(startTime, endTime, cursor, recordTypeCodes);
+        }
+        cursor.reset(patientId, false);
+        return cursor;
+    }
+
+    /**
+     * Gets the readings a patient received after a cursor, so that consumers polling
+     * the storage only process new data. Pass 0 the first time and the returned
+     * cursor afterwards; see {@link Patient#getRecordsSince(long, int...)}.
+     *
+     * @param patientId       the patient whose new readings are requested
+     * @param cursor          the cursor returned by the previous call, or 0
+     * @param recordTypeCodes the record types to return; all types if none are given
+     * @return the new readings, or an empty delta keeping the cursor if the patient is unknown
+     */
+    public RecordDelta getRecordsSince(int patientId, long cursor, int... recordTypeCodes) {
+        Patient patient = getPatient(patientId);
+        if (patient != null) {
+            return patient.getRecordsSince(cursor, recordTypeCodes);
+        }
+        return new RecordDelta(new ArrayList<>(), cursor, false);
+    }
+
+    /**
+     * Fills a cursor with the readings a patient received after a sequence cursor.
+     *
+     * @return the sequence cursor to pass next time
+     */
+    long readRecordsSince(int patientId, long cursor, RecordCursor into, int... recordTypeCodes) {
+        Patient patient = getPatient(patientId);
+        if (patient != null) {
+            return patient.readRecordsSince(cursor, into, recordTypeCodes);
+        }
+        into.reset(patientId, false);
+        return cursor;
+    }
+
+    /**
+     * Aggregates a patient's readings of one record type over a time range from the
+     * precomputed rollups, touching whole hour, minute and second buckets and only the
+     * raw readings at the edges.
+     *
+     * @param patientId      the patient whose readings are aggregated
+     * @param recordTypeCode the record type code from {@link RecordTypeRegistry}
+     * @param startTime      the start of the time range, in milliseconds since epoch
+     * @param endTime        the end of the time range, in milliseconds since epoch
+     * @return the aggregate, with a count of zero if the patient or type is unknown
+     */
+    public Rollup getRollup(int patientId, int recordTypeCode, long startTime, long endTime) {
+        Patient patient = getPatient(patientId);
+        if (patient != null) {
+            return patient.getRollup(recordTypeCode, startTime, endTime);
+        }
+        return Rollup.empty(startTime, endTime);
+    }
+
+    /**
+     * Computes a percentile of a patient's readings of one record type over a time
+     * range, such as the median or the 95th percentile, without creating records. The
+     * other window aggregates come from {@link #getRollup}.
+     *
+     * @param patientId      the patient whose readings are aggregated
+     * @param recordTypeCode the record type code from {@link RecordTypeRegistry}
+     * @param startTime      the start of the time range, in milliseconds since epoch
+     * @param endTime        the end of the time range, in milliseconds since epoch
+     * @param percentile     the percentile, from 0 to 100
+     * @return the percentile, or NaN if the patient has no retained readings in the range
+     * @see Patient#getPercentiles(int, long, long, double...)
+     */
+    public double getPercentile(int patientId, int recordTypeCode, long startTime, long endTime, double percentile) {
+        return getPercentiles(patientId, recordTypeCode, startTime, endTime, percentile)[0];
+    }
+
+    /**
+     * Computes several percentiles of a patient's readings of one record type over a
+     * time range, reading the range once. The cost is linear in the readings in the
+     * range; see {@link Patient#getPercentiles}.
+     *
+     * @param patientId      the patient whose readings are aggregated
+     * @param recordTypeCode the record type code from {@link RecordTypeRegistry}
+     * @param startTime      the start of the time range, in milliseconds since epoch
+     * @param endTime        the end of the time range, in milliseconds since epoch
+     * @param percentiles    the percentiles, each from 0 to 100
+     * @return one value per requested percentile, NaN if the patient has no retained readings in the range
+     */
+    public double[] getPercentiles(int patientId, int recordTypeCode, long startTime, long endTime,
+            double... percentiles) {
+        Patient patient = getPatient(patientId);
+        if (patient != null) {
+            return patient.getPercentiles(recordTypeCode, startTime, endTime, percentiles);
+        }
+        double[] results = new double[percentiles.length];
+        Arrays.fill(results, Double.NaN);
+        return results;
+    }
+
+    /**
+     * Lists a patient's precomputed buckets of one record type at the coarsest
+     * resolution that is at least as fine as the requested one.
+     *
+     * @param patientId        the patient whose buckets are requested
+     * @param recordTypeCode   the record type code from {@link RecordTypeRegistry}
+     * @param startTime        the start of the time range, in milliseconds since epoch
+     * @param endTime          the end of the time range, in milliseconds since epoch
+     * @param resolutionMillis the widest acceptable bucket, in milliseconds
+     * @return the buckets in time order, or an empty list if the patient is unknown
+     */
+    public List<Rollup> getRollups(int patientId, int recordTypeCode, long startTime, long endTime,
+            long resolutionMillis) {
+        Patient patient = getPatient(patientId);
+        if (patient != null) {
+            return patient.getRollups(recordTypeCode, startTime, endTime, resolutionMillis);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Gets the most recent reading of one record type for a patient in constant time,
+     * without scanning the patient's series.
+     *
+     * @param patientId      the patient whose reading is requested
+     * @param recordTypeCode the record type code from {@link RecordTypeRegistry}
+     * @return the reading with the latest timestamp, or null if there is none
+     */
+    public PatientRecord getLatestRecord(int patientId, int recordTypeCode) {
+        return latestValues.getRecord(patientId, recordTypeCode);
+    }
+
+    /**
+     * Gets the value of the most recent reading of one record type for a patient,
+     * without allocating. Meant for threshold checks and displays polled many times a
+     * second.
+     *
+     * @param patientId      the patient whose value is requested
+     * @param recordTypeCode the record type code from {@link RecordTypeRegistry}
+     * @return the latest value, or NaN if there is none
+     */
+    public double getLatestValue(int patientId, int recordTypeCode) {
+        return latestValues.getValue(patientId, recordTypeCode);
+    }
+
+    /**
+     * Gets the most recent reading of one record type for every patient that has one.
+     *
+     * @param recordTypeCode the record type code from {@link RecordTypeRegistry}
+     * @return one reading per patient, in the order patients first reported
+     */
+    public List<PatientRecord> getLatestRecords(int recordTypeCode) {
+        return latestValues.getRecordsByType(recordTypeCode);
+    }
+
+    /**
+     * Finds the patients whose most recent reading of a record type is below a
+     * threshold, such as every patient with a saturation below 92, from an index kept
+     * sorted as readings arrive rather than by scanning every patient.
+     *
+     * @param recordTypeCode the record type code from {@link RecordTypeRegistry}
+     * @param threshold      the exclusive upper bound
+     * @return the latest reading of each such patient, lowest value first
+     */
+    public List<PatientRecord> getPatientsBelow(int recordTypeCode, double threshold) {
+        return populationIndex.below(recordTypeCode, threshold);
+    }
+
+    /**
+     * Finds the patients whose most recent reading of a record type is above a
+     * threshold, from the same index as {@link #getPatientsBelow(int, double)}.
+     *
+     * @param recordTypeCode the record type code from {@link RecordTypeRegistry}
+     * @param threshold      the exclusive lower bound
+     * @return the latest reading of each such patient, highest value first
+     */
+    public List<PatientRecord> getPatientsAbove(int recordTypeCode, double threshold) {
+        return populationIndex.above(recordTypeCode, threshold);
+    }
+
+    /**
+     * Finds the patients with the highest most recent readings of a record type, such
+     * as the top 20 systolic pressures on the ward. Costs a walk over the result only.
+     *
+     * @param recordTypeCode the record type code from {@link RecordTypeRegistry}
+     * @param count          the number of patients to return
+     * @return at most count readings, highest value first
+     * @throws IllegalArgumentException if count is negative
+     */
+    public List<PatientRecord> getHighestLatest(int recordTypeCode, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Count must not be negative");
+        }
+        return populationIndex.extremes(recordTypeCode, count, true);
+    }
+
+    /**
+     * Finds the patients with the lowest most recent readings of a record type.
+     *
+     * @param recordTypeCode the record type code from {@link RecordTypeRegistry}
+     * @param count          the number of patients to return
+     * @return at most count readings, lowest value first
+     * @throws IllegalArgumentException if count is negative
+     */
+    public List<PatientRecord> getLowestLatest(int recordTypeCode, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Count must not be negative");
+        }
+        return populationIndex.extremes(recordTypeCode, count, false);
+    }
+
+    /**
+     * Records a reading in the latest-value table without storing it, for loaders
+     * that add readings to patients directly.
+     */
+    void updateLatest(int patientId, int recordTypeCode, long timestamp, double measurementValue) {
+        latestValues.update(patientId, recordTypeCode, timestamp, measurementValue);
+    }
+
     // Utility method to check if a port is in use
     private static boolean isPortInUse(int port) {
         try (var socket = new java.net.ServerSocket(port)) {
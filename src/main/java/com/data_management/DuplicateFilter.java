@@ -0,0 +1,103 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * A compact, probabilistic set of the (record type, timestamp) keys a patient has
+ * stored recently, used to tell cheaply that an out-of-order reading is not a
+ * duplicate. It can answer "maybe" for a key it never saw, so a positive answer must
+ * be confirmed against the stored series; a negative answer is always right.
+ *
+ * <p>Keys go into two Bloom filter generations of 8192 bits each. Once the current
+ * generation holds {@link #GENERATION_KEYS} keys it replaces the previous one, which
+ * keeps the false positive rate at a few percent however many readings the patient
+ * gets. Keys of a discarded generation are no longer known, so every timestamp up to
+ * the newest one it held is reported as "maybe" from then on.
+ *
+ * <p>Only used by the owning patient's writer.
+ */
+final class DuplicateFilter {
+    static final int GENERATION_KEYS = 1024;
+    private static final int BITS = 1 << 13;
+    private static final int HASHES = 3;
+
+    private long[] current = new long[BITS / Long.SIZE];
+    private long[] previous = new long[BITS / Long.SIZE];
+    private int currentKeys;
+    private long currentNewest = Long.MIN_VALUE; // Newest timestamp in each generation
+    private long previousNewest = Long.MIN_VALUE;
+    private long knownSince; // Every key at or after this time was added to a live generation
+
+    /**
+     * Creates a filter for a patient whose readings up to a time were stored before
+     * the filter existed.
+     *
+     * @param knownSince the first timestamp whose keys will all be added to this filter
+     */
+    DuplicateFilter(long knownSince) {
+        this.knownSince = knownSince;
+    }
+
+    /**
+     * Tells whether a key may have been added.
+     *
+     * @param recordTypeCode the record type code
+     * @param timestamp      the timestamp of the reading
+     * @return false if the key was certainly never added
+     */
+    boolean mightContain(int recordTypeCode, long timestamp) {
+        if (timestamp < knownSince) {
+            return true;
+        }
+        long hash = hash(recordTypeCode, timestamp);
+        return test(current, hash) || test(previous, hash);
+    }
+
+    void add(int recordTypeCode, long timestamp) {
+        if (currentKeys == GENERATION_KEYS) {
+            rotate();
+        }
+        long hash = hash(recordTypeCode, timestamp);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & (BITS - 1);
+            current[bit >>> 6] |= 1L << bit;
+        }
+        currentKeys++;
+        currentNewest = Math.max(currentNewest, timestamp);
+    }
+
+    private void rotate() {
+        if (previousNewest != Long.MIN_VALUE) {
+            knownSince = Math.max(knownSince, previousNewest == Long.MAX_VALUE ? previousNewest : previousNewest + 1);
+        }
+        long[] discarded = previous;
+        previous = current;
+        previousNewest = currentNewest;
+        Arrays.fill(discarded, 0);
+        current = discarded;
+        currentNewest = Long.MIN_VALUE;
+        currentKeys = 0;
+    }
+
+    private static boolean test(long[] bits, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & (BITS - 1);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long hash(int recordTypeCode, long timestamp) {
+        // SplitMix64 finalizer; the odd second half keeps the double hashing stride non-zero
+        long z = timestamp * 0x9E3779B97F4A7C15L + recordTypeCode;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (z ^ (z >>> 31)) | (1L << 32);
+    }
+}
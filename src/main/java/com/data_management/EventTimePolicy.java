@@ -0,0 +1,57 @@
+package com.data_management;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes how {@link DataStorage} handles readings that arrive out of order, by
+ * their measurement time (event time) rather than the time they were received.
+ *
+ * <p>Each patient has a watermark: the newest timestamp it has received minus the
+ * maximum out-of-orderness. Readings at or after the watermark are expected to be
+ * slightly out of order. Readings behind it are late. They are still inserted in
+ * time order if they are within the allowed lateness of the watermark, and dropped
+ * otherwise. Consumers that evaluate at the watermark, such as a
+ * {@link RecordStream} in event-time order, see every accepted reading in time order
+ * except those late ones.
+ *
+ * <p>Chunks of a series stay uncompressed until they fall behind the allowed
+ * lateness, so late readings are cheap sorted inserts rather than re-compressions.
+ */
+public class EventTimePolicy {
+    private final long maxOutOfOrdernessMillis;
+    private final long allowedLatenessMillis;
+
+    /**
+     * Creates a policy.
+     *
+     * @param maxOutOfOrdernessMillis how far the watermark trails the newest reading; must not be negative
+     * @param allowedLatenessMillis   how far behind the watermark a reading may still be stored; must not be negative
+     * @throws IllegalArgumentException if either bound is negative
+     */
+    public EventTimePolicy(long maxOutOfOrdernessMillis, long allowedLatenessMillis) {
+        if (maxOutOfOrdernessMillis < 0 || allowedLatenessMillis < 0) {
+            throw new IllegalArgumentException("Out-of-orderness and lateness must not be negative");
+        }
+        this.maxOutOfOrdernessMillis = maxOutOfOrdernessMillis;
+        this.allowedLatenessMillis = allowedLatenessMillis;
+    }
+
+    /**
+     * Creates a policy for bedside monitors streaming over WebSocket: readings may be
+     * two seconds out of order, and readings buffered through a reconnect are
+     * accepted for five minutes.
+     *
+     * @return a new policy with the monitoring defaults
+     */
+    public static EventTimePolicy monitoringDefaults() {
+        return new EventTimePolicy(TimeUnit.SECONDS.toMillis(2), TimeUnit.MINUTES.toMillis(5));
+    }
+
+    public long getMaxOutOfOrderness() {
+        return maxOutOfOrdernessMillis;
+    }
+
+    public long getAllowedLateness() {
+        return allowedLatenessMillis;
+    }
+}
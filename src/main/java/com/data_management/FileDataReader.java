@@ -3,33 +3,110 @@ package com.data_management;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A DataReader implementation that reads patient data from a file.
+ *
+ * <p>{@link #readData(DataStorage)} reads the file line by line. For large history
+ * files, {@link #importData(DataStorage, int)} memory-maps the file instead and parses
+ * newline-aligned chunks of it on several threads. {@link #startStreaming(DataStorage)}
+ * follows the file, or every file of a directory, as lines are appended to it.
  */
 public class FileDataReader implements DataReader {
-    @Override
-    public void startStreaming(DataStorage dataStorage) {
-        throw new UnsupportedOperationException("Streaming is not supported for FileDataReader.");
-    }
+    private static final int BATCH_SIZE = 4096; // Readings stored per DataStorage call
+    private static final int CHUNK_BYTES = 32 << 20; // Bytes of the file per import task
 
     private final String filePath;
+    private int chunkBytes = CHUNK_BYTES;
+    private Path offsetsFile;
+    private FileTailer tailer;
 
     /**
      * Constructs a FileDataReader to read data from the specified file.
      *
-     * @param filePath the path to the file containing patient data
+     * @param filePath the path to the file containing patient data, or for streaming
+     *                 also a directory of such files
      */
     public FileDataReader(String filePath) {
         this.filePath = filePath;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Follows the file, or every file of the directory, on a background thread and
+     * stores the lines appended to them, in either layout {@link RecordCodec} reads or
+     * in the simulator's {@code FileOutputStrategy} layout. How far each file was read
+     * is saved, so streaming again after a restart does not read the same lines twice.
+     *
+     * @throws IllegalStateException if streaming has already started, or the files
+     *                               cannot be followed
+     */
+    @Override
+    public synchronized void startStreaming(DataStorage dataStorage) {
+        if (tailer != null) {
+            throw new IllegalStateException("File streaming already started");
+        }
+        FileTailer started = new FileTailer(Paths.get(filePath), offsetsFile);
+        try {
+            started.start(dataStorage);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot follow " + filePath + ": " + e.getMessage(), e);
+        }
+        tailer = started;
+        System.out.println("Streaming file data from: " + filePath);
+    }
+
+    /**
+     * Sets where streaming keeps how far it read each file. Must be called before
+     * streaming starts.
+     *
+     * @param offsetsFile the offsets file, or null for a {@code .offsets} file in the
+     *                    directory followed
+     */
+    public void setOffsetsFile(Path offsetsFile) {
+        this.offsetsFile = offsetsFile;
+    }
+
+    /**
+     * Gets how many streamed readings have been handed to the storage.
+     *
+     * @return the number of readings, or 0 if streaming has not started
+     */
+    public synchronized long getStreamedReadingCount() {
+        return tailer != null ? tailer.getReadingCount() : 0;
+    }
+
+    /**
+     * Stores the readings already read, saves the offsets and stops streaming.
+     */
+    public synchronized void close() {
+        if (tailer != null) {
+            tailer.close();
+            tailer = null;
+        }
+    }
+
     /**
      * Reads data from the file and stores it in the provided DataStorage.
+     * Readings are stored in batches of up to 4096 lines; the readings before a
+     * malformed line are stored before the exception is thrown.
      * Expected file format per line: patientId,measurementValue,recordType,timestamp
      * Example: 1,100.0,WhiteBloodCells,1714376789050
+     * Files written in the simulator's layout are read too; see {@link RecordCodec}.
      *
      * @param dataStorage the storage where data will be stored
      * @throws IOException if there is an error reading the file
@@ -38,29 +115,219 @@ public class FileDataReader implements DataReader {
     @Override
     public void readData(DataStorage dataStorage) throws IOException {
         Path path = Paths.get(filePath);
+        RecordCodec codec = new RecordCodec();
+        IngestBatch batch = new IngestBatch(BATCH_SIZE);
         try (BufferedReader reader = new BufferedReader(new FileReader(path.toFile()))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                // Skip empty lines
-                if (line.trim().isEmpty()) {
-                    continue;
+                try {
+                    if (!codec.parse(line)) {
+                        continue; // Skip empty lines
+                    }
+                } catch (IllegalArgumentException e) {
+                    dataStorage.addPatientData(batch);
+                    throw e;
                 }
-                // Parse the line
-                String[] parts = line.split(",");
-                if (parts.length != 4) {
-                    throw new IllegalArgumentException("Invalid data format in line: " + line);
+                codec.addTo(batch);
+                if (batch.size() == BATCH_SIZE) {
+                    dataStorage.addPatientData(batch);
+                    batch.clear();
                 }
+            }
+        }
+        dataStorage.addPatientData(batch);
+    }
+
+    /**
+     * Sets the size of the chunks {@link #importData(DataStorage, int)} splits the file
+     * into, so tests can split small files.
+     */
+    void setChunkBytes(int chunkBytes) {
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Imports the file in bulk. The file is memory-mapped and split into chunks of
+     * about 32 MB that end at line breaks; the chunks are parsed on a pool of threads,
+     * straight from the mapped bytes, and every thread stores its readings through
+     * {@link DataStorage#addPatientData(IngestBatch)} in batches of 4096.
+     *
+     * <p>Chunks are stored in no particular order, so the storage's event-time policy
+     * is suspended until every reading is stored; readings are still inserted in time
+     * order. The format is the one {@link #readData(DataStorage)} accepts. A malformed
+     * line stops its chunk; the other chunks are imported and the error of the first
+     * malformed line in the file is thrown at the end.
+     *
+     * @param dataStorage the storage where data will be stored
+     * @param threads     the number of parsing threads; must be positive
+     * @return the size and throughput of the import
+     * @throws IOException              if there is an error reading the file
+     * @throws IllegalArgumentException if threads is not positive or the data format is invalid
+     */
+    public ImportReport importData(DataStorage dataStorage, int threads) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        long started = System.nanoTime();
+        EventTimePolicy eventTimePolicy = dataStorage.getEventTimePolicy();
+        dataStorage.setEventTimePolicy(null);
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            return importChunks(channel, dataStorage, threads, started);
+        } finally {
+            dataStorage.awaitIngested(); // Stored under the suspended policy, even if the import failed
+            dataStorage.setEventTimePolicy(eventTimePolicy);
+        }
+    }
+
+    private ImportReport importChunks(FileChannel channel, DataStorage dataStorage, int threads, long started)
+            throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            long size = channel.size();
+            long[] boundaries = chunkBoundaries(channel, size, chunkBytes);
+            List<Future<ChunkImport>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < boundaries.length; i++) {
+                ChunkImport chunk = new ChunkImport(channel, boundaries[i], boundaries[i + 1], dataStorage);
+                tasks.add(pool.submit(chunk::run));
+            }
+
+            long readings = 0;
+            ChunkImport failed = null;
+            for (Future<ChunkImport> task : tasks) {
+                ChunkImport chunk = await(task);
+                readings += chunk.readings;
+                if (failed == null && chunk.error != null) {
+                    failed = chunk; // Chunks are in file order, so this is the first malformed line
+                }
+            }
+            dataStorage.awaitIngested();
+            if (failed != null) {
+                throw failed.error;
+            }
+            return new ImportReport(size, readings, tasks.size(), threads, System.nanoTime() - started);
+        } finally {
+            // Chunks still running after a failure finish before the file is closed
+            pool.shutdown();
+            boolean interrupted = false;
+            while (true) {
                 try {
-                    int patientId = Integer.parseInt(parts[0].trim());
-                    double measurementValue = Double.parseDouble(parts[1].trim());
-                    String recordType = parts[2].trim();
-                    long timestamp = Long.parseLong(parts[3].trim());
-                    // Add the record to DataStorage
-                    dataStorage.addPatientData(patientId, measurementValue, recordType, timestamp);
-                } catch (NumberFormatException e) {
-                    throw new IllegalArgumentException("Error parsing line: " + line + " - " + e.getMessage(), e);
+                    if (pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static ChunkImport await(Future<ChunkImport> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while importing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Import failed", e.getCause());
+        }
+    }
+
+    /**
+     * Splits a file into chunks of about the given size that each start at the
+     * beginning of a line.
+     *
+     * @return the start of every chunk followed by the file size
+     */
+    private static long[] chunkBoundaries(FileChannel channel, long size, int chunkBytes) throws IOException {
+        int chunks = (int) Math.max(1, (size + chunkBytes - 1) / chunkBytes);
+        long[] boundaries = new long[chunks + 1];
+        boundaries[chunks] = size;
+        ByteBuffer window = ByteBuffer.allocate(64 * 1024);
+        for (int i = 1; i < chunks; i++) {
+            // The chunk starts after the first line break at or after the byte before its nominal start
+            long position = Math.max((long) i * chunkBytes - 1, boundaries[i - 1]);
+            long start = size;
+            while (position < size && start == size) {
+                window.clear();
+                int read = channel.read(window, position);
+                if (read <= 0) {
+                    break;
                 }
+                for (int j = 0; j < read; j++) {
+                    if (window.get(j) == '\n') {
+                        start = position + j + 1;
+                        break;
+                    }
+                }
+                position += read;
             }
+            boundaries[i] = Math.max(start, boundaries[i - 1]);
+        }
+        return boundaries;
+    }
+
+    /**
+     * Parses and stores the lines of one chunk of the file, straight from the mapped
+     * bytes.
+     */
+    private static final class ChunkImport {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final DataStorage dataStorage;
+        private final RecordCodec codec = new RecordCodec();
+        long readings;
+        IllegalArgumentException error;
+
+        ChunkImport(FileChannel channel, long start, long end, DataStorage dataStorage) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.dataStorage = dataStorage;
+        }
+
+        ChunkImport run() throws IOException {
+            if (end == start) {
+                return this;
+            }
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            IngestBatch batch = new IngestBatch(BATCH_SIZE);
+            int limit = bytes.limit();
+            int position = 0;
+            try {
+                while (position < limit) {
+                    int lineEnd = position;
+                    while (lineEnd < limit && bytes.get(lineEnd) != '\n') {
+                        lineEnd++;
+                    }
+                    if (codec.parse(bytes, position, lineEnd)) {
+                        codec.addTo(batch);
+                    }
+                    if (batch.size() == BATCH_SIZE) {
+                        store(batch);
+                    }
+                    position = lineEnd + 1;
+                }
+            } catch (IllegalArgumentException e) {
+                error = e;
+            }
+            store(batch);
+            return this;
+        }
+
+        private void store(IngestBatch batch) {
+            readings += batch.size();
+            dataStorage.addPatientData(batch);
+            batch.clear();
         }
     }
-}
\ No newline at end of file
+}
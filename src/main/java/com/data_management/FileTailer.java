@@ -0,0 +1,380 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Follows the files a {@link FileDataReader} streams from: a single file, or every
+ * file in a directory such as the one the simulator's {@code FileOutputStrategy}
+ * appends its {@code <label>.txt} files to. Files whose names start with a dot are
+ * skipped.
+ *
+ * <p>One thread waits for changes to the directory, or at most a quarter of a second,
+ * and then reads each file from where it left off with positional {@link FileChannel}
+ * reads into one reused direct buffer. Only complete lines are parsed; a partial line
+ * at the end of a file is read again once its line break has been written. Readings
+ * are stored every 4096 lines, so a long backlog is stored as it is read. A file that
+ * became shorter than its offset, or was replaced by another file of the same name,
+ * is read again from its start; files are told apart by their file key, such as the
+ * inode, where the file system has one.
+ *
+ * <p>The offset of every file is saved to an offsets file about once a second, after
+ * the readings before it have been stored, so a restarted reader carries on where the
+ * previous one stopped. Readings stored shortly before a crash may be read twice.
+ */
+final class FileTailer {
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int BATCH_SIZE = 4096;
+    private static final long POLL_MILLIS = 250;
+    private static final long SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path directory;
+    private final Path file; // The only file followed, or null for the whole directory
+    private final Path offsetsFile;
+    private final AtomicLong readingCount = new AtomicLong();
+
+    // Used on the tail thread only
+    private final Map<Path, Tail> tails = new HashMap<>();
+    private final Map<String, Saved> savedOffsets = new HashMap<>(); // Loaded offsets of files not opened yet
+    private final RecordCodec codec = new RecordCodec();
+    private final IngestBatch batch = new IngestBatch(BATCH_SIZE);
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private boolean dirty;
+    private long savedNanos = System.nanoTime();
+
+    private WatchService watcher;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Creates a tailer.
+     *
+     * @param path        the file or directory to follow
+     * @param offsetsFile where the offsets are kept, or null for a {@code .offsets} file
+     *                    in the directory followed
+     */
+    FileTailer(Path path, Path offsetsFile) {
+        Path absolute = path.toAbsolutePath();
+        boolean isDirectory = Files.isDirectory(absolute);
+        this.directory = isDirectory ? absolute : absolute.getParent();
+        this.file = isDirectory ? null : absolute;
+        this.offsetsFile = offsetsFile != null ? offsetsFile : directory.resolve(".offsets");
+    }
+
+    /**
+     * Loads the saved offsets and starts following the files on the tail thread.
+     *
+     * @throws IOException if the directory cannot be watched or the offsets cannot be read
+     */
+    synchronized void start(DataStorage dataStorage) throws IOException {
+        loadOffsets();
+        watcher = directory.getFileSystem().newWatchService();
+        try {
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            watcher.close();
+            throw e;
+        }
+        running = true;
+        thread = new Thread(() -> tailLoop(dataStorage), "file-tail");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stores the readings already read, saves the offsets and stops the tail thread.
+     */
+    synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            watcher.close(); // Wakes the tail thread
+        } catch (IOException e) {
+            // Closed anyway
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long getReadingCount() {
+        return readingCount.get();
+    }
+
+    private void tailLoop(DataStorage dataStorage) {
+        try {
+            while (running) {
+                tailFiles(dataStorage);
+                store(dataStorage);
+                saveOffsetsIfDue(dataStorage);
+                WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    key.pollEvents(); // Every file is checked anyway
+                    key.reset();
+                    key = watcher.poll();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Closed on purpose
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("File tailing of " + directory + " stopped: " + e.getMessage());
+        } finally {
+            store(dataStorage);
+            if (dirty) {
+                saveOffsets(dataStorage);
+            }
+            for (Tail tail : tails.values()) {
+                tail.close();
+            }
+            tails.clear();
+        }
+    }
+
+    /**
+     * Reads what was appended to every followed file and forgets the files that are gone.
+     */
+    private void tailFiles(DataStorage dataStorage) throws IOException {
+        Map<Path, Object> present = new LinkedHashMap<>(); // File keys, or null where there are none
+        if (file != null) {
+            addIfRegular(present, file);
+        } else {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (!entry.getFileName().toString().startsWith(".")) {
+                        addIfRegular(present, entry);
+                    }
+                }
+            }
+        }
+        Iterator<Map.Entry<Path, Tail>> followed = tails.entrySet().iterator();
+        while (followed.hasNext()) {
+            Map.Entry<Path, Tail> entry = followed.next();
+            Tail tail = entry.getValue();
+            if (!present.containsKey(entry.getKey())) {
+                tail.close();
+                followed.remove();
+                dirty = true;
+            } else if (!Objects.equals(present.get(entry.getKey()), tail.fileKey)) {
+                System.out.println(tail.path + " was replaced; reading it from the start");
+                tail.close();
+                followed.remove();
+                dirty = true;
+            }
+        }
+        for (Map.Entry<Path, Object> entry : present.entrySet()) {
+            Path path = entry.getKey();
+            Tail tail = tails.get(path);
+            if (tail == null) {
+                try {
+                    tail = new Tail(path, entry.getValue(), FileChannel.open(path, StandardOpenOption.READ));
+                } catch (IOException e) {
+                    System.err.println("Cannot open " + path + ": " + e.getMessage());
+                    continue;
+                }
+                Saved saved = savedOffsets.remove(path.getFileName().toString());
+                // An offset saved for another file of the same name does not apply
+                tail.offset = saved != null && saved.fileKey.equals(keyOf(tail.fileKey)) ? saved.offset : 0;
+                tails.put(path, tail);
+            }
+            try {
+                tail(tail, dataStorage);
+            } catch (IOException e) {
+                System.err.println("Error reading " + path + ": " + e.getMessage());
+                tail.close();
+                tails.remove(path); // Opened again on the next pass
+            }
+        }
+        if (!savedOffsets.isEmpty()) {
+            // Keep the offsets of files that could not be opened, not those of files that are gone
+            savedOffsets.keySet().removeIf(name -> present.keySet().stream()
+                    .noneMatch(path -> path.getFileName().toString().equals(name)));
+        }
+    }
+
+    private static void addIfRegular(Map<Path, Object> present, Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (attributes.isRegularFile()) {
+                present.put(path, attributes.fileKey());
+            }
+        } catch (IOException e) {
+            // Gone since it was listed
+        }
+    }
+
+    private static String keyOf(Object fileKey) {
+        return fileKey != null ? fileKey.toString().replace(' ', '_') : "-";
+    }
+
+    private void tail(Tail tail, DataStorage dataStorage) throws IOException {
+        long size = tail.channel.size();
+        if (size < tail.offset) {
+            System.out.println(tail.path + " was truncated; reading it from the start");
+            tail.offset = 0;
+            dirty = true;
+        }
+        while (tail.offset < size) {
+            buffer.clear();
+            int read = tail.channel.read(buffer, tail.offset);
+            if (read <= 0) {
+                return;
+            }
+            int from = 0;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    parseLine(tail, from, i);
+                    from = i + 1;
+                }
+            }
+            if (from == 0) {
+                if (read < buffer.capacity()) {
+                    return; // A partial line; read again once it is complete
+                }
+                // A line longer than the buffer; grow it rather than splitting the line
+                buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+                continue;
+            }
+            tail.offset += from;
+            dirty = true;
+            if (batch.size() >= BATCH_SIZE) {
+                // Every offset now points past readings in the batch, so it can be saved once stored
+                store(dataStorage);
+                saveOffsetsIfDue(dataStorage);
+            }
+        }
+    }
+
+    private void parseLine(Tail tail, int from, int to) {
+        try {
+            if (codec.parse(buffer, from, to)) {
+                codec.addTo(batch);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error processing line of " + tail.path + ": " + e.getMessage());
+        }
+    }
+
+    private void store(DataStorage dataStorage) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        readingCount.addAndGet(batch.size());
+        try {
+            dataStorage.addPatientData(batch);
+        } catch (RuntimeException e) {
+            System.err.println("Error storing " + batch.size() + " file readings: " + e.getMessage());
+        }
+        batch.clear();
+    }
+
+    private void loadOffsets() throws IOException {
+        if (!Files.exists(offsetsFile)) {
+            return;
+        }
+        for (String line : Files.readAllLines(offsetsFile, StandardCharsets.UTF_8)) {
+            int space = line.indexOf(' ');
+            int keyEnd = space > 0 ? line.indexOf(' ', space + 1) : -1;
+            try {
+                if (keyEnd < 0) {
+                    throw new NumberFormatException("missing fields");
+                }
+                savedOffsets.put(line.substring(keyEnd + 1),
+                        new Saved(Long.parseLong(line.substring(0, space)), line.substring(space + 1, keyEnd)));
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring invalid offset in " + offsetsFile + ": " + line);
+            }
+        }
+    }
+
+    private void saveOffsetsIfDue(DataStorage dataStorage) {
+        if (dirty && System.nanoTime() - savedNanos >= SAVE_INTERVAL_NANOS) {
+            saveOffsets(dataStorage);
+        }
+    }
+
+    /**
+     * Saves one line {@code <offset> <file key> <file name>} per file once the readings
+     * before the offsets are stored. The file is replaced atomically, so a crash leaves either the
+     * old offsets or the new ones.
+     */
+    private void saveOffsets(DataStorage dataStorage) {
+        dataStorage.awaitIngested();
+        List<String> lines = new ArrayList<>();
+        for (Tail tail : tails.values()) {
+            lines.add(tail.offset + " " + keyOf(tail.fileKey) + " " + tail.path.getFileName());
+        }
+        for (Map.Entry<String, Saved> saved : savedOffsets.entrySet()) {
+            // Files that could not be opened yet
+            lines.add(saved.getValue().offset + " " + saved.getValue().fileKey + " " + saved.getKey());
+        }
+        Path temporary = offsetsFile.resolveSibling(offsetsFile.getFileName() + ".tmp");
+        try {
+            Files.write(temporary, lines, StandardCharsets.UTF_8);
+            Files.move(temporary, offsetsFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Error saving offsets to " + offsetsFile + ": " + e.getMessage());
+        }
+        savedNanos = System.nanoTime();
+    }
+
+    private static final class Tail {
+        final Path path;
+        final Object fileKey; // Null if the file system has none
+        final FileChannel channel;
+        long offset; // The start of the first line not read yet
+
+        Tail(Path path, Object fileKey, FileChannel channel) {
+            this.path = path;
+            this.fileKey = fileKey;
+            this.channel = channel;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
+
+    private static final class Saved {
+        final long offset;
+        final String fileKey;
+
+        Saved(long offset, String fileKey) {
+            this.offset = offset;
+            this.fileKey = fileKey;
+        }
+    }
+}
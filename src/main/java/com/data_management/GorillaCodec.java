@@ -0,0 +1,195 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Compresses a block of readings in the style of Facebook's Gorilla time series
+ * database. Timestamps are stored as delta-of-deltas, so a regular sampling interval
+ * costs one bit per reading. Values are XORed with the previous value and only the
+ * meaningful bits of the result are stored, so repeated and slowly changing values
+ * (integer saturation percentages, quantized ADC samples) take a few bits each.
+ *
+ * <p>Timestamp and value of each reading are interleaved in one bit stream, most
+ * significant bit first, packed into a {@code long[]}.
+ */
+final class GorillaCodec {
+    private GorillaCodec() {
+    }
+
+    /**
+     * Encodes readings into a compressed bit stream.
+     *
+     * @param timestamps the timestamps, in ascending order
+     * @param values     the values
+     * @param count      the number of readings to encode
+     * @return the compressed words
+     */
+    static long[] encode(long[] timestamps, double[] values, int count) {
+        Writer out = new Writer(count);
+        long previousTimestamp = timestamps[0];
+        long previousDelta = 0;
+        long previousBits = Double.doubleToRawLongBits(values[0]);
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        out.write(previousTimestamp, 64);
+        out.write(previousBits, 64);
+        for (int i = 1; i < count; i++) {
+            long delta = timestamps[i] - previousTimestamp;
+            long deltaOfDelta = delta - previousDelta;
+            if (deltaOfDelta == 0) {
+                out.write(0, 1);
+            } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+                out.write(0b10, 2);
+                out.write(deltaOfDelta + 63, 7);
+            } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+                out.write(0b110, 3);
+                out.write(deltaOfDelta + 255, 9);
+            } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+                out.write(0b1110, 4);
+                out.write(deltaOfDelta + 2047, 12);
+            } else {
+                out.write(0b1111, 4);
+                out.write(deltaOfDelta, 64);
+            }
+            previousTimestamp = timestamps[i];
+            previousDelta = delta;
+
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ previousBits;
+            if (xor == 0) {
+                out.write(0, 1);
+            } else {
+                int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int trailing = Long.numberOfTrailingZeros(xor);
+                if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                    // Fits in the previous window of meaningful bits
+                    out.write(0b10, 2);
+                    out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+                } else {
+                    int meaningful = 64 - leading - trailing;
+                    out.write(0b11, 2);
+                    out.write(leading, 5);
+                    out.write(meaningful - 1, 6);
+                    out.write(xor >>> trailing, meaningful);
+                    previousLeading = leading;
+                    previousTrailing = trailing;
+                }
+            }
+            previousBits = bits;
+        }
+        return out.toWords();
+    }
+
+    /**
+     * Decodes a bit stream produced by {@link #encode}.
+     *
+     * @param words      the compressed words
+     * @param count      the number of encoded readings
+     * @param timestamps receives the timestamps
+     * @param values     receives the values
+     */
+    static void decode(long[] words, int count, long[] timestamps, double[] values) {
+        Reader in = new Reader(words);
+        long timestamp = in.read(64);
+        long bits = in.read(64);
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        timestamps[0] = timestamp;
+        values[0] = Double.longBitsToDouble(bits);
+        for (int i = 1; i < count; i++) {
+            if (in.read(1) != 0) {
+                if (in.read(1) == 0) {
+                    delta += in.read(7) - 63;
+                } else if (in.read(1) == 0) {
+                    delta += in.read(9) - 255;
+                } else if (in.read(1) == 0) {
+                    delta += in.read(12) - 2047;
+                } else {
+                    delta += in.read(64);
+                }
+            }
+            timestamp += delta;
+            timestamps[i] = timestamp;
+
+            if (in.read(1) != 0) {
+                if (in.read(1) != 0) {
+                    leading = (int) in.read(5);
+                    int meaningful = (int) in.read(6) + 1;
+                    trailing = 64 - leading - meaningful;
+                }
+                bits ^= in.read(64 - leading - trailing) << trailing;
+            }
+            values[i] = Double.longBitsToDouble(bits);
+        }
+    }
+
+    /**
+     * Reads the first timestamp of a bit stream without decoding it.
+     *
+     * @param words the compressed words
+     * @return the timestamp of the first reading
+     */
+    static long firstTimestamp(long[] words) {
+        return words[0];
+    }
+
+    private static final class Writer {
+        private long[] words;
+        private int position; // In bits
+
+        Writer(int count) {
+            // About two words per eight readings for regular, slowly changing signals
+            this.words = new long[Math.max(4, count / 4)];
+        }
+
+        void write(long value, int bits) {
+            if (bits == 0) {
+                return;
+            }
+            int index = position >>> 6;
+            if (index + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            if (bits < 64) {
+                value &= (1L << bits) - 1;
+            }
+            int free = 64 - (position & 63);
+            if (bits <= free) {
+                words[index] |= value << (free - bits);
+            } else {
+                words[index] |= value >>> (bits - free);
+                words[index + 1] |= value << (64 - (bits - free));
+            }
+            position += bits;
+        }
+
+        long[] toWords() {
+            return Arrays.copyOf(words, (position + 63) >>> 6);
+        }
+    }
+
+    private static final class Reader {
+        private final long[] words;
+        private int position; // In bits
+
+        Reader(long[] words) {
+            this.words = words;
+        }
+
+        long read(int bits) {
+            if (bits == 0) {
+                return 0;
+            }
+            int index = position >>> 6;
+            int offset = position & 63;
+            int free = 64 - offset;
+            long result = (words[index] << offset) >>> (64 - bits);
+            if (bits > free) {
+                result |= words[index + 1] >>> (64 - (bits - free));
+            }
+            position += bits;
+            return result;
+        }
+    }
+}
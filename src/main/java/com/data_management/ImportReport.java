@@ -0,0 +1,75 @@
+package com.data_management;
+
+/**
+ * Summary of one bulk import by {@link FileDataReader#importData(DataStorage, int)}:
+ * how much was read, how it was split up and how fast it went.
+ */
+public class ImportReport {
+    private final long bytes;
+    private final long readings;
+    private final int chunks;
+    private final int threads;
+    private final long elapsedNanos;
+
+    /**
+     * Constructs a report.
+     *
+     * @param bytes        the size of the imported file
+     * @param readings     the number of readings parsed and handed to the storage
+     * @param chunks       the number of newline-aligned chunks the file was split into
+     * @param threads      the number of threads that parsed them
+     * @param elapsedNanos the time from opening the file until every reading was stored
+     */
+    public ImportReport(long bytes, long readings, int chunks, int threads, long elapsedNanos) {
+        this.bytes = bytes;
+        this.readings = readings;
+        this.chunks = chunks;
+        this.threads = threads;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getReadings() {
+        return readings;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the import throughput in readings.
+     *
+     * @return readings per second, or 0 if no time was measured
+     */
+    public double getReadingsPerSecond() {
+        return elapsedNanos > 0 ? readings * 1e9 / elapsedNanos : 0;
+    }
+
+    /**
+     * Gets the import throughput in bytes.
+     *
+     * @return megabytes (2^20 bytes) per second, or 0 if no time was measured
+     */
+    public double getMegabytesPerSecond() {
+        return elapsedNanos > 0 ? bytes * 1e9 / elapsedNanos / (1 << 20) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Import: %d readings (%.1f MB) in %d ms, %d chunks on %d threads, "
+                + "%.0f readings/s, %.1f MB/s", readings, bytes / (double) (1 << 20), elapsedNanos / 1_000_000,
+                chunks, threads, getReadingsPerSecond(), getMegabytesPerSecond());
+    }
+}
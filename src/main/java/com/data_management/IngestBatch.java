@@ -0,0 +1,161 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * A reusable buffer of readings for {@link DataStorage#addPatientData(IngestBatch)}.
+ * Readings are kept in parallel primitive arrays, so filling a batch does not
+ * allocate once its arrays have grown to the usual batch size. Call {@link #clear()}
+ * after the batch has been stored to fill it again.
+ *
+ * <p>A batch is not thread-safe; each reader thread fills its own.
+ */
+public class IngestBatch {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private int[] patientIds;
+    private double[] values;
+    private int[] recordTypeCodes;
+    private long[] timestamps;
+    private long[] order = new long[0]; // Patient ID in the high half, index in the low half
+    private boolean[] rejected = new boolean[0]; // Readings the patient did not store, set while storing
+    private boolean anyRejected;
+    private int size;
+
+    /**
+     * Creates an empty batch with room for 1024 readings before it grows.
+     */
+    public IngestBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param capacity the number of readings it holds before it grows; must be positive
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public IngestBatch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.patientIds = new int[capacity];
+        this.values = new double[capacity];
+        this.recordTypeCodes = new int[capacity];
+        this.timestamps = new long[capacity];
+    }
+
+    /**
+     * Adds a reading to the batch.
+     *
+     * @param patientId        the patient the reading belongs to
+     * @param measurementValue the measured value
+     * @param recordType       the record type name
+     * @param timestamp        the time of the measurement in milliseconds since epoch
+     */
+    public void add(int patientId, double measurementValue, String recordType, long timestamp) {
+        add(patientId, measurementValue, RecordTypeRegistry.getInstance().codeOf(recordType), timestamp);
+    }
+
+    /**
+     * Adds a reading whose record type has already been encoded by {@link RecordTypeRegistry}.
+     *
+     * @param patientId        the patient the reading belongs to
+     * @param measurementValue the measured value
+     * @param recordTypeCode   the record type code
+     * @param timestamp        the time of the measurement in milliseconds since epoch
+     */
+    public void add(int patientId, double measurementValue, int recordTypeCode, long timestamp) {
+        if (size == patientIds.length) {
+            int capacity = size * 2;
+            patientIds = Arrays.copyOf(patientIds, capacity);
+            values = Arrays.copyOf(values, capacity);
+            recordTypeCodes = Arrays.copyOf(recordTypeCodes, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+        }
+        patientIds[size] = patientId;
+        values[size] = measurementValue;
+        recordTypeCodes[size] = recordTypeCode;
+        timestamps[size] = timestamp;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Empties the batch, keeping its arrays for reuse.
+     */
+    public void clear() {
+        if (anyRejected) {
+            Arrays.fill(rejected, 0, Math.min(size, rejected.length), false);
+            anyRejected = false;
+        }
+        size = 0;
+    }
+
+    int patientIdAt(int index) {
+        return patientIds[index];
+    }
+
+    double valueAt(int index) {
+        return values[index];
+    }
+
+    int recordTypeCodeAt(int index) {
+        return recordTypeCodes[index];
+    }
+
+    long timestampAt(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * Orders the readings by patient, keeping arrival order within each patient.
+     *
+     * @return one key per reading; {@link #patientOf} and {@link #indexOf} decode them
+     */
+    long[] groupByPatient() {
+        if (order.length < size) {
+            order = new long[patientIds.length];
+            rejected = new boolean[patientIds.length];
+        }
+        Arrays.fill(rejected, 0, size, false);
+        anyRejected = false;
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) patientIds[i] << 32) | i;
+        }
+        Arrays.sort(order, 0, size);
+        return order;
+    }
+
+    /**
+     * Marks a reading as not stored, because it was a duplicate or too late, so it is
+     * neither logged nor re-broadcast.
+     */
+    void reject(int index) {
+        rejected[index] = true;
+        anyRejected = true;
+    }
+
+    /**
+     * Tells whether storing the batch rejected a reading. Readings of a batch that was
+     * never stored, or was refilled since, are not rejected.
+     */
+    boolean isRejected(int index) {
+        return index < rejected.length && rejected[index];
+    }
+
+    static int patientOf(long key) {
+        return (int) (key >> 32);
+    }
+
+    static int indexOf(long key) {
+        return (int) key;
+    }
+}
@@ -0,0 +1,399 @@
+package com.data_management;
+
+import com.cardio_generator.outputs.RecordFrame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decouples a socket's read thread from the storage. The read thread only puts each
+ * raw frame, text or binary {@link RecordFrame}, into a preallocated, bounded ring; a
+ * consumer thread takes the waiting frames in bulk, decodes them with a
+ * {@link RecordCodec} and stores them as one {@link IngestBatch}, so storage
+ * contention and logging never hold up the socket.
+ *
+ * <p>When the ring is full the {@link OverflowPolicy} decides what happens to a new
+ * frame. Frames may be offered before {@link #start(DataStorage)}; they wait in the
+ * ring until the consumer starts. The depth and drop counters are kept for monitoring
+ * whether the consumer keeps up.
+ */
+public class IngestPipeline {
+    private static final int DEFAULT_CAPACITY = 65_536;
+    private static final int MAX_DRAIN = 1024; // Frames the consumer takes per pass
+
+    /**
+     * What {@link #offer(String)} does when the ring is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait for the consumer to make room, pushing back on the sender. */
+        BLOCK,
+        /** Discard the oldest waiting frame to make room for the new one. */
+        DROP_OLDEST,
+        /** Discard the new frame. */
+        DROP_NEWEST
+    }
+
+    private final OverflowPolicy overflowPolicy;
+    private final Object[] ring; // Text frames as String, binary ones as ByteBuffer
+    private final SourceMetrics[] sources; // The source of each frame in the ring, or null
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition retired = lock.newCondition();
+
+    // Guarded by lock
+    private int head; // Index of the oldest waiting frame
+    private int depth;
+    private int maxDepth;
+    private long acceptedCount;
+    private long retiredCount; // Accepted frames that were stored or pushed out of the ring
+    private long droppedCount;
+    private long readingCount;
+    private Thread consumer;
+    private boolean closed;
+
+    /**
+     * Creates a pipeline holding up to 65536 frames that blocks the sender when full.
+     */
+    public IngestPipeline() {
+        this(DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Creates a pipeline.
+     *
+     * @param capacity       how many frames may wait for the consumer; must be positive
+     * @param overflowPolicy what to do with a frame offered while the ring is full
+     * @throws IllegalArgumentException if capacity is not positive or overflowPolicy is null
+     */
+    public IngestPipeline(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("Overflow policy must not be null");
+        }
+        this.ring = new Object[capacity];
+        this.sources = new SourceMetrics[capacity];
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Starts the consumer thread.
+     *
+     * @param dataStorage the storage the parsed readings are added to
+     * @throws IllegalStateException if the pipeline was already started or is closed
+     */
+    public void start(DataStorage dataStorage) {
+        lock.lock();
+        try {
+            if (consumer != null || closed) {
+                throw new IllegalStateException("Ingest pipeline was already started");
+            }
+            consumer = new Thread(() -> consume(dataStorage), "ingest-pipeline");
+            consumer.setDaemon(true);
+            consumer.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts a frame holding one reading per line into the ring.
+     *
+     * @param frame the raw text as received
+     * @return false if the frame was discarded because the ring was full
+     * @throws IllegalStateException if the pipeline is closed
+     */
+    public boolean offer(String frame) {
+        return enqueue(frame, null);
+    }
+
+    /**
+     * Puts a binary {@link RecordFrame} into the ring. The buffer is read later, on the
+     * consumer thread, and must not be changed by the caller.
+     *
+     * @param frame the frame as received
+     * @return false if the frame was discarded because the ring was full
+     * @throws IllegalStateException if the pipeline is closed
+     */
+    public boolean offer(ByteBuffer frame) {
+        return enqueue(frame, null);
+    }
+
+    /**
+     * Puts a text or binary frame into the ring.
+     *
+     * @param frame  a String or a ByteBuffer
+     * @param source the counters of the source the frame came from, or null
+     */
+    boolean enqueue(Object frame, SourceMetrics source) {
+        lock.lock();
+        try {
+            checkOpen();
+            if (depth == ring.length) {
+                switch (overflowPolicy) {
+                    case BLOCK:
+                        while (depth == ring.length) {
+                            notFull.awaitUninterruptibly();
+                            checkOpen();
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        ring[head] = null;
+                        sources[head] = null;
+                        head = (head + 1) % ring.length;
+                        depth--;
+                        droppedCount++;
+                        retiredCount++;
+                        retired.signalAll();
+                        break;
+                    default:
+                        droppedCount++;
+                        return false;
+                }
+            }
+            int tail = (head + depth) % ring.length;
+            ring[tail] = frame;
+            sources[tail] = source;
+            depth++;
+            maxDepth = Math.max(maxDepth, depth);
+            acceptedCount++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every frame accepted before this call has been stored or discarded.
+     * Only returns once the pipeline has been started.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            long target = acceptedCount;
+            while (retiredCount < target) {
+                retired.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores every waiting frame and stops the consumer thread. Frames offered
+     * afterwards are refused.
+     */
+    public void close() {
+        Thread stopping;
+        lock.lock();
+        try {
+            closed = true;
+            stopping = consumer;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (stopping != null) {
+            try {
+                stopping.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Tells whether the consumer thread has been started.
+     *
+     * @return true once {@link #start(DataStorage)} was called
+     */
+    public boolean isStarted() {
+        lock.lock();
+        try {
+            return consumer != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Gets how many frames are waiting for the consumer.
+     *
+     * @return the current queue depth
+     */
+    public int getDepth() {
+        lock.lock();
+        try {
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the deepest the queue has been, to size the capacity.
+     *
+     * @return the high-water mark of the queue depth
+     */
+    public int getMaxDepth() {
+        lock.lock();
+        try {
+            return maxDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets how many frames were put into the ring, including any later pushed out of it.
+     *
+     * @return the number of accepted frames
+     */
+    public long getAcceptedCount() {
+        lock.lock();
+        try {
+            return acceptedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets how many frames were discarded because the ring was full.
+     *
+     * @return the number of dropped frames
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets how many readings the consumer has parsed and handed to the storage.
+     *
+     * @return the number of readings
+     */
+    public long getReadingCount() {
+        lock.lock();
+        try {
+            return readingCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Ingest pipeline is closed");
+        }
+    }
+
+    private void consume(DataStorage dataStorage) {
+        Object[] frames = new Object[Math.min(ring.length, MAX_DRAIN)];
+        SourceMetrics[] frameSources = new SourceMetrics[frames.length];
+        IngestBatch batch = new IngestBatch();
+        RecordCodec codec = new RecordCodec();
+        while (true) {
+            int count;
+            lock.lock();
+            try {
+                while (depth == 0 && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (depth == 0) {
+                    return; // Closed and drained
+                }
+                count = Math.min(depth, frames.length);
+                for (int i = 0; i < count; i++) {
+                    frames[i] = ring[head];
+                    frameSources[i] = sources[head];
+                    ring[head] = null;
+                    sources[head] = null;
+                    head = (head + 1) % ring.length;
+                }
+                depth -= count;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            batch.clear();
+            for (int i = 0; i < count; i++) {
+                int first = batch.size();
+                if (frames[i] instanceof ByteBuffer) {
+                    decode((ByteBuffer) frames[i], codec, batch);
+                } else {
+                    parse((String) frames[i], codec, batch);
+                }
+                if (frameSources[i] != null) {
+                    frameSources[i].record(batch, first);
+                }
+                frames[i] = null;
+                frameSources[i] = null;
+            }
+            try {
+                dataStorage.addPatientData(batch);
+            } catch (RuntimeException e) {
+                System.err.println("Error storing " + batch.size() + " readings on "
+                        + Thread.currentThread().getName() + ": " + e.getMessage());
+            }
+
+            lock.lock();
+            try {
+                retiredCount += count;
+                readingCount += batch.size();
+                retired.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static void decode(ByteBuffer frame, RecordCodec codec, IngestBatch batch) {
+        try {
+            codec.decodeFrame(frame, batch);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error processing binary message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds every reading of a frame to the batch. Malformed lines are reported and
+     * skipped without dropping the rest of the frame.
+     */
+    private static void parse(String frame, RecordCodec codec, IngestBatch batch) {
+        int from = 0;
+        while (from < frame.length()) {
+            int to = frame.indexOf('\n', from);
+            if (to < 0) {
+                to = frame.length();
+            }
+            try {
+                if (codec.parse(frame, from, to)) {
+                    codec.addTo(batch);
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error processing message line: " + frame.substring(from, to).trim()
+                        + " - " + e.getMessage());
+            }
+            from = to + 1;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.data_management;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Partitions ingest across writer threads by patient ID, so that every patient is
+ * written by exactly one thread and writers to different shards never touch the
+ * same patient.
+ *
+ * <p>Each shard has a mailbox of two {@link IngestBatch} buffers. Producers append to
+ * the open buffer under the shard's lock; the shard's thread swaps the buffers and
+ * stores the full one through {@link DataStorage#store(IngestBatch)}, so a burst of
+ * readings costs one swap rather than one hand-off per reading. A producer waits if
+ * its shard's mailbox is full. Once the shards are closed they refuse new readings,
+ * and the producer hands them to whatever replaced the shards.
+ */
+final class IngestShards {
+    private final Shard[] shards;
+
+    /**
+     * Starts the shard threads.
+     *
+     * @param dataStorage     the storage the shards write to
+     * @param shardCount      the number of writer threads
+     * @param mailboxCapacity the readings a shard may hold before producers wait
+     */
+    IngestShards(DataStorage dataStorage, int shardCount, int mailboxCapacity) {
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(dataStorage, i, mailboxCapacity);
+        }
+    }
+
+    int size() {
+        return shards.length;
+    }
+
+    /**
+     * Queues a reading to its patient's shard.
+     *
+     * @return false if the shards are closed and the reading was not queued
+     */
+    boolean submit(int patientId, double measurementValue, int recordTypeCode, long timestamp) {
+        return shardOf(patientId).submit(patientId, measurementValue, recordTypeCode, timestamp);
+    }
+
+    /**
+     * Queues the readings of a batch to their patients' shards.
+     *
+     * @return null if every reading was queued, or a new batch of those that were not
+     *         because the shards were closed meanwhile
+     */
+    IngestBatch submit(IngestBatch batch) {
+        // Split by shard once per batch rather than taking a mailbox lock per reading
+        long[] order = batch.groupByPatient();
+        int size = batch.size();
+        int from = 0;
+        while (from < size) {
+            Shard shard = shardOf(IngestBatch.patientOf(order[from]));
+            int to = from + 1;
+            while (to < size && shardOf(IngestBatch.patientOf(order[to])) == shard) {
+                to++;
+            }
+            if (!shard.submit(batch, order, from, to)) {
+                IngestBatch refused = new IngestBatch(size - from);
+                for (int k = from; k < size; k++) {
+                    int i = IngestBatch.indexOf(order[k]);
+                    refused.add(batch.patientIdAt(i), batch.valueAt(i), batch.recordTypeCodeAt(i), batch.timestampAt(i));
+                }
+                return refused;
+            }
+            from = to;
+        }
+        return null;
+    }
+
+    /**
+     * Waits until every reading submitted before this call has been stored.
+     */
+    void awaitIdle() {
+        for (Shard shard : shards) {
+            shard.awaitIdle();
+        }
+    }
+
+    /**
+     * Stores every submitted reading and stops the shard threads. Readings submitted
+     * from then on are refused.
+     */
+    void close() {
+        for (Shard shard : shards) {
+            shard.close();
+        }
+    }
+
+    private Shard shardOf(int patientId) {
+        return shards[Math.floorMod(patientId, shards.length)];
+    }
+
+    private static final class Shard {
+        private final DataStorage dataStorage;
+        private final int capacity;
+        private final Thread writer;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition stored = lock.newCondition();
+
+        // Guarded by lock
+        private IngestBatch open = new IngestBatch();
+        private IngestBatch spare = new IngestBatch();
+        private long submittedCount;
+        private long storedCount;
+        private boolean closed;
+
+        Shard(DataStorage dataStorage, int index, int capacity) {
+            this.dataStorage = dataStorage;
+            this.capacity = capacity;
+            this.writer = new Thread(this::writeLoop, "ingest-shard-" + index);
+            this.writer.setDaemon(true);
+            this.writer.start();
+        }
+
+        boolean submit(int patientId, double measurementValue, int recordTypeCode, long timestamp) {
+            lock.lock();
+            try {
+                if (!awaitRoom()) {
+                    return false;
+                }
+                open.add(patientId, measurementValue, recordTypeCode, timestamp);
+                submittedCount++;
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean submit(IngestBatch batch, long[] order, int from, int to) {
+            lock.lock();
+            try {
+                if (!awaitRoom()) {
+                    return false;
+                }
+                for (int k = from; k < to; k++) {
+                    int i = IngestBatch.indexOf(order[k]);
+                    open.add(batch.patientIdAt(i), batch.valueAt(i), batch.recordTypeCodeAt(i), batch.timestampAt(i));
+                }
+                submittedCount += to - from;
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void awaitIdle() {
+            lock.lock();
+            try {
+                long target = submittedCount;
+                while (storedCount < target) {
+                    stored.awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                closed = true;
+                notEmpty.signal();
+                stored.signalAll(); // Producers waiting for room are refused
+            } finally {
+                lock.unlock();
+            }
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Waits until the mailbox has room.
+         *
+         * @return false if the shard is closed, even if it closed while waiting
+         */
+        private boolean awaitRoom() {
+            while (!closed && open.size() >= capacity) {
+                // The writer is behind; hold the producer back instead of growing without bound
+                stored.awaitUninterruptibly();
+            }
+            return !closed;
+        }
+
+        private void writeLoop() {
+            while (true) {
+                IngestBatch batch;
+                lock.lock();
+                try {
+                    while (open.isEmpty() && !closed) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    if (open.isEmpty()) {
+                        return; // Closed and drained
+                    }
+                    batch = open;
+                    open = spare;
+                    spare = batch;
+                } finally {
+                    lock.unlock();
+                }
+
+                try {
+                    dataStorage.store(batch);
+                } catch (RuntimeException e) {
+                    System.err.println("Error storing " + batch.size() + " readings on "
+                            + Thread.currentThread().getName() + ": " + e.getMessage());
+                }
+
+                lock.lock();
+                try {
+                    storedCount += batch.size();
+                    batch.clear();
+                    stored.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
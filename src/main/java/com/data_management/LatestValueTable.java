@@ -0,0 +1,290 @@
+package com.data_management;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The newest reading of every patient and record type, kept by {@link DataStorage}
+ * so that status displays and threshold checks can read it in constant time without
+ * scanning a series or allocating.
+ *
+ * <p>Patients get a dense slot on their first reading, handed out by a counter so that
+ * no lock is taken while the slot map holds one of its own. Each record type has a column
+ * of fixed-size pages indexed by slot, so a bulk read of one type for all patients
+ * scans contiguous arrays. Every cell is guarded by its own version counter: a writer
+ * makes it odd while it updates the cell, and readers retry if it changed under
+ * them, so readers never block writers. A reading only replaces the cell if it is not
+ * older than the reading already there, and each replacement also moves the patient
+ * in the table's {@link PopulationIndex}.
+ */
+final class LatestValueTable {
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final long UNPUBLISHED = Long.MIN_VALUE;
+
+    private volatile Slots slots = new Slots();
+    private volatile long[] patientIds = newPatientIds(PAGE_SIZE); // Indexed by slot; UNPUBLISHED until set
+    private volatile int patientCount;
+    private volatile Column[] columns = new Column[0]; // Indexed by record type code
+    private final PopulationIndex populationIndex;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param populationIndex the index kept sorted by the table's latest values
+     */
+    LatestValueTable(PopulationIndex populationIndex) {
+        this.populationIndex = populationIndex;
+    }
+
+    /**
+     * Records a reading if it is at least as new as the latest one of its patient and type.
+     *
+     * @param patientId      the patient the reading belongs to
+     * @param recordTypeCode the record type code
+     * @param timestamp      the time of the reading
+     * @param value          the measured value
+     */
+    void update(int patientId, int recordTypeCode, long timestamp, double value) {
+        Slots current = slots;
+        Integer slot = current.byPatient.get(patientId);
+        if (slot == null) {
+            slot = current.byPatient.computeIfAbsent(patientId, id -> current.next.getAndIncrement());
+        }
+        long[] ids = patientIds;
+        if (slot >= ids.length || ids[slot] == UNPUBLISHED) {
+            publish(current, slot, patientId); // Before the cell is written, so readers never see it without its ID
+        }
+        Page page = column(recordTypeCode).page(slot >>> PAGE_SHIFT);
+        int index = slot & (PAGE_SIZE - 1);
+        AtomicIntegerArray versions = page.versions;
+        while (true) {
+            int version = versions.get(index);
+            if ((version & 1) == 0 && versions.compareAndSet(index, version, version + 1)) {
+                try {
+                    if (version == 0 || timestamp >= page.timestamps[index]) {
+                        // Moved while the cell is held, so moves of one cell never interleave
+                        populationIndex.move(patientId, recordTypeCode, version == 0 ? null
+                                : new PopulationIndex.Entry(page.values[index], patientId, page.timestamps[index]),
+                                timestamp, value);
+                        page.timestamps[index] = timestamp;
+                        page.values[index] = value;
+                    }
+                } finally {
+                    versions.set(index, version + 2);
+                }
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Gets the latest value of a patient and record type without allocating.
+     *
+     * @param patientId      the patient ID
+     * @param recordTypeCode the record type code
+     * @return the latest value, or NaN if there is none
+     */
+    double getValue(int patientId, int recordTypeCode) {
+        int slot = slotOf(patientId);
+        Page page = pageOf(slot, recordTypeCode);
+        if (page == null) {
+            return Double.NaN;
+        }
+        int index = slot & (PAGE_SIZE - 1);
+        while (true) {
+            int version = stableVersion(page, index);
+            double value = page.values[index];
+            VarHandle.loadLoadFence();
+            if (page.versions.get(index) == version) {
+                return version == 0 ? Double.NaN : value;
+            }
+        }
+    }
+
+    /**
+     * Gets the latest reading of a patient and record type.
+     *
+     * @param patientId      the patient ID
+     * @param recordTypeCode the record type code
+     * @return the latest reading, or null if there is none
+     */
+    PatientRecord getRecord(int patientId, int recordTypeCode) {
+        int slot = slotOf(patientId);
+        Page page = pageOf(slot, recordTypeCode);
+        if (page == null) {
+            return null;
+        }
+        return read(page, slot & (PAGE_SIZE - 1), patientId, recordTypeCode);
+    }
+
+    /**
+     * Gets the latest reading of one record type for every patient that has one.
+     *
+     * @param recordTypeCode the record type code
+     * @return the latest readings, in the order patients first appeared
+     */
+    List<PatientRecord> getRecordsByType(int recordTypeCode) {
+        List<PatientRecord> records = new ArrayList<>();
+        Column[] current = columns;
+        if (recordTypeCode < 0 || recordTypeCode >= current.length || current[recordTypeCode] == null) {
+            return records;
+        }
+        Page[] pages = current[recordTypeCode].pages;
+        int count = patientCount;
+        long[] ids = patientIds;
+        for (int slot = 0; slot < count && slot < ids.length && (slot >>> PAGE_SHIFT) < pages.length; slot++) {
+            Page page = pages[slot >>> PAGE_SHIFT];
+            if (page != null && ids[slot] != UNPUBLISHED) {
+                PatientRecord record = read(page, slot & (PAGE_SIZE - 1), (int) ids[slot], recordTypeCode);
+                if (record != null) {
+                    records.add(record);
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Forgets every patient, including in the population index. The slot map is
+     * replaced rather than cleared, so no lock of the map is taken under the monitor.
+     */
+    synchronized void clear() {
+        populationIndex.clear();
+        columns = new Column[0];
+        patientCount = 0;
+        patientIds = newPatientIds(PAGE_SIZE);
+        slots = new Slots();
+    }
+
+    private static PatientRecord read(Page page, int index, int patientId, int recordTypeCode) {
+        while (true) {
+            int version = stableVersion(page, index);
+            long timestamp = page.timestamps[index];
+            double value = page.values[index];
+            VarHandle.loadLoadFence();
+            if (page.versions.get(index) == version) {
+                return version == 0 ? null : new PatientRecord(patientId, value, recordTypeCode, timestamp);
+            }
+        }
+    }
+
+    private static int stableVersion(Page page, int index) {
+        int version = page.versions.get(index);
+        while ((version & 1) != 0) {
+            Thread.onSpinWait();
+            version = page.versions.get(index);
+        }
+        return version;
+    }
+
+    /**
+     * Looks a patient's slot up once, so a {@link #clear()} racing with a read cannot
+     * make a second lookup of the same patient fail.
+     *
+     * @return the slot, or -1 if the patient has none
+     */
+    private int slotOf(int patientId) {
+        Integer slot = slots.byPatient.get(patientId);
+        return slot != null ? slot : -1;
+    }
+
+    private Page pageOf(int slot, int recordTypeCode) {
+        Column[] current = columns;
+        if (slot < 0 || recordTypeCode < 0 || recordTypeCode >= current.length || current[recordTypeCode] == null) {
+            return null;
+        }
+        Page[] pages = current[recordTypeCode].pages;
+        return (slot >>> PAGE_SHIFT) < pages.length ? pages[slot >>> PAGE_SHIFT] : null;
+    }
+
+    /**
+     * Records the patient of a slot handed out by the slot map, unless the table was
+     * cleared since.
+     */
+    private synchronized void publish(Slots owner, int slot, int patientId) {
+        if (owner != slots) {
+            return;
+        }
+        long[] ids = patientIds;
+        if (slot >= ids.length) {
+            int length = ids.length;
+            ids = Arrays.copyOf(ids, Math.max(slot + 1, length * 2));
+            Arrays.fill(ids, length, ids.length, UNPUBLISHED);
+        }
+        ids[slot] = patientId;
+        patientIds = ids;
+        patientCount = Math.max(patientCount, slot + 1); // Publishes the ID
+    }
+
+    private static long[] newPatientIds(int length) {
+        long[] ids = new long[length];
+        Arrays.fill(ids, UNPUBLISHED);
+        return ids;
+    }
+
+    private Column column(int recordTypeCode) {
+        Column[] current = columns;
+        if (recordTypeCode < current.length && current[recordTypeCode] != null) {
+            return current[recordTypeCode];
+        }
+        synchronized (this) {
+            current = columns;
+            if (recordTypeCode >= current.length) {
+                current = Arrays.copyOf(current, recordTypeCode + 1);
+            }
+            if (current[recordTypeCode] == null) {
+                current[recordTypeCode] = new Column();
+            }
+            columns = current;
+            return current[recordTypeCode];
+        }
+    }
+
+    /**
+     * The cells of one record type. Pages never move once created, so a writer can
+     * keep updating a page while the page array grows.
+     */
+    private static final class Column {
+        volatile Page[] pages = new Page[1];
+
+        Page page(int number) {
+            Page[] current = pages;
+            if (number < current.length && current[number] != null) {
+                return current[number];
+            }
+            synchronized (this) {
+                current = pages;
+                if (number >= current.length) {
+                    current = Arrays.copyOf(current, Math.max(number + 1, current.length * 2));
+                }
+                if (current[number] == null) {
+                    current[number] = new Page();
+                }
+                pages = current;
+                return current[number];
+            }
+        }
+    }
+
+    /**
+     * The slot of every patient and the next slot to hand out, replaced together on
+     * {@link #clear()}.
+     */
+    private static final class Slots {
+        final ConcurrentHashMap<Integer, Integer> byPatient = new ConcurrentHashMap<>();
+        final AtomicInteger next = new AtomicInteger();
+    }
+
+    private static final class Page {
+        final long[] timestamps = new long[PAGE_SIZE];
+        final double[] values = new double[PAGE_SIZE];
+        final AtomicIntegerArray versions = new AtomicIntegerArray(PAGE_SIZE); // 0 until first written
+    }
+}
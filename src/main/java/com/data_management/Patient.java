@@ -1,26 +1,51 @@
 package com.data_management;
 
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Represents a patient and manages their medical records.
  * This class stores patient-specific data, allowing for the addition and
  * retrieval of medical records based on specified criteria.
+ * Readings are kept in one columnar {@link RecordSeries} per record type, and
+ * {@link PatientRecord} objects are only created when records are retrieved.
+ *
+ * <p>Writes are serialized per patient; reads never take a lock. Readers work on the
+ * published series array and each series' published length, and retry if a late
+ * insert moved readings while they were scanning.
  */
 public class Patient {
+    static final int JOURNAL_CAPACITY = 2048; // Readings a cursor may fall behind before it must resync
+    static final int MAX_SCRATCH_VALUES = 1 << 16; // Largest percentile window whose copy is kept for reuse
+    // Values of the last percentile window of each thread, so polled queries do not allocate a copy
+    private static final ThreadLocal<double[]> PERCENTILE_SCRATCH = ThreadLocal.withInitial(() -> new double[256]);
+
     private int patientId;
-    private List<PatientRecord> patientRecords;
+    private volatile RecordSeries[] series; // In order of first appearance of each record type
+    private volatile RecordSeries[] seriesByType; // Indexed by record type code, null if absent
+    private RetentionPolicy retentionPolicy; // Bounds for new series; null keeps everything
+    private volatile long sequence; // Number of readings added; the cursor after the newest one
+    private volatile long writing; // Highest sequence number whose journal slot a writer may have touched
+    private volatile Journal journal; // Recent readings in arrival order; created by the first cursor query
+    private volatile EventTimePolicy eventTimePolicy; // Bounds on late readings; null accepts every reading
+    private volatile long newestTimestamp = Long.MIN_VALUE; // Newest event time received
+    private volatile long lateCount; // Readings stored behind the watermark
+    private volatile long droppedCount; // Readings dropped for being later than allowed
+    private DuplicateFilter duplicateFilter; // Recently stored keys; null accepts duplicates
+    private volatile long duplicateCount; // Readings dropped as repeats of stored ones
 
     /**
      * Constructs a new Patient with a specified ID.
-     * Initializes an empty list of patient records.
+     * Initializes an empty set of record series.
      *
      * @param patientId the unique identifier for the patient
      */
     public Patient(int patientId) {
         this.patientId = patientId;
-        this.patientRecords = new ArrayList<>();
+        this.series = new RecordSeries[0];
+        this.seriesByType = new RecordSeries[0];
     }
 
     /**
@@ -42,16 +67,259 @@ public class Patient {
      *                         "BloodPressure"
      * @param timestamp        the time at which the measurement was taken, in
      *                         milliseconds since UNIX epoch
+     * @return false if the reading was dropped as a duplicate or as too late
+     */
+    public boolean addRecord(double measurementValue, String recordType, long timestamp) {
+        return addRecord(measurementValue, RecordTypeRegistry.getInstance().codeOf(recordType), timestamp);
+    }
+
+    /**
+     * Adds a new record whose record type has already been encoded.
+     *
+     * @param measurementValue the measurement value to store in the record
+     * @param recordTypeCode   the record type code from {@link RecordTypeRegistry}
+     * @param timestamp        the time at which the measurement was taken, in
+     *                         milliseconds since UNIX epoch
+     * @return false if the reading was dropped as a duplicate or as too late
+     */
+    public synchronized boolean addRecord(double measurementValue, int recordTypeCode, long timestamp) {
+        if (!store(recordTypeCode, timestamp, measurementValue)) {
+            return false;
+        }
+        long next = sequence + 1;
+        Journal current = journal;
+        if (current != null) {
+            writing = next;
+            VarHandle.storeStoreFence(); // Readers see the claim before the slot changes
+            current.record(next, recordTypeCode, timestamp, measurementValue);
+        }
+        sequence = next; // Publishes the journal entry
+        return true;
+    }
+
+    /**
+     * Adds a run of readings of this patient from a batch under one lock acquisition.
+     * Readings that are not stored are marked with {@link IngestBatch#reject(int)}.
+     *
+     * @param batch the batch holding the readings
+     * @param order the keys from {@link IngestBatch#groupByPatient()}
+     * @param from  the first key of this patient's run
+     * @param to    the end of the run, exclusive
+     */
+    synchronized void addRecords(IngestBatch batch, long[] order, int from, int to) {
+        long next = sequence;
+        Journal current = journal;
+        if (current != null) {
+            writing = next + (to - from); // Claims every slot the run may overwrite
+            VarHandle.storeStoreFence();
+        }
+        for (int k = from; k < to; k++) {
+            int i = IngestBatch.indexOf(order[k]);
+            int recordTypeCode = batch.recordTypeCodeAt(i);
+            if (!store(recordTypeCode, batch.timestampAt(i), batch.valueAt(i))) {
+                batch.reject(i);
+                continue;
+            }
+            next++;
+            if (current != null) {
+                current.record(next, recordTypeCode, batch.timestampAt(i), batch.valueAt(i));
+            }
+        }
+        sequence = next; // Publishes the journal entries
+        if (current != null) {
+            writing = next; // Rejected readings took no slot
+        }
+    }
+
+    /**
+     * Inserts a reading into its series in time order unless the event-time policy
+     * says it is too late or it repeats the record type and timestamp of a stored
+     * reading. Called by the writer.
+     *
+     * @return whether the reading was stored
+     */
+    private boolean store(int recordTypeCode, long timestamp, double measurementValue) {
+        long sealBefore = Long.MAX_VALUE;
+        EventTimePolicy policy = eventTimePolicy;
+        if (policy != null) {
+            long watermark = minus(Math.max(newestTimestamp, timestamp), policy.getMaxOutOfOrderness());
+            long oldestAccepted = minus(watermark, policy.getAllowedLateness());
+            if (timestamp < oldestAccepted) {
+                droppedCount++;
+                return false;
+            }
+            if (timestamp < watermark) {
+                lateCount++;
+            }
+            sealBefore = oldestAccepted;
+        }
+        RecordSeries target = seriesFor(recordTypeCode);
+        DuplicateFilter filter = duplicateFilter;
+        if (filter != null) {
+            // In-order readings skip the lookup; the filter spares most out-of-order ones
+            if (timestamp <= target.newestTimestamp() && filter.mightContain(recordTypeCode, timestamp)
+                    && target.containsTimestamp(timestamp)) {
+                duplicateCount++;
+                return false;
+            }
+            filter.add(recordTypeCode, timestamp);
+        }
+        if (timestamp > newestTimestamp) {
+            newestTimestamp = timestamp;
+        }
+        target.add(measurementValue, timestamp, sealBefore);
+        return true;
+    }
+
+    private static long minus(long time, long millis) {
+        return time < Long.MIN_VALUE + millis ? Long.MIN_VALUE : time - millis;
+    }
+
+    /**
+     * Gets this patient's watermark: the event time up to which its readings are
+     * considered complete. It trails the newest received timestamp by the event-time
+     * policy's maximum out-of-orderness, or equals it without a policy.
+     *
+     * @return the watermark, or Long.MIN_VALUE if the patient has no readings
+     */
+    public long getWatermark() {
+        EventTimePolicy policy = eventTimePolicy;
+        return policy == null ? newestTimestamp : minus(newestTimestamp, policy.getMaxOutOfOrderness());
+    }
+
+    /**
+     * Gets the number of readings that arrived behind the watermark and were still
+     * stored, because they were within the allowed lateness.
+     *
+     * @return the number of late readings
+     */
+    public long getLateCount() {
+        return lateCount;
+    }
+
+    /**
+     * Gets the number of readings dropped for arriving later than the allowed lateness.
+     *
+     * @return the number of dropped readings
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Gets the number of readings dropped because a reading of the same record type
+     * and timestamp was already stored.
+     *
+     * @return the number of dropped duplicates
+     */
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Turns duplicate suppression on or off. Readings stored before it was turned on
+     * are still recognized, by a slower exact lookup.
+     *
+     * @param enabled whether repeats of stored readings are dropped
+     */
+    synchronized void setDuplicateSuppression(boolean enabled) {
+        if (!enabled) {
+            duplicateFilter = null;
+        } else if (duplicateFilter == null) {
+            long newest = newestTimestamp;
+            duplicateFilter = new DuplicateFilter(newest == Long.MIN_VALUE || newest == Long.MAX_VALUE
+                    ? newest : newest + 1);
+        }
+    }
+
+    /**
+     * Sets how late readings are handled from now on. Readings already stored are kept.
+     *
+     * @param policy the policy, or null to accept every reading
      */
-    public void addRecord(double measurementValue, String recordType, long timestamp) {
-        PatientRecord record = new PatientRecord(this.patientId, measurementValue, recordType, timestamp);
-        this.patientRecords.add(record);
+    synchronized void setEventTimePolicy(EventTimePolicy policy) {
+        this.eventTimePolicy = policy;
+    }
+
+    /**
+     * Gets the sequence number of the newest reading, which is the number of readings
+     * added to this patient so far.
+     *
+     * @return the current sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Retrieves the readings added after a cursor, in arrival order, so that a consumer
+     * polling this patient only pays for new readings. Late readings are included
+     * even though they sort before readings the consumer has already seen.
+     *
+     * <p>Recent readings are kept in a bounded arrival journal, created by the first
+     * call. If the journal does not cover the cursor, because it was created later,
+     * the consumer fell too far behind or the cursor is ahead of this patient, every
+     * retained reading is returned in time order instead, marked as a resync.
+     *
+     * @param cursor          the cursor returned by the previous call, or 0
+     * @param recordTypeCodes the record types to return; all types if none are given
+     * @return the new readings and the cursor to pass next time
+     */
+    public RecordDelta getRecordsSince(long cursor, int... recordTypeCodes) {
+        RecordCursor records = new RecordCursor();
+        long next = readRecordsSince(cursor, records, recordTypeCodes);
+        return new RecordDelta(records.toRecords(), next, records.isResync());
+    }
+
+    /**
+     * Fills a cursor with the readings added after a sequence cursor, like
+     * {@link #getRecordsSince(long, int...)} but without creating records.
+     *
+     * @param cursor          the cursor returned by the previous call, or 0
+     * @param into            the cursor to fill; {@link RecordCursor#isResync()} tells how
+     * @param recordTypeCodes the record types to return; all types if none are given
+     * @return the cursor to pass next time
+     */
+    long readRecordsSince(long cursor, RecordCursor into, int... recordTypeCodes) {
+        Journal current = journal;
+        if (current != null && cursor >= current.firstCursor) {
+            long end = sequence;
+            if (cursor <= end && end - cursor <= JOURNAL_CAPACITY) {
+                into.reset(patientId, false);
+                into.ensureCapacity((int) (end - cursor));
+                for (long next = cursor + 1; next <= end; next++) {
+                    current.read(next, recordTypeCodes, into);
+                }
+                VarHandle.loadLoadFence(); // The slots are read before the claims are checked
+                // Slot cursor + 1 is reused by sequence number cursor + 1 + JOURNAL_CAPACITY; no
+                // writer, finished or not, may have claimed it, or a reading may be overwritten or torn
+                if (writing - cursor <= JOURNAL_CAPACITY) {
+                    return end;
+                }
+            }
+        }
+        return resync(into, recordTypeCodes);
+    }
+
+    /**
+     * Reads every retained reading together with the matching cursor. Blocks writers to
+     * this patient while it copies.
+     */
+    private synchronized long resync(RecordCursor into, int... recordTypeCodes) {
+        if (journal == null) {
+            writing = sequence;
+            journal = new Journal(sequence);
+        }
+        fill(into, select(into, recordTypeCodes), Long.MIN_VALUE, Long.MAX_VALUE, true);
+        return sequence;
     }
 
     /**
      * Retrieves a list of PatientRecord objects for this patient that fall within a
      * specified time range.
-     * The method filters records based on the start and end times provided.
+     * The method locates the range in each record series by binary search and
+     * merges the series by timestamp; readings with equal timestamps are returned
+     * in the order their record types first appeared for this patient.
      *
      * @param startTime the start of the time range, in milliseconds since UNIX
      *                  epoch
@@ -61,15 +329,486 @@ public class Patient {
      * @throws IllegalArgumentException if startTime is greater than endTime
      */
     public List<PatientRecord> getRecords(long startTime, long endTime) {
+        return openRecords(startTime, endTime, new RecordCursor()).toRecords();
+    }
+
+    /**
+     * Retrieves the records of the given record types that fall within a specified
+     * time range, merged in time order. Only the series of the requested types are
+     * read, so callers interested in one vital sign do not pay for the others.
+     *
+     * @param startTime       the start of the time range, in milliseconds since UNIX epoch
+     * @param endTime         the end of the time range, in milliseconds since UNIX epoch
+     * @param recordTypeCodes the record type codes from {@link RecordTypeRegistry}
+     * @return the matching records in time order
+     * @throws IllegalArgumentException if startTime is greater than endTime
+     */
+    public List<PatientRecord> getRecordsByType(long startTime, long endTime, int... recordTypeCodes) {
+        if (recordTypeCodes.length == 0) {
+            if (startTime > endTime) {
+                throw new IllegalArgumentException("Start time cannot be greater than end time");
+            }
+            return new ArrayList<>();
+        }
+        return openRecords(startTime, endTime, new RecordCursor(), recordTypeCodes).toRecords();
+    }
+
+    /**
+     * Fills a reusable cursor with the readings of some record types in a time range,
+     * in the order of {@link #getRecords(long, long)}, without creating records. A
+     * consumer that keeps its cursor and its array of record type codes does not
+     * allocate once the cursor has grown to its usual number of readings.
+     *
+     * @param startTime       the start of the time range, in milliseconds since UNIX epoch
+     * @param endTime         the end of the time range, in milliseconds since UNIX epoch
+     * @param cursor          the cursor to fill, positioned before the first reading
+     * @param recordTypeCodes the record types to read; all types if none are given
+     * @return the cursor
+     * @throws IllegalArgumentException if startTime is greater than endTime
+     */
+    public RecordCursor openRecords(long startTime, long endTime, RecordCursor cursor, int... recordTypeCodes) {
+        if (startTime > endTime) {
+            throw new IllegalArgumentException("Start time cannot be greater than end time");
+        }
+        fill(cursor, select(cursor, recordTypeCodes), startTime, endTime, false);
+        return cursor;
+    }
+
+    /**
+     * Aggregates the readings of one record type over a time range using the rollup
+     * tiers: whole hours come from the hourly tier, the remaining whole minutes from
+     * the minute tier, and so on down to the raw readings at the edges. Ranges older
+     * than a tier retains fall back to the raw readings, as far as they are retained.
+     *
+     * @param recordTypeCode the record type code
+     * @param startTime      the start of the time range, inclusive
+     * @param endTime        the end of the time range, inclusive
+     * @return the aggregate, with a count of zero if there are no readings
+     * @throws IllegalArgumentException if startTime is greater than endTime
+     */
+    public Rollup getRollup(int recordTypeCode, long startTime, long endTime) {
+        if (startTime > endTime) {
+            throw new IllegalArgumentException("Start time cannot be greater than end time");
+        }
+        RecordSeries target = seriesOf(recordTypeCode);
+        if (target == null) {
+            return Rollup.empty(startTime, endTime);
+        }
+        long end = endTime == Long.MAX_VALUE ? Long.MAX_VALUE : endTime + 1;
+        RollupTier[] tiers = target.getRollupTiers();
+        return summarize(target, tiers, tiers.length - 1, startTime, end);
+    }
+
+    /**
+     * Lists precomputed buckets of one record type, from the coarsest tier whose
+     * bucket width does not exceed the requested resolution (or the finest tier if
+     * none does). A tier disabled because the signal is too sparse to fill it is
+     * skipped for the next coarser one. The first and last bucket may extend beyond
+     * the time range.
+     *
+     * @param recordTypeCode   the record type code
+     * @param startTime        the start of the time range, inclusive
+     * @param endTime          the end of the time range, inclusive
+     * @param resolutionMillis the widest acceptable bucket, in milliseconds
+     * @return the retained, non-empty buckets in time order
+     * @throws IllegalArgumentException if startTime is greater than endTime
+     */
+    public List<Rollup> getRollups(int recordTypeCode, long startTime, long endTime, long resolutionMillis) {
         if (startTime > endTime) {
             throw new IllegalArgumentException("Start time cannot be greater than end time");
         }
-        List<PatientRecord> filteredRecords = new ArrayList<>();
-        for (PatientRecord record : patientRecords) {
-            if (record.getTimestamp() >= startTime && record.getTimestamp() <= endTime) {
-                filteredRecords.add(record);
+        RecordSeries target = seriesOf(recordTypeCode);
+        if (target == null) {
+            return new ArrayList<>();
+        }
+        RollupTier[] tiers = target.getRollupTiers();
+        int level = tiers.length - 1;
+        while (level > 0 && tiers[level].getWidth() > resolutionMillis) {
+            level--;
+        }
+        while (level < tiers.length - 1 && !tiers[level].isEnabled()) {
+            level++;
+        }
+        return tiers[level].buckets(startTime, endTime);
+    }
+
+    /**
+     * Computes percentiles of the readings of one record type over a time range. The
+     * values are copied straight from the series into one primitive array and each
+     * percentile is found by selection, without sorting them or creating records.
+     * Unlike {@link #getRollup}, only readings that are still retained count.
+     *
+     * <p>Each call takes time linear in the number of readings in the range; the rollup
+     * tiers hold no quantiles. The array is kept per thread and reused for ranges of up
+     * to {@value #MAX_SCRATCH_VALUES} readings, so a monitor polling a recent window
+     * only allocates the result.
+     *
+     * @param recordTypeCode the record type code
+     * @param startTime      the start of the time range, inclusive
+     * @param endTime        the end of the time range, inclusive
+     * @param percentiles    the percentiles to compute, each from 0 to 100; values between
+     *                       two readings are interpolated linearly
+     * @return one value per requested percentile, or NaN for each if there are no readings
+     * @throws IllegalArgumentException if startTime is greater than endTime or a
+     *                                  percentile is outside 0 to 100
+     */
+    public double[] getPercentiles(int recordTypeCode, long startTime, long endTime, double... percentiles) {
+        if (startTime > endTime) {
+            throw new IllegalArgumentException("Start time cannot be greater than end time");
+        }
+        for (double percentile : percentiles) {
+            if (!(percentile >= 0 && percentile <= 100)) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+            }
+        }
+        double[] results = new double[percentiles.length];
+        Arrays.fill(results, Double.NaN);
+        RecordSeries target = seriesOf(recordTypeCode);
+        if (target == null) {
+            return results;
+        }
+        RecordSeries.View view = new RecordSeries.View();
+        double[] values = PERCENTILE_SCRATCH.get();
+        int count;
+        do {
+            view.load(target);
+            long start = view.lowerBound(startTime);
+            long end = Math.max(start, endTime == Long.MAX_VALUE ? view.tail() : view.lowerBound(endTime + 1));
+            count = Math.toIntExact(end - start);
+            if (values.length < count) {
+                values = new double[Math.max(count, Math.min(values.length * 2, MAX_SCRATCH_VALUES))];
+                if (values.length <= MAX_SCRATCH_VALUES) {
+                    PERCENTILE_SCRATCH.set(values);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                values[i] = view.valueAt(start + i);
+            }
+        } while (!view.isCurrent());
+        if (count == 0) {
+            return results;
+        }
+        for (int i = 0; i < percentiles.length; i++) {
+            double rank = percentiles[i] / 100 * (count - 1);
+            int lower = (int) rank;
+            double low = select(values, count, lower);
+            if (rank == lower) {
+                results[i] = low;
+            } else {
+                // Selection left everything after the lower rank at or above it
+                double high = Double.POSITIVE_INFINITY;
+                for (int j = lower + 1; j < count; j++) {
+                    high = Math.min(high, values[j]);
+                }
+                results[i] = low + (high - low) * (rank - lower);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Checks whether a reading is stored, without taking a lock.
+     *
+     * @param recordTypeCode the record type code
+     * @param timestamp      the time of the reading
+     * @param value          the measured value
+     * @return true if a reading of that type with that timestamp and value is retained
+     */
+    boolean hasRecord(int recordTypeCode, long timestamp, double value) {
+        RecordSeries target = seriesOf(recordTypeCode);
+        if (target == null) {
+            return false;
+        }
+        RecordSeries.View view = new RecordSeries.View();
+        while (true) {
+            view.load(target);
+            boolean found = false;
+            for (long i = view.lowerBound(timestamp), end = view.upperBound(timestamp); i < end && !found; i++) {
+                found = Double.compare(view.valueAt(i), value) == 0;
+            }
+            if (view.isCurrent()) {
+                return found;
+            }
+        }
+    }
+
+    /**
+     * Applies a retention policy to this patient's existing and future record series.
+     *
+     * @param policy the policy to apply, or null to keep every reading
+     */
+    synchronized void setRetentionPolicy(RetentionPolicy policy) {
+        this.retentionPolicy = policy;
+        for (RecordSeries existing : series) {
+            applyRetention(existing);
+        }
+    }
+
+    /**
+     * Evicts the oldest chunk of readings from one of this patient's series.
+     *
+     * @param target a series of this patient
+     * @return the number of evicted readings
+     */
+    synchronized long evictOldestChunk(RecordSeries target) {
+        return target.evictOldestChunk();
+    }
+
+    /**
+     * Returns this patient's record series in order of first appearance.
+     *
+     * @return the currently published series
+     */
+    RecordSeries[] getSeries() {
+        return series;
+    }
+
+    private void applyRetention(RecordSeries target) {
+        RetentionPolicy policy = retentionPolicy;
+        if (policy == null) {
+            target.setRetention(Long.MAX_VALUE, Long.MAX_VALUE);
+            target.setRollupHorizon(Long.MAX_VALUE);
+        } else {
+            int code = target.getRecordTypeCode();
+            target.setRetention(policy.getCapacity(code), policy.getHorizon(code));
+            target.setRollupHorizon(policy.getRollupHorizon(code));
+        }
+    }
+
+    /**
+     * A ring of the most recent readings in arrival order, indexed by sequence number.
+     * Written by the patient's writer before it publishes the new sequence number.
+     */
+    private final class Journal {
+        final long firstCursor; // Sequence number when the journal was created
+        final long[] timestamps = new long[JOURNAL_CAPACITY];
+        final double[] values = new double[JOURNAL_CAPACITY];
+        final int[] recordTypeCodes = new int[JOURNAL_CAPACITY];
+
+        Journal(long firstCursor) {
+            this.firstCursor = firstCursor;
+        }
+
+        void record(long sequenceNumber, int recordTypeCode, long timestamp, double value) {
+            int slot = (int) (sequenceNumber & (JOURNAL_CAPACITY - 1));
+            timestamps[slot] = timestamp;
+            values[slot] = value;
+            recordTypeCodes[slot] = recordTypeCode;
+        }
+
+        void read(long sequenceNumber, int[] filter, RecordCursor into) {
+            int slot = (int) (sequenceNumber & (JOURNAL_CAPACITY - 1));
+            int code = recordTypeCodes[slot];
+            if (filter.length > 0) {
+                boolean wanted = false;
+                for (int candidate : filter) {
+                    wanted |= candidate == code;
+                }
+                if (!wanted) {
+                    return;
+                }
+            }
+            into.add(code, timestamps[slot], values[slot]);
+        }
+    }
+
+    private RecordSeries seriesOf(int recordTypeCode) {
+        RecordSeries[] byType = seriesByType;
+        return recordTypeCode >= 0 && recordTypeCode < byType.length ? byType[recordTypeCode] : null;
+    }
+
+    /**
+     * Aggregates [from, to) using whole buckets of the given tier and finer tiers or
+     * raw readings for the partial buckets at either edge.
+     */
+    private static Rollup summarize(RecordSeries target, RollupTier[] tiers, int level, long from, long to) {
+        if (from >= to) {
+            return Rollup.empty(from, to - 1);
+        }
+        if (level < 0) {
+            return summarizeRaw(target, from, to);
+        }
+        RollupTier tier = tiers[level];
+        long width = tier.getWidth();
+        long first = tier.bucketStart(from);
+        if (first < from) {
+            if (first > Long.MAX_VALUE - width) {
+                return summarize(target, tiers, level - 1, from, to);
+            }
+            first += width;
+        }
+        long last = tier.bucketStart(to);
+        if (first >= last) {
+            return summarize(target, tiers, level - 1, from, to);
+        }
+        long retained = Math.max(first, Math.min(tier.oldestStart(), last));
+        return summarize(target, tiers, level - 1, from, first)
+                .merge(summarizeRaw(target, first, retained))
+                .merge(tier.aggregate(retained, last))
+                .merge(summarize(target, tiers, level - 1, last, to));
+    }
+
+    private static Rollup summarizeRaw(RecordSeries target, long from, long to) {
+        RecordSeries.View view = new RecordSeries.View();
+        while (true) {
+            view.load(target);
+            long count = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            double sumOfSquares = 0;
+            long start = view.lowerBound(from);
+            long end = Math.max(start, view.lowerBound(to));
+            for (long i = start; i < end; i++) {
+                double value = view.valueAt(i);
+                count++;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+                sumOfSquares += value * value;
+            }
+            Rollup result = count == 0 ? Rollup.empty(from, to - 1)
+                    : new Rollup(from, to - 1, count, min, max, sum, sumOfSquares,
+                            view.timestampAt(start), view.valueAt(start),
+                            view.timestampAt(end - 1), view.valueAt(end - 1));
+            if (view.isCurrent()) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Moves the value of the given rank to its sorted position, with no greater value
+     * before it and no smaller value after it, in expected linear time.
+     */
+    private static double select(double[] values, int count, int rank) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            double pivot = medianOf(values[low], values[mid], values[high]);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double swap = values[i];
+                    values[i++] = values[j];
+                    values[j--] = swap;
+                }
+            }
+            if (rank <= j) {
+                high = j;
+            } else if (rank >= i) {
+                low = i;
+            } else {
+                break; // Between the two halves, so equal to the pivot
+            }
+        }
+        return values[rank];
+    }
+
+    private static double medianOf(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private RecordSeries seriesFor(int recordTypeCode) {
+        RecordSeries[] byType = seriesByType;
+        if (recordTypeCode < byType.length && byType[recordTypeCode] != null) {
+            return byType[recordTypeCode];
+        }
+        RecordSeries created = new RecordSeries(recordTypeCode);
+        applyRetention(created);
+        if (recordTypeCode >= byType.length) {
+            byType = Arrays.copyOf(byType, recordTypeCode + 1);
+        }
+        byType[recordTypeCode] = created;
+        seriesByType = byType;
+        RecordSeries[] current = series;
+        RecordSeries[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = created;
+        series = grown;
+        return created;
+    }
+
+    /**
+     * Puts the series of the requested types into the cursor's selection, in the tie
+     * order of {@link #getRecords(long, long)}.
+     *
+     * @return the number of series selected
+     */
+    private int select(RecordCursor into, int[] recordTypeCodes) {
+        RecordSeries[] current = series;
+        RecordSeries[] selected = into.selection(current.length);
+        int count = 0;
+        for (RecordSeries candidate : current) {
+            if (recordTypeCodes.length == 0) {
+                selected[count++] = candidate;
+                continue;
+            }
+            for (int code : recordTypeCodes) {
+                if (candidate.getRecordTypeCode() == code) {
+                    selected[count++] = candidate;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void fill(RecordCursor into, int seriesCount, long startTime, long endTime, boolean resync) {
+        RecordSeries[] snapshot = into.selection(seriesCount);
+        RecordSeries.View[] views = into.views();
+        do {
+            for (int i = 0; i < seriesCount; i++) {
+                views[i].load(snapshot[i]);
+            }
+            into.reset(patientId, resync);
+            mergeRange(views, seriesCount, startTime, endTime, into);
+        } while (!allCurrent(views, seriesCount));
+    }
+
+    private static void mergeRange(RecordSeries.View[] views, int seriesCount, long startTime, long endTime,
+            RecordCursor into) {
+        long[] positions = into.starts();
+        long[] limits = into.limits();
+        long total = 0;
+        for (int i = 0; i < seriesCount; i++) {
+            positions[i] = views[i].lowerBound(startTime);
+            limits[i] = Math.max(positions[i], views[i].upperBound(endTime));
+            total += limits[i] - positions[i];
+        }
+
+        into.ensureCapacity((int) Math.min(total, Integer.MAX_VALUE - 8));
+        for (long n = 0; n < total; n++) {
+            int next = -1;
+            long nextTimestamp = Long.MAX_VALUE;
+            for (int i = 0; i < seriesCount; i++) {
+                if (positions[i] < limits[i]) {
+                    long timestamp = views[i].timestampAt(positions[i]);
+                    if (next < 0 || timestamp < nextTimestamp) {
+                        next = i;
+                        nextTimestamp = timestamp;
+                    }
+                }
+            }
+            RecordSeries.View source = views[next];
+            into.add(source.series().getRecordTypeCode(), nextTimestamp, source.valueAt(positions[next]));
+            positions[next]++;
+        }
+    }
+
+    private static boolean allCurrent(RecordSeries.View[] views, int count) {
+        for (int i = 0; i < count; i++) {
+            if (!views[i].isCurrent()) {
+                return false;
             }
         }
-        return filteredRecords;
+        return true;
     }
-}
\ No newline at end of file
+}
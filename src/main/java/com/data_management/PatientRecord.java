@@ -11,7 +11,7 @@ package com.data_management;
  */
 public class PatientRecord {
     private int patientId;
-    private String recordType; // Example: ECG, blood pressure, etc.
+    private int recordTypeCode; // Code of the record type in RecordTypeRegistry, e.g. ECG
     private double measurementValue; // Example: heart rate
     private long timestamp;
 
@@ -26,9 +26,22 @@ public class PatientRecord {
      *                         milliseconds since epoch
      */
     public PatientRecord(int patientId, double measurementValue, String recordType, long timestamp) {
+        this(patientId, measurementValue, RecordTypeRegistry.getInstance().codeOf(recordType), timestamp);
+    }
+
+    /**
+     * Constructs a new patient record with an already encoded record type.
+     *
+     * @param patientId        the unique identifier for the patient
+     * @param measurementValue the numerical value of the recorded measurement
+     * @param recordTypeCode   the record type code from {@link RecordTypeRegistry}
+     * @param timestamp        the time at which the measurement was recorded, in
+     *                         milliseconds since epoch
+     */
+    public PatientRecord(int patientId, double measurementValue, int recordTypeCode, long timestamp) {
         this.patientId = patientId;
         this.measurementValue = measurementValue;
-        this.recordType = recordType;
+        this.recordTypeCode = recordTypeCode;
         this.timestamp = timestamp;
     }
 
@@ -65,6 +78,16 @@ public class PatientRecord {
      * @return the record type
      */
     public String getRecordType() {
-        return recordType;
+        return RecordTypeRegistry.getInstance().nameOf(recordTypeCode);
+    }
+
+    /**
+     * Returns the code of the record type, as assigned by {@link RecordTypeRegistry}.
+     * Comparing codes is cheaper than comparing {@link #getRecordType()} names.
+     * 
+     * @return the record type code
+     */
+    public int getRecordTypeCode() {
+        return recordTypeCode;
     }
 }
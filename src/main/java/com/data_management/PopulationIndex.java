@@ -0,0 +1,159 @@
+package com.data_management;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Every patient's latest value of each record type, sorted by value, so that
+ * questions about the whole population, such as which patients have a saturation
+ * below 92 or which have the 20 highest systolic pressures, cost a walk over the
+ * answer rather than a scan of every patient.
+ *
+ * <p>{@link LatestValueTable} moves a patient's entry whenever it replaces that
+ * patient's latest reading, while it still holds the reading's cell, so the moves of
+ * one patient and type never interleave. Each record type has its own concurrent
+ * skip list; queries never block writers and see every patient at most once, but a
+ * patient whose entry is being moved may be missing from a result.
+ */
+final class PopulationIndex {
+    private volatile NavigableSet<Entry>[] byType = newTypes(0); // Indexed by record type code
+
+    /**
+     * Replaces a patient's entry for a record type.
+     *
+     * @param patientId      the patient whose latest reading changed
+     * @param recordTypeCode the record type code
+     * @param previous       the reading it replaced, or null if it is the patient's first
+     * @param timestamp      the time of the new latest reading
+     * @param value          the new latest value
+     */
+    void move(int patientId, int recordTypeCode, Entry previous, long timestamp, double value) {
+        NavigableSet<Entry> entries = entries(recordTypeCode);
+        if (previous != null) {
+            entries.remove(previous);
+        }
+        entries.add(new Entry(value, patientId, timestamp));
+    }
+
+    /**
+     * Gets the patients whose latest value is below a threshold.
+     *
+     * @param recordTypeCode the record type code
+     * @param threshold      the exclusive upper bound
+     * @return their latest readings, lowest value first
+     */
+    List<PatientRecord> below(int recordTypeCode, double threshold) {
+        NavigableSet<Entry> entries = entriesIfPresent(recordTypeCode);
+        if (entries == null) {
+            return new ArrayList<>();
+        }
+        return toRecords(entries.headSet(new Entry(threshold, Integer.MIN_VALUE, Long.MIN_VALUE), false),
+                recordTypeCode, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the patients whose latest value is above a threshold.
+     *
+     * @param recordTypeCode the record type code
+     * @param threshold      the exclusive lower bound
+     * @return their latest readings, highest value first
+     */
+    List<PatientRecord> above(int recordTypeCode, double threshold) {
+        NavigableSet<Entry> entries = entriesIfPresent(recordTypeCode);
+        if (entries == null) {
+            return new ArrayList<>();
+        }
+        return toRecords(entries.tailSet(new Entry(threshold, Integer.MAX_VALUE, Long.MAX_VALUE), false)
+                .descendingSet(), recordTypeCode, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the patients with the highest or lowest latest values.
+     *
+     * @param recordTypeCode the record type code
+     * @param count          the number of patients to return
+     * @param highest        whether to return the highest values rather than the lowest
+     * @return at most count readings, the most extreme first
+     */
+    List<PatientRecord> extremes(int recordTypeCode, int count, boolean highest) {
+        NavigableSet<Entry> entries = entriesIfPresent(recordTypeCode);
+        if (entries == null) {
+            return new ArrayList<>();
+        }
+        return toRecords(highest ? entries.descendingSet() : entries, recordTypeCode, count);
+    }
+
+    /**
+     * Forgets every patient.
+     */
+    synchronized void clear() {
+        byType = newTypes(0);
+    }
+
+    private static List<PatientRecord> toRecords(NavigableSet<Entry> entries, int recordTypeCode, int limit) {
+        List<PatientRecord> records = new ArrayList<>();
+        Iterator<Entry> iterator = entries.iterator();
+        while (records.size() < limit && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            records.add(new PatientRecord(entry.patientId, entry.value, recordTypeCode, entry.timestamp));
+        }
+        return records;
+    }
+
+    private NavigableSet<Entry> entriesIfPresent(int recordTypeCode) {
+        NavigableSet<Entry>[] current = byType;
+        return recordTypeCode >= 0 && recordTypeCode < current.length ? current[recordTypeCode] : null;
+    }
+
+    private NavigableSet<Entry> entries(int recordTypeCode) {
+        NavigableSet<Entry> entries = entriesIfPresent(recordTypeCode);
+        if (entries != null) {
+            return entries;
+        }
+        synchronized (this) {
+            NavigableSet<Entry>[] current = byType;
+            if (recordTypeCode >= current.length) {
+                current = Arrays.copyOf(current, recordTypeCode + 1);
+            }
+            if (current[recordTypeCode] == null) {
+                current[recordTypeCode] = new ConcurrentSkipListSet<>();
+            }
+            byType = current;
+            return current[recordTypeCode];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static NavigableSet<Entry>[] newTypes(int length) {
+        return (NavigableSet<Entry>[]) new NavigableSet<?>[length];
+    }
+
+    /**
+     * One patient's latest reading of a type, ordered by value, then patient, then time.
+     */
+    static final class Entry implements Comparable<Entry> {
+        final double value;
+        final int patientId;
+        final long timestamp;
+
+        Entry(double value, int patientId, long timestamp) {
+            this.value = value;
+            this.patientId = patientId;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byValue = Double.compare(value, other.value);
+            if (byValue != 0) {
+                return byValue;
+            }
+            int byPatient = Integer.compare(patientId, other.patientId);
+            return byPatient != 0 ? byPatient : Long.compare(timestamp, other.timestamp);
+        }
+    }
+}
@@ -7,6 +7,7 @@ import com.data_management.WebSocketDataReader;
 import com.data_management.Patient;
 
 import java.net.URI;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Example demonstrating real-time WebSocket data processing with alert generation.
@@ -30,6 +31,11 @@ public class RealTimeMonitoringExample {
             
             // Step 3: Initialize data storage with WebSocket reader
             DataStorage dataStorage = DataStorage.getInstance(websocketReader);
+
+            // Keep memory bounded however long the monitor runs
+            RetentionPolicy retentionPolicy = RetentionPolicy.monitoringDefaults();
+            dataStorage.setRetentionPolicy(retentionPolicy);
+            new RetentionManager(dataStorage, retentionPolicy).start(1, TimeUnit.MINUTES);
             
             // Step 4: Set up alert generation with console output
             AlertGenerator alertGenerator = new AlertGenerator(dataStorage, new ConsoleOutputStrategy());
@@ -83,15 +89,24 @@ public class RealTimeMonitoringExample {
         System.out.println("Total Patients: " + dataStorage.getAllPatients().size());
         System.out.println("WebSocket Server: " + websocketReader.getServerUri());
         
-        // Display recent patient data summary
+        // Display each patient's latest readings from the latest-value table, without scanning series
+        RecordTypeRegistry recordTypes = RecordTypeRegistry.getInstance();
         for (Patient patient : dataStorage.getAllPatients()) {
-            var records = dataStorage.getRecords(patient.getPatientId(), 
-                                                System.currentTimeMillis() - 60000, // Last minute
-                                                System.currentTimeMillis());
-            if (!records.isEmpty()) {
-                System.out.println("Patient " + patient.getPatientId() + 
-                                 ": " + records.size() + " readings in last minute");
+            StringBuilder line = new StringBuilder("Patient " + patient.getPatientId() + ":");
+            for (int code = 0; code < recordTypes.size(); code++) {
+                double value = dataStorage.getLatestValue(patient.getPatientId(), code);
+                if (!Double.isNaN(value)) {
+                    line.append(' ').append(recordTypes.nameOf(code)).append('=').append(value);
+                }
             }
+            System.out.println(line);
+        }
+
+        // Central station view: the patients most at risk, from the population index
+        int saturation = recordTypes.codeOf("Saturation");
+        for (PatientRecord record : dataStorage.getPatientsBelow(saturation, 92)) {
+            System.out.println("Low saturation: patient " + record.getPatientId() + " at "
+                    + record.getMeasurementValue() + "%");
         }
         System.out.println("------------------------\n");
     }
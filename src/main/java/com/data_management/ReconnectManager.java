@@ -0,0 +1,123 @@
+package com.data_management;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the reconnect attempts of one connection with exponential backoff: the
+ * delay doubles after every failed attempt up to a maximum and starts over once the
+ * connection is back. Each delay is randomized between half and all of its value, so
+ * clients cut off together do not all come back at the same moment.
+ *
+ * <p>Attempts of every connection run on one shared daemon thread rather than on a
+ * thread per attempt.
+ */
+public class ReconnectManager {
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "reconnect-manager");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+
+    // Guarded by this
+    private int attempts;
+    private ScheduledFuture<?> pending;
+    private boolean cancelled;
+
+    /**
+     * Creates a manager that first retries after half a second and at most waits 30 seconds.
+     */
+    public ReconnectManager() {
+        this(500, 30_000);
+    }
+
+    /**
+     * Creates a manager.
+     *
+     * @param initialDelayMillis the delay before the first attempt; must be positive
+     * @param maxDelayMillis     the longest delay between attempts; at least initialDelayMillis
+     * @throws IllegalArgumentException if the delays are out of range
+     */
+    public ReconnectManager(long initialDelayMillis, long maxDelayMillis) {
+        if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Delays must be positive and the maximum at least the initial delay");
+        }
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Schedules a reconnect attempt after the next backoff delay, unless one is already
+     * pending or the manager was cancelled. An attempt stops being pending once it
+     * starts running, so a failure it reports, while it is still running, schedules
+     * the next one.
+     *
+     * @param attempt the action that reconnects
+     * @return the delay in milliseconds, or -1 if nothing was scheduled
+     */
+    public synchronized long schedule(Runnable attempt) {
+        if (cancelled || (pending != null && !pending.isDone())) {
+            return -1;
+        }
+        long delay = nextDelayMillis();
+        pending = SCHEDULER.schedule(() -> {
+            synchronized (this) {
+                pending = null;
+                if (cancelled) {
+                    return;
+                }
+            }
+            try {
+                attempt.run();
+            } catch (Exception e) {
+                System.err.println("Failed to reconnect: " + e.getMessage());
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return delay;
+    }
+
+    /**
+     * Resets the backoff after the connection was established.
+     */
+    public synchronized void connected() {
+        attempts = 0;
+        cancelled = false;
+    }
+
+    /**
+     * Drops a pending attempt and schedules no more until {@link #connected()}, for a
+     * connection that was closed on purpose.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * Gets the number of attempts scheduled since the connection was last established.
+     *
+     * @return the number of attempts
+     */
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    private long nextDelayMillis() {
+        long delay = maxDelayMillis;
+        if (attempts < 62 && initialDelayMillis <= maxDelayMillis >> attempts) {
+            delay = initialDelayMillis << attempts;
+        }
+        attempts++;
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+}
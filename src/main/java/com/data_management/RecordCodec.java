@@ -0,0 +1,466 @@
+package com.data_management;
+
+import com.cardio_generator.outputs.RecordFrame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses one reading per line of comma-separated text, straight from a
+ * {@link CharSequence} or the bytes of a {@link ByteBuffer}, without splitting the
+ * line or creating strings for its fields. Every {@link DataReader} parses through it.
+ *
+ * <p>Two layouts are understood:
+ * <ul>
+ *   <li>{@link Layout#STORAGE}: {@code patientId,measurementValue,recordType,timestamp},
+ *       as read from history files;</li>
+ *   <li>{@link Layout#SIMULATOR}: {@code patientId,timestamp,label,data}, as written by
+ *       the simulator's output strategies.</li>
+ * </ul>
+ * {@link Layout#AUTO} reads a line in the simulator layout if its fields are named,
+ * if its fourth field is not an integer, or if its second field is an integer of at
+ * least {@value #EPOCH_MILLIS_DIGITS} digits, a millisecond timestamp, and its fourth
+ * field is a shorter one, as with {@code 1,1714376789050,HeartRate,72}. Other lines
+ * are read in the storage layout.
+ * Fields may be surrounded by whitespace. A measured value may end in {@code %}, and
+ * the simulator's alert data {@code triggered} and {@code resolved} read as 1 and 0.
+ * Each field may also be preceded by its name and a colon, as in the lines of the
+ * simulator's {@code FileOutputStrategy}:
+ * {@code Patient ID: 1, Timestamp: 1714376789050, Label: HeartRate, Data: 72.0}.
+ *
+ * <p>Numbers in plain decimal notation are parsed in place, with the same result as
+ * {@link Double#parseDouble}; anything else, such as exponents, falls back to the
+ * standard parsers. Record type names are matched against the ones the codec has seen
+ * before and only looked up in {@link RecordTypeRegistry} the first time.
+ *
+ * <p>Binary {@link RecordFrame}s holding many readings are decoded straight into an
+ * {@link IngestBatch} by {@link #decodeFrame}.
+ *
+ * <p>A codec keeps the fields of the last parsed line and is not thread-safe; each
+ * reader thread uses its own.
+ */
+public final class RecordCodec {
+    /**
+     * The order of the fields in a line.
+     */
+    public enum Layout {
+        STORAGE, SIMULATOR, AUTO
+    }
+
+    private static final double[] POWERS_OF_TEN = new double[23]; // Exactly representable as doubles
+    static final int EPOCH_MILLIS_DIGITS = 11; // Millisecond timestamps after April 1970
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final Layout layout;
+    private final RecordTypeRegistry recordTypes = RecordTypeRegistry.getInstance();
+    private final ByteSequence bytes = new ByteSequence();
+    private final int[] commas = new int[3]; // Field separators of the current line
+    private final int[] starts = new int[4]; // Field starts of the current line, after any field names
+    private String[] typeNames = new String[0]; // Indexed by record type code, as seen by this codec
+    private int[] frameTypeCodes = new int[8]; // Record type codes of the labels of the current frame
+
+    private int patientId;
+    private double value;
+    private int recordTypeCode;
+    private long timestamp;
+
+    /**
+     * Creates a codec that detects the layout of every line.
+     */
+    public RecordCodec() {
+        this(Layout.AUTO);
+    }
+
+    /**
+     * Creates a codec.
+     *
+     * @param layout the order of the fields in the lines it parses
+     */
+    public RecordCodec(Layout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Parses a whole line.
+     *
+     * @param line the line, with or without its line break
+     * @return false if the line is blank and holds no reading
+     * @throws IllegalArgumentException if the line is not a reading in the codec's layout
+     */
+    public boolean parse(CharSequence line) {
+        return parse(line, 0, line.length());
+    }
+
+    /**
+     * Parses a line within a longer text, such as a message holding several lines.
+     *
+     * @param text the text
+     * @param from the index of the first character of the line
+     * @param to   the index after the last character of the line
+     * @return false if the line is blank and holds no reading
+     * @throws IllegalArgumentException if the line is not a reading in the codec's layout
+     */
+    public boolean parse(CharSequence text, int from, int to) {
+        int found = 0;
+        boolean blank = true;
+        boolean named = false;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == ',') {
+                if (found == commas.length) {
+                    throw new IllegalArgumentException("Invalid data format in line: " + lineOf(text, from, to));
+                }
+                commas[found++] = i;
+            }
+            blank &= c <= ' ';
+            named |= c == ':';
+        }
+        if (blank) {
+            return false;
+        }
+        if (found != commas.length) {
+            throw new IllegalArgumentException("Invalid data format in line: " + lineOf(text, from, to));
+        }
+        starts[0] = from;
+        for (int k = 0; k < commas.length; k++) {
+            starts[k + 1] = commas[k] + 1;
+        }
+        if (named) {
+            starts[0] = afterName(text, from, commas[0]);
+            for (int k = 1; k < starts.length; k++) {
+                starts[k] = afterName(text, starts[k], k < commas.length ? commas[k] : to);
+            }
+        }
+        try {
+            int start = starts[3];
+            boolean simulator = layout == Layout.SIMULATOR
+                    || (layout == Layout.AUTO && isSimulatorLine(text, named, start, to));
+            patientId = Math.toIntExact(parseLong(text, starts[0], commas[0]));
+            recordTypeCode = parseRecordType(text, starts[2], commas[2]);
+            if (simulator) {
+                timestamp = parseLong(text, starts[1], commas[1]);
+                value = parseValue(text, start, to);
+            } else {
+                value = parseValue(text, starts[1], commas[1]);
+                timestamp = parseLong(text, start, to);
+            }
+            return true;
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw new IllegalArgumentException("Error parsing line: " + lineOf(text, from, to) + " - "
+                    + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses a line of UTF-8 or ASCII text from a buffer, such as a memory-mapped file,
+     * without copying it.
+     *
+     * @param buffer the buffer; its position and limit are not used or changed
+     * @param from   the index of the first byte of the line
+     * @param to     the index after the last byte of the line
+     * @return false if the line is blank and holds no reading
+     * @throws IllegalArgumentException if the line is not a reading in the codec's layout
+     */
+    public boolean parse(ByteBuffer buffer, int from, int to) {
+        bytes.buffer = buffer;
+        try {
+            return parse(bytes, from, to);
+        } finally {
+            bytes.buffer = null;
+        }
+    }
+
+    /**
+     * Decodes a binary {@link RecordFrame} and adds its readings to a batch.
+     *
+     * @param frame the frame, from its position to its limit; neither is changed
+     * @param batch the batch to add to
+     * @return the number of readings added
+     * @throws IllegalArgumentException if the frame is not a valid binary frame; no
+     *                                  readings are added then
+     */
+    public int decodeFrame(ByteBuffer frame, IngestBatch batch) {
+        int at = frame.position();
+        try {
+            if (frame.get(at) != RecordFrame.VERSION) {
+                throw new IllegalArgumentException("Unsupported record frame version: " + frame.get(at));
+            }
+            at++;
+            int labelCount = frame.getShort(at) & 0xFFFF;
+            at += 2;
+            if (frameTypeCodes.length < labelCount) {
+                frameTypeCodes = new int[labelCount];
+            }
+            bytes.buffer = frame;
+            for (int i = 0; i < labelCount; i++) {
+                int length = frame.getShort(at) & 0xFFFF;
+                at += 2;
+                if (at + length > frame.limit()) {
+                    throw truncated(frame, null);
+                }
+                frameTypeCodes[i] = parseRecordType(bytes, at, at + length);
+                at += length;
+            }
+            int count = frame.getInt(at);
+            at += 4;
+            if (count < 0 || (long) count * RecordFrame.RECORD_BYTES != frame.limit() - at) {
+                throw new IllegalArgumentException("Record frame of " + (frame.limit() - frame.position())
+                        + " bytes cannot hold " + count + " readings");
+            }
+            for (int i = 0; i < count; i++, at += RecordFrame.RECORD_BYTES) {
+                int label = frame.getShort(at + 4) & 0xFFFF;
+                if (label >= labelCount) {
+                    throw new IllegalArgumentException("Record frame refers to unknown label " + label);
+                }
+            }
+            at -= count * RecordFrame.RECORD_BYTES;
+            for (int i = 0; i < count; i++, at += RecordFrame.RECORD_BYTES) {
+                batch.add(frame.getInt(at), frame.getDouble(at + 14),
+                        frameTypeCodes[frame.getShort(at + 4) & 0xFFFF], frame.getLong(at + 6));
+            }
+            return count;
+        } catch (IndexOutOfBoundsException e) {
+            throw truncated(frame, e);
+        } finally {
+            bytes.buffer = null;
+        }
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Gets the record type of the last parsed line.
+     *
+     * @return the record type code from {@link RecordTypeRegistry}
+     */
+    public int getRecordTypeCode() {
+        return recordTypeCode;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Adds the reading of the last parsed line to a batch.
+     *
+     * @param batch the batch to add to
+     */
+    public void addTo(IngestBatch batch) {
+        batch.add(patientId, value, recordTypeCode, timestamp);
+    }
+
+    private static IllegalArgumentException truncated(ByteBuffer frame, Exception cause) {
+        return new IllegalArgumentException("Truncated record frame of " + (frame.limit() - frame.position())
+                + " bytes", cause);
+    }
+
+    private boolean isSimulatorLine(CharSequence text, boolean named, int start, int to) {
+        if (named) {
+            return true; // Only the simulator's file layout names its fields
+        }
+        int dataDigits = integerDigits(text, trimStart(text, start, to), trimEnd(text, start, to));
+        if (dataDigits < 0) {
+            return true;
+        }
+        int from = trimStart(text, starts[1], commas[1]);
+        int timestampDigits = integerDigits(text, from, trimEnd(text, from, commas[1]));
+        return timestampDigits >= EPOCH_MILLIS_DIGITS && dataDigits < EPOCH_MILLIS_DIGITS;
+    }
+
+    /**
+     * Counts the digits of an integer, not counting its sign.
+     *
+     * @return the number of digits, or -1 if the text is not an integer
+     */
+    private static int integerDigits(CharSequence text, int from, int to) {
+        if (from < to && (text.charAt(from) == '-' || text.charAt(from) == '+')) {
+            from++;
+        }
+        if (from == to) {
+            return -1;
+        }
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return to - from;
+    }
+
+    private static long parseLong(CharSequence text, int from, int to) {
+        from = trimStart(text, from, to);
+        to = trimEnd(text, from, to);
+        int i = from;
+        boolean negative = i < to && text.charAt(i) == '-';
+        if (negative || (i < to && text.charAt(i) == '+')) {
+            i++;
+        }
+        if (i == to || to - i > 18) {
+            return Long.parseLong(text.subSequence(from, to).toString()); // Empty, or may overflow; let it decide
+        }
+        long result = 0;
+        for (; i < to; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.parseLong(text.subSequence(from, to).toString());
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    private static double parseValue(CharSequence text, int from, int to) {
+        from = trimStart(text, from, to);
+        to = trimEnd(text, from, to);
+        if (to > from && text.charAt(to - 1) == '%') {
+            to = trimEnd(text, from, to - 1);
+        }
+        if (matches(text, from, to, "triggered")) {
+            return 1;
+        }
+        if (matches(text, from, to, "resolved")) {
+            return 0;
+        }
+        int i = from;
+        boolean negative = i < to && text.charAt(i) == '-';
+        if (negative || (i < to && text.charAt(i) == '+')) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1; // Not counting until the decimal point
+        for (; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9 || ++digits > 18) {
+                // Exponents, special values and long numbers
+                return Double.parseDouble(text.subSequence(from, to).toString());
+            }
+            mantissa = mantissa * 10 + digit;
+            if (fractionDigits >= 0) {
+                fractionDigits++;
+            }
+        }
+        if (digits == 0 || mantissa >= 1L << 53 || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(text.subSequence(from, to).toString());
+        }
+        // Both operands are exact, so the quotient is correctly rounded like parseDouble
+        double result = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -result : result;
+    }
+
+    private int parseRecordType(CharSequence text, int from, int to) {
+        from = trimStart(text, from, to);
+        to = trimEnd(text, from, to);
+        for (int code = 0; code < typeNames.length; code++) {
+            String name = typeNames[code];
+            if (name != null && matches(text, from, to, name)) {
+                return code;
+            }
+        }
+        String name = text.subSequence(from, to).toString();
+        int code = recordTypes.codeOf(name);
+        if (code >= typeNames.length) {
+            String[] grown = new String[code + 1];
+            System.arraycopy(typeNames, 0, grown, 0, typeNames.length);
+            typeNames = grown;
+        }
+        typeNames[code] = name;
+        return code;
+    }
+
+    private static boolean matches(CharSequence text, int from, int to, String name) {
+        if (to - from != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (text.charAt(from + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skips the name of a field, such as {@code Patient ID:}.
+     *
+     * @return the index after the field's first colon, or from if it has none
+     */
+    private static int afterName(CharSequence text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == ':') {
+                return i + 1;
+            }
+        }
+        return from;
+    }
+
+    private static int trimStart(CharSequence text, int from, int to) {
+        while (from < to && text.charAt(from) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(CharSequence text, int from, int to) {
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    private static String lineOf(CharSequence text, int from, int to) {
+        return text.subSequence(from, to).toString().trim();
+    }
+
+    /**
+     * The bytes of a buffer seen as characters. ASCII bytes map to themselves, which is
+     * all the parser looks at; {@link #subSequence} decodes UTF-8 for the rare strings
+     * it makes.
+     */
+    private static final class ByteSequence implements CharSequence {
+        ByteBuffer buffer;
+
+        @Override
+        public int length() {
+            return buffer.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            byte[] copy = new byte[end - start];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = buffer.get(start + i);
+            }
+            return new String(copy, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+}
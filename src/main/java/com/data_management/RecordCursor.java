@@ -0,0 +1,190 @@
+package com.data_management;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A reusable, forward-only cursor over readings of one patient, filled by
+ * {@link DataStorage#openRecords} or {@link RecordStream#poll(DataStorage, RecordCursor)}.
+ * It is a flyweight: {@link #next()} moves to the following reading and
+ * {@link #timestamp()}, {@link #value()} and {@link #type()} read it, so iterating
+ * creates no {@link PatientRecord} objects.
+ *
+ * <p>A fill copies the readings into the cursor's own primitive arrays while checking
+ * that no concurrent write moved them, so iteration never has to retry. The arrays
+ * and the series views used to read them are kept, and a consumer that reuses its
+ * cursor stops allocating once they have grown to its usual number of readings.
+ *
+ * <p>A cursor is not thread-safe; each consumer keeps its own.
+ */
+public final class RecordCursor {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int patientId;
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int[] recordTypeCodes = new int[INITIAL_CAPACITY];
+    private int size;
+    private int position = -1;
+    private boolean resync;
+
+    // Reused by fills so that reading the series does not allocate either
+    private RecordSeries[] selected = new RecordSeries[0];
+    private RecordSeries.View[] views = new RecordSeries.View[0];
+    private long[] starts = new long[0];
+    private long[] limits = new long[0];
+
+    /**
+     * Moves to the next reading.
+     *
+     * @return false if there are no more readings
+     */
+    public boolean next() {
+        if (position + 1 < size) {
+            position++;
+            return true;
+        }
+        position = size;
+        return false;
+    }
+
+    /**
+     * Moves back before the first reading, so the same readings can be iterated again.
+     */
+    public void rewind() {
+        position = -1;
+    }
+
+    public long timestamp() {
+        return timestamps[current()];
+    }
+
+    public double value() {
+        return values[current()];
+    }
+
+    /**
+     * Gets the record type of the current reading.
+     *
+     * @return the record type code from {@link RecordTypeRegistry}
+     */
+    public int type() {
+        return recordTypeCodes[current()];
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    /**
+     * Gets the number of readings of the last fill.
+     *
+     * @return the number of readings, wherever the cursor is positioned
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Tells whether the last fill by a stream returned the patient's full retained
+     * history instead of its new readings; see {@link RecordDelta#isResync()}.
+     *
+     * @return true if the consumer should rebuild any state it keeps
+     */
+    public boolean isResync() {
+        return resync;
+    }
+
+    /**
+     * Copies the current reading into a record, for consumers that keep a few of them.
+     *
+     * @return a new record
+     */
+    public PatientRecord toRecord() {
+        int index = current();
+        return new PatientRecord(patientId, values[index], recordTypeCodes[index], timestamps[index]);
+    }
+
+    /**
+     * Empties the cursor for a fill.
+     */
+    void reset(int patientId, boolean resync) {
+        this.patientId = patientId;
+        this.resync = resync;
+        this.size = 0;
+        this.position = -1;
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > timestamps.length) {
+            int grown = Math.max(capacity, timestamps.length * 2);
+            timestamps = Arrays.copyOf(timestamps, grown);
+            values = Arrays.copyOf(values, grown);
+            recordTypeCodes = Arrays.copyOf(recordTypeCodes, grown);
+        }
+    }
+
+    void add(int recordTypeCode, long timestamp, double value) {
+        ensureCapacity(size + 1);
+        timestamps[size] = timestamp;
+        values[size] = value;
+        recordTypeCodes[size] = recordTypeCode;
+        size++;
+    }
+
+    /**
+     * Copies every reading of the last fill into new records.
+     */
+    List<PatientRecord> toRecords() {
+        List<PatientRecord> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            records.add(new PatientRecord(patientId, values[i], recordTypeCodes[i], timestamps[i]));
+        }
+        return records;
+    }
+
+    /**
+     * Gets scratch room for the series a fill reads, with their views and positions.
+     *
+     * @param count the number of series
+     * @return an array of at least count entries
+     */
+    RecordSeries[] selection(int count) {
+        if (selected.length < count) {
+            selected = new RecordSeries[count];
+            views = Arrays.copyOf(views, count);
+            for (int i = 0; i < count; i++) {
+                if (views[i] == null) {
+                    views[i] = new RecordSeries.View();
+                }
+            }
+            starts = new long[count];
+            limits = new long[count];
+        }
+        return selected;
+    }
+
+    RecordSeries.View[] views() {
+        return views;
+    }
+
+    long[] starts() {
+        return starts;
+    }
+
+    long[] limits() {
+        return limits;
+    }
+
+    private int current() {
+        if (position < 0 || position >= size) {
+            throw new IllegalStateException("The cursor is not on a reading");
+        }
+        return position;
+    }
+}
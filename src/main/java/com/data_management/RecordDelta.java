@@ -0,0 +1,45 @@
+package com.data_management;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The readings a patient received after a cursor, returned by
+ * {@link DataStorage#getRecordsSince(int, long)}. A cursor is a patient's sequence
+ * number: every reading added to a patient increments it, so a consumer that passes
+ * back {@link #getCursor()} next time sees each new reading once.
+ *
+ * <p>New readings come in arrival order. If the cursor is too old for the patient's
+ * arrival journal, the delta instead holds every retained reading in time order and
+ * {@link #isResync()} is true, so the consumer can rebuild any state it keeps.
+ */
+public class RecordDelta {
+    private final List<PatientRecord> records;
+    private final long cursor;
+    private final boolean resync;
+
+    /**
+     * Constructs a delta.
+     *
+     * @param records the readings after the requested cursor
+     * @param cursor  the cursor to pass on the next request
+     * @param resync  whether the records are the full retained history
+     */
+    public RecordDelta(List<PatientRecord> records, long cursor, boolean resync) {
+        this.records = Collections.unmodifiableList(records);
+        this.cursor = cursor;
+        this.resync = resync;
+    }
+
+    public List<PatientRecord> getRecords() {
+        return records;
+    }
+
+    public long getCursor() {
+        return cursor;
+    }
+
+    public boolean isResync() {
+        return resync;
+    }
+}
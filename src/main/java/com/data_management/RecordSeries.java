@@ -0,0 +1,648 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * Columnar, time-ordered storage for the readings of one record type of one patient.
+ * Readings are kept in chunks of {@link #CHUNK_SIZE}: the open chunk being appended to
+ * holds parallel primitive arrays ({@code long[]} and {@code double[]}), and every
+ * full chunk behind it is sealed, that is compressed with {@link GorillaCodec}, so
+ * that regular, slowly changing signals take a few bits per reading. A writer that
+ * expects late readings can pass a seal bound to {@link #add(double, long, long)}, and
+ * full chunks stay open until all their readings are older than the bound. Range lookups use
+ * binary search, first over the chunks' first timestamps and then within one chunk.
+ *
+ * <p>Readings are addressed by absolute position: {@code head} is the position of the
+ * oldest retained reading and {@code tail} the position after the newest one. Old
+ * readings are evicted by advancing {@code head}, either because the series is full
+ * (a bounded series behaves as a ring buffer), because they fell out of the time
+ * horizon, or because the memory budget asked for it. Chunks that only hold evicted
+ * readings are dropped.
+ *
+ * <p>A series has a single writer at a time (the owning {@link Patient} serializes
+ * writes) and any number of lock-free readers, which read through a {@link View}.
+ * Appends are published by the volatile {@code tail}. Writes that change readings a
+ * reader may already have seen (late inserts, which unseal the chunks they shift, and
+ * reuse of the arrays of a sealed open chunk) move {@code version} through an odd
+ * value; {@link View#isCurrent()} tells a reader whether it must retry.
+ */
+final class RecordSeries {
+    static final int CHUNK_SHIFT = 8;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // Readings per chunk
+    static final long BYTES_PER_CHUNK = (long) CHUNK_SIZE * (Long.BYTES + Double.BYTES);
+    // A bucket takes the memory of several raw readings and saves no work over fewer
+    static final int MIN_READINGS_PER_BUCKET = 4;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int recordTypeCode;
+    private volatile Layout layout;
+    private volatile int chunkCount; // Chunks of the layout that are in use
+    private volatile int sealedCount; // Chunks of the layout that are sealed
+    private volatile long sealedBytes; // Heap used by the sealed chunks
+    private volatile long head;
+    private volatile long tail;
+    private volatile int version;
+    private volatile long evictedCount;
+    private volatile long droppedBytes; // Heap released by dropping evicted chunks
+    private volatile long capacity = Long.MAX_VALUE; // Maximum number of retained readings
+    private volatile long horizon = Long.MAX_VALUE; // Maximum age relative to the newest reading
+    private final RollupTier[] rollupTiers = RollupTier.standardTiers(); // Finest first; outlive evicted readings
+    private final View writerView = new View(); // Only used by the writer
+    private OpenChunk spare; // Arrays of the last sealed chunk, reused for the next open chunk
+    private long sealBefore = Long.MAX_VALUE; // Full chunks whose readings are all older than this are sealed
+    private long sealedThrough; // Absolute number of the first chunk that may still be open
+    private long newestTimestamp = Long.MIN_VALUE; // Newest timestamp ever added
+
+    /**
+     * Creates an empty, unbounded series for the given record type.
+     *
+     * @param recordTypeCode the code of the record type stored in this series
+     */
+    RecordSeries(int recordTypeCode) {
+        this.recordTypeCode = recordTypeCode;
+        this.layout = new Layout(new Chunk[4], 0);
+    }
+
+    int getRecordTypeCode() {
+        return recordTypeCode;
+    }
+
+    RollupTier[] getRollupTiers() {
+        return rollupTiers;
+    }
+
+    /**
+     * Returns the number of retained readings.
+     *
+     * @return the number of readings between head and tail
+     */
+    long size() {
+        return tail - head;
+    }
+
+    /**
+     * Returns how many readings were evicted from this series since it was created.
+     *
+     * @return the cumulative number of evicted readings
+     */
+    long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Returns how much heap was released by dropping chunks of evicted readings since
+     * this series was created, at the compressed size of sealed chunks.
+     *
+     * @return the cumulative released memory in bytes
+     */
+    long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    /**
+     * Gets the number of compressed chunks.
+     *
+     * @return the number of sealed chunks, including evicted ones not yet dropped
+     */
+    int sealedChunkCount() {
+        return sealedCount;
+    }
+
+    /**
+     * Returns the heap used by this series: its chunks and its rollup tiers. Only the
+     * chunks can be evicted by the memory budget; see {@link #chunkBytes()}.
+     *
+     * @return the allocated memory in bytes
+     */
+    long allocatedBytes() {
+        return chunkBytes() + rollupBytes();
+    }
+
+    /**
+     * Returns the heap used by the chunks of this series: the compressed size of the
+     * sealed chunks plus the full size of the open ones.
+     *
+     * @return the allocated chunk memory in bytes
+     */
+    long chunkBytes() {
+        return Math.max(0, chunkCount - sealedCount) * BYTES_PER_CHUNK + sealedBytes;
+    }
+
+    /**
+     * Returns the heap used by the columns of the rollup tiers.
+     *
+     * @return the allocated rollup memory in bytes
+     */
+    long rollupBytes() {
+        long bytes = 0;
+        for (RollupTier tier : rollupTiers) {
+            bytes += tier.allocatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Bounds the rollup tiers to the buckets spanning a horizon. Must be called by the
+     * series' writer.
+     *
+     * @param rollupHorizon how far back rollups are kept in milliseconds, or
+     *                      Long.MAX_VALUE for the tiers' standard capacities
+     */
+    void setRollupHorizon(long rollupHorizon) {
+        for (RollupTier tier : rollupTiers) {
+            tier.setHorizon(rollupHorizon);
+        }
+    }
+
+    /**
+     * Bounds this series. Must be called by the series' writer.
+     *
+     * @param capacity the maximum number of retained readings, or Long.MAX_VALUE
+     * @param horizon  the maximum age of a reading relative to the newest one in
+     *                 milliseconds, or Long.MAX_VALUE
+     */
+    void setRetention(long capacity, long horizon) {
+        this.capacity = capacity;
+        this.horizon = horizon;
+        if (size() > capacity) {
+            evictTo(tail - capacity);
+        }
+        long count = tail;
+        if (horizon != Long.MAX_VALUE && count > head) {
+            evictOlderThan(writerView.pin(this).timestampAt(count - 1) - horizon);
+        }
+    }
+
+    /**
+     * Adds a reading, keeping the series ordered by timestamp. In-order readings are a
+     * plain append to the open chunk; a late reading is inserted after any readings
+     * with the same timestamp so that arrival order is preserved for ties, unsealing
+     * the chunks it shifts. If the series is full, the oldest reading is evicted first.
+     * The reading is also added to every rollup tier.
+     * Must only be called by the series' single writer.
+     *
+     * @param value     the measurement value
+     * @param timestamp the time of the measurement in milliseconds since epoch
+     */
+    void add(double value, long timestamp) {
+        add(value, timestamp, Long.MAX_VALUE);
+    }
+
+    /**
+     * Adds a reading like {@link #add(double, long)}, keeping full chunks open while
+     * they hold readings at or after a bound. Late readings no older than the bound
+     * then never touch a sealed chunk.
+     * Must only be called by the series' single writer.
+     *
+     * @param value      the measurement value
+     * @param timestamp  the time of the measurement in milliseconds since epoch
+     * @param sealBefore the oldest time that may still receive readings, or Long.MAX_VALUE
+     */
+    void add(double value, long timestamp, long sealBefore) {
+        this.sealBefore = sealBefore;
+        if (tail - head >= capacity) {
+            evictTo(tail - capacity + 1);
+        }
+        long position = tail;
+        Layout current = ensureWritable(position);
+        if (position == head || timestamp >= writerView.pin(this).timestampAt(position - 1)) {
+            openChunk(current, position).set(position, timestamp, value);
+            tail = position + 1;
+        } else {
+            version++;
+            long index = writerView.pin(this).upperBound(timestamp);
+            int firstSlot = current.slotOf(index);
+            int lastSlot = current.slotOf(position);
+            for (int slot = firstSlot; slot < lastSlot; slot++) {
+                unseal(current, slot);
+            }
+            for (long i = position; i > index; i--) {
+                OpenChunk from = (OpenChunk) current.chunks[current.slotOf(i - 1)];
+                openChunk(current, i).set(i, from.timestamps[(int) (i - 1) & CHUNK_MASK],
+                        from.values[(int) (i - 1) & CHUNK_MASK]);
+            }
+            openChunk(current, index).set(index, timestamp, value);
+            tail = position + 1;
+            sealedThrough = Math.min(sealedThrough, current.firstChunk + firstSlot);
+            sealBehind(current, lastSlot);
+            version++;
+        }
+        if (sealBefore != Long.MAX_VALUE) {
+            // The bound moves with time, not only when a chunk fills up
+            sealBehind(current, current.slotOf(tail - 1));
+        }
+        if (horizon != Long.MAX_VALUE) {
+            evictOlderThan(writerView.pin(this).timestampAt(tail - 1) - horizon);
+        }
+        if ((tail & CHUNK_MASK) == 0) {
+            sizeFinestTier();
+        }
+        for (RollupTier tier : rollupTiers) {
+            tier.add(timestamp, value);
+        }
+        newestTimestamp = Math.max(newestTimestamp, timestamp);
+    }
+
+    /**
+     * Keeps the finest rollup tier only while the newest chunk of readings averages at
+     * least {@link #MIN_READINGS_PER_BUCKET} per bucket of it; a 1 Hz signal would
+     * otherwise pay a whole bucket per reading. Queries then read the raw readings
+     * instead. Checked once per chunk, with at least a chunk of readings retained.
+     */
+    private void sizeFinestTier() {
+        if (tail - head < CHUNK_SIZE) {
+            return;
+        }
+        View view = writerView.pin(this);
+        long span = view.timestampAt(tail - 1) - view.timestampAt(tail - CHUNK_SIZE);
+        RollupTier finest = rollupTiers[0];
+        finest.setEnabled(span < finest.getWidth()
+                || CHUNK_SIZE >= span / finest.getWidth() * MIN_READINGS_PER_BUCKET);
+    }
+
+    /**
+     * Gets the newest timestamp ever added, including evicted readings. Must be called
+     * by the writer.
+     *
+     * @return the newest timestamp, or Long.MIN_VALUE if nothing was added
+     */
+    long newestTimestamp() {
+        return newestTimestamp;
+    }
+
+    /**
+     * Tells whether a retained reading has the given timestamp. Must be called by the
+     * writer.
+     *
+     * @param timestamp the timestamp to look for
+     * @return whether a reading with that timestamp is retained
+     */
+    boolean containsTimestamp(long timestamp) {
+        View view = writerView.pin(this);
+        long index = view.lowerBound(timestamp);
+        return index < view.tail() && view.timestampAt(index) == timestamp;
+    }
+
+    /**
+     * Evicts every reading older than the given time. Must be called by the writer.
+     *
+     * @param cutoff readings with a timestamp before this time are evicted
+     * @return the number of evicted readings
+     */
+    long evictOlderThan(long cutoff) {
+        return evictTo(writerView.pin(this).lowerBound(cutoff));
+    }
+
+    /**
+     * Evicts readings up to the end of the oldest chunk and releases that chunk.
+     * Must be called by the writer.
+     *
+     * @return the number of evicted readings
+     */
+    long evictOldestChunk() {
+        long first = head;
+        long evicted = evictTo(Math.min(tail, ((first >>> CHUNK_SHIFT) + 1) << CHUNK_SHIFT));
+        dropEvictedChunks();
+        return evicted;
+    }
+
+    /**
+     * Gets the timestamp of the oldest retained reading.
+     *
+     * @return the oldest timestamp, or Long.MAX_VALUE if the series is empty
+     */
+    long oldestTimestamp() {
+        View view = new View();
+        while (true) {
+            view.load(this);
+            long oldest = view.head() < view.tail() ? view.timestampAt(view.head()) : Long.MAX_VALUE;
+            if (view.isCurrent()) {
+                return oldest;
+            }
+        }
+    }
+
+    private long evictTo(long position) {
+        long evicted = position - head;
+        if (evicted > 0) {
+            head = position;
+            evictedCount += evicted;
+        }
+        return Math.max(evicted, 0);
+    }
+
+    private void dropEvictedChunks() {
+        Layout current = layout;
+        int dead = (int) ((head >>> CHUNK_SHIFT) - current.firstChunk);
+        if (dead <= 0) {
+            return;
+        }
+        long before = chunkBytes();
+        int remaining = chunkCount - dead;
+        Chunk[] chunks = new Chunk[Math.max(4, current.chunks.length)];
+        System.arraycopy(current.chunks, dead, chunks, 0, remaining);
+        for (int slot = 0; slot < dead; slot++) {
+            if (current.chunks[slot] instanceof SealedChunk) {
+                sealedCount--;
+                sealedBytes -= ((SealedChunk) current.chunks[slot]).sizeBytes();
+            }
+        }
+        layout = new Layout(chunks, current.firstChunk + dead);
+        chunkCount = remaining;
+        droppedBytes += before - chunkBytes();
+    }
+
+    /**
+     * Makes sure a chunk exists for a position, sealing the chunk before it when a new
+     * one is opened. Chunks that only hold evicted readings are dropped on the way.
+     */
+    private Layout ensureWritable(long position) {
+        Layout current = layout;
+        int slot = current.slotOf(position);
+        if (slot < chunkCount) {
+            return current;
+        }
+        sealBehind(current, slot);
+        OpenChunk chunk = spare;
+        spare = null;
+        if (chunk != null) {
+            // Readers that still see the arrays under their sealed chunk must retry
+            version++;
+        } else {
+            chunk = new OpenChunk();
+        }
+        int dead = (int) ((head >>> CHUNK_SHIFT) - current.firstChunk);
+        if (dead > 0) {
+            dropEvictedChunks();
+            current = layout;
+            slot -= dead;
+        }
+        if (slot < current.chunks.length) {
+            // Published to readers by the following write of tail
+            current.chunks[slot] = chunk;
+        } else {
+            Chunk[] chunks = Arrays.copyOf(current.chunks, current.chunks.length * 2);
+            chunks[slot] = chunk;
+            current = new Layout(chunks, current.firstChunk);
+            layout = current;
+        }
+        chunkCount = slot + 1;
+        if ((version & 1) != 0) {
+            version++;
+        }
+        return current;
+    }
+
+    private static OpenChunk openChunk(Layout layout, long position) {
+        return (OpenChunk) layout.chunks[layout.slotOf(position)];
+    }
+
+    /**
+     * Seals the full chunks before a slot, oldest first, up to the first one that
+     * still holds a reading at or after the seal bound.
+     */
+    private void sealBehind(Layout layout, int endSlot) {
+        int slot = (int) Math.max(0, sealedThrough - layout.firstChunk);
+        for (; slot < endSlot; slot++) {
+            Chunk chunk = layout.chunks[slot];
+            if (chunk instanceof OpenChunk && ((OpenChunk) chunk).timestamps[CHUNK_MASK] >= sealBefore) {
+                break;
+            }
+            seal(layout, slot);
+        }
+        sealedThrough = Math.max(sealedThrough, layout.firstChunk + slot);
+    }
+
+    private void seal(Layout layout, int slot) {
+        Chunk chunk = layout.chunks[slot];
+        if (chunk instanceof OpenChunk) {
+            OpenChunk open = (OpenChunk) chunk;
+            SealedChunk sealed = new SealedChunk(GorillaCodec.encode(open.timestamps, open.values, CHUNK_SIZE));
+            layout.chunks[slot] = sealed;
+            sealedCount++;
+            sealedBytes += sealed.sizeBytes();
+            spare = open;
+        }
+    }
+
+    /**
+     * Replaces a sealed chunk with an open copy. Called with the version odd.
+     */
+    private void unseal(Layout layout, int slot) {
+        Chunk chunk = layout.chunks[slot];
+        if (chunk instanceof SealedChunk) {
+            SealedChunk sealed = (SealedChunk) chunk;
+            OpenChunk open = new OpenChunk();
+            GorillaCodec.decode(sealed.words, CHUNK_SIZE, open.timestamps, open.values);
+            layout.chunks[slot] = open;
+            sealedCount--;
+            sealedBytes -= sealed.sizeBytes();
+        }
+    }
+
+    /**
+     * The chunks of a series and the absolute chunk number of the first one. A layout
+     * is only changed once published by filling in new chunk slots and by swapping a
+     * chunk for an equivalent one in another representation, so a reader that pinned
+     * one can keep using it.
+     */
+    private static final class Layout {
+        final Chunk[] chunks;
+        final long firstChunk;
+
+        Layout(Chunk[] chunks, long firstChunk) {
+            this.chunks = chunks;
+            this.firstChunk = firstChunk;
+        }
+
+        int slotOf(long position) {
+            return (int) ((position >>> CHUNK_SHIFT) - firstChunk);
+        }
+    }
+
+    private abstract static class Chunk {
+        abstract long firstTimestamp();
+    }
+
+    /**
+     * A chunk that readings are appended to, with one array per column.
+     */
+    private static final class OpenChunk extends Chunk {
+        final long[] timestamps = new long[CHUNK_SIZE];
+        final double[] values = new double[CHUNK_SIZE];
+
+        void set(long position, long timestamp, double value) {
+            timestamps[(int) position & CHUNK_MASK] = timestamp;
+            values[(int) position & CHUNK_MASK] = value;
+        }
+
+        @Override
+        long firstTimestamp() {
+            return timestamps[0];
+        }
+    }
+
+    /**
+     * A full chunk, compressed. Never changed once created.
+     */
+    private static final class SealedChunk extends Chunk {
+        final long[] words;
+
+        SealedChunk(long[] words) {
+            this.words = words;
+        }
+
+        long sizeBytes() {
+            return 32 + (long) words.length * Long.BYTES; // Object and array headers included
+        }
+
+        @Override
+        long firstTimestamp() {
+            return GorillaCodec.firstTimestamp(words);
+        }
+    }
+
+    /**
+     * A lock-free, reusable read view of a series. {@link #load(RecordSeries)} pins the
+     * current layout and the range of readings; after reading, {@link #isCurrent()}
+     * reports whether a concurrent write may have changed what was read. A view
+     * decompresses one sealed chunk at a time into its own buffers and keeps it, so a
+     * scan in position order decodes every chunk once.
+     */
+    static final class View {
+        private RecordSeries series;
+        private Layout layout;
+        private long head;
+        private long tail;
+        private int version;
+        private final long[] decodedTimestamps = new long[CHUNK_SIZE];
+        private final double[] decodedValues = new double[CHUNK_SIZE];
+        private SealedChunk decoded;
+
+        /**
+         * Pins the current state of a series, waiting out any write in progress.
+         *
+         * @param series the series to read
+         * @return this view
+         */
+        View load(RecordSeries series) {
+            int current = series.version;
+            while ((current & 1) != 0) {
+                Thread.onSpinWait();
+                current = series.version;
+            }
+            this.version = current;
+            return pin(series);
+        }
+
+        /**
+         * Pins the current state of a series without waiting; for the series' writer.
+         */
+        private View pin(RecordSeries series) {
+            this.series = series;
+            // Read order matters: the layout read after tail covers it, and the head
+            // read after the layout is never below the layout's first chunk
+            this.tail = series.tail;
+            this.layout = series.layout;
+            this.head = series.head;
+            return this;
+        }
+
+        boolean isCurrent() {
+            return series.version == version;
+        }
+
+        RecordSeries series() {
+            return series;
+        }
+
+        long head() {
+            return head;
+        }
+
+        long tail() {
+            return tail;
+        }
+
+        long timestampAt(long position) {
+            Chunk chunk = layout.chunks[layout.slotOf(position)];
+            if (chunk instanceof OpenChunk) {
+                return ((OpenChunk) chunk).timestamps[(int) position & CHUNK_MASK];
+            }
+            return decode((SealedChunk) chunk).decodedTimestamps[(int) position & CHUNK_MASK];
+        }
+
+        double valueAt(long position) {
+            Chunk chunk = layout.chunks[layout.slotOf(position)];
+            if (chunk instanceof OpenChunk) {
+                return ((OpenChunk) chunk).values[(int) position & CHUNK_MASK];
+            }
+            return decode((SealedChunk) chunk).decodedValues[(int) position & CHUNK_MASK];
+        }
+
+        /**
+         * Returns the position of the first reading at or after the given time.
+         *
+         * @param timestamp the time to search for
+         * @return a position between head and tail inclusive
+         */
+        long lowerBound(long timestamp) {
+            return search(timestamp, false);
+        }
+
+        /**
+         * Returns the position of the first reading strictly after the given time.
+         *
+         * @param timestamp the time to search for
+         * @return a position between head and tail inclusive
+         */
+        long upperBound(long timestamp) {
+            return search(timestamp, true);
+        }
+
+        private View decode(SealedChunk chunk) {
+            if (decoded != chunk) {
+                GorillaCodec.decode(chunk.words, CHUNK_SIZE, decodedTimestamps, decodedValues);
+                decoded = chunk;
+            }
+            return this;
+        }
+
+        /**
+         * Finds the first position in [head, tail) whose timestamp is at or after (or
+         * strictly after) the given time: a binary search over the first timestamps of
+         * the chunks narrows it to one chunk, which is then searched on its own.
+         */
+        private long search(long timestamp, boolean strictlyAfter) {
+            long low = head;
+            long high = tail;
+            if (low >= high) {
+                return low;
+            }
+            // Last chunk whose first reading does not end the search
+            long firstChunk = low >>> CHUNK_SHIFT;
+            long lastChunk = (high - 1) >>> CHUNK_SHIFT;
+            while (firstChunk < lastChunk) {
+                long middle = (firstChunk + lastChunk + 1) >>> 1;
+                long first = layout.chunks[layout.slotOf(middle << CHUNK_SHIFT)].firstTimestamp();
+                if (strictlyAfter ? first <= timestamp : first < timestamp) {
+                    firstChunk = middle;
+                } else {
+                    lastChunk = middle - 1;
+                }
+            }
+            low = Math.max(low, firstChunk << CHUNK_SHIFT);
+            high = Math.min(high, (firstChunk + 1) << CHUNK_SHIFT);
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                long current = timestampAt(middle);
+                if (strictlyAfter ? current <= timestamp : current < timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.data_management;
+
+import java.util.Arrays;
+
+/**
+ * One consumer's position in a patient's readings of some record types. Each
+ * {@link #poll(DataStorage)} returns the readings the consumer has not seen yet.
+ *
+ * <p>In arrival order, that is exactly {@link DataStorage#getRecordsSince}. In event-time
+ * order, new readings first go into a small reorder buffer, and a poll only releases
+ * those at or behind the patient's watermark ({@link Patient#getWatermark()}), sorted
+ * by timestamp, with ties kept in arrival order. A reading that arrives after the
+ * watermark has passed it is late (see {@link EventTimePolicy}) and is released by the
+ * next poll, after the readings already released. A consumer in event-time order
+ * therefore evaluates a consistent prefix of the patient's data instead of whatever
+ * arrived before the wall clock reached it, and never has to re-sort.
+ *
+ * <p>{@link #poll(DataStorage, RecordCursor)} fills a reusable {@link RecordCursor}
+ * instead, and the reorder buffer keeps readings in primitive arrays, so a consumer
+ * polling in a steady state allocates nothing per reading.
+ *
+ * <p>A stream is not thread-safe; each consumer keeps its own per patient.
+ */
+public class RecordStream {
+    private final int patientId;
+    private final int[] recordTypeCodes;
+    private final boolean eventTime;
+    // Ahead of the watermark, in time order
+    private long[] pendingTimestamps = new long[0];
+    private double[] pendingValues = new double[0];
+    private int[] pendingCodes = new int[0];
+    private int pendingCount;
+    private long cursor;
+    private long watermark = Long.MIN_VALUE; // Released up to here by the last poll
+
+    private RecordStream(int patientId, boolean eventTime, int... recordTypeCodes) {
+        this.patientId = patientId;
+        this.eventTime = eventTime;
+        this.recordTypeCodes = recordTypeCodes.clone();
+    }
+
+    /**
+     * Creates a stream that returns new readings in the order they arrived.
+     *
+     * @param patientId       the patient to follow
+     * @param recordTypeCodes the record types to return; all types if none are given
+     * @return a stream positioned before the patient's first reading
+     */
+    public static RecordStream inArrivalOrder(int patientId, int... recordTypeCodes) {
+        return new RecordStream(patientId, false, recordTypeCodes);
+    }
+
+    /**
+     * Creates a stream that returns new readings in timestamp order, up to the
+     * patient's watermark.
+     *
+     * @param patientId       the patient to follow
+     * @param recordTypeCodes the record types to return; all types if none are given
+     * @return a stream positioned before the patient's first reading
+     */
+    public static RecordStream inEventTimeOrder(int patientId, int... recordTypeCodes) {
+        return new RecordStream(patientId, true, recordTypeCodes);
+    }
+
+    public boolean isEventTimeOrder() {
+        return eventTime;
+    }
+
+    /**
+     * Returns the readings that became available since the previous poll. A resync
+     * (see {@link RecordDelta#isResync()}) discards the reorder buffer, as the delta
+     * then restarts from the patient's full retained history.
+     *
+     * @param dataStorage the storage holding the patient
+     * @return the new readings; its cursor is the storage cursor this stream has read up to
+     */
+    public RecordDelta poll(DataStorage dataStorage) {
+        RecordCursor records = poll(dataStorage, new RecordCursor());
+        return new RecordDelta(records.toRecords(), cursor, records.isResync());
+    }
+
+    /**
+     * Fills a cursor with the readings that became available since the previous poll,
+     * in the same order as {@link #poll(DataStorage)}, without creating records.
+     *
+     * @param dataStorage the storage holding the patient
+     * @param into        the cursor to fill, usually the same one every time
+     * @return the cursor, positioned before the first new reading
+     */
+    public RecordCursor poll(DataStorage dataStorage, RecordCursor into) {
+        // Read first, so every reading behind it that arrived in time is in the delta
+        long current = dataStorage.getWatermark(patientId);
+        cursor = dataStorage.readRecordsSince(patientId, cursor, into, recordTypeCodes);
+        if (!eventTime) {
+            return into;
+        }
+        if (into.isResync()) {
+            pendingCount = 0;
+        }
+        while (into.next()) {
+            insert(into.timestamp(), into.value(), into.type());
+        }
+        watermark = current;
+        int ready = upperBound(watermark);
+        into.reset(patientId, into.isResync());
+        into.ensureCapacity(ready);
+        for (int i = 0; i < ready; i++) {
+            into.add(pendingCodes[i], pendingTimestamps[i], pendingValues[i]);
+        }
+        pendingCount -= ready;
+        System.arraycopy(pendingTimestamps, ready, pendingTimestamps, 0, pendingCount);
+        System.arraycopy(pendingValues, ready, pendingValues, 0, pendingCount);
+        System.arraycopy(pendingCodes, ready, pendingCodes, 0, pendingCount);
+        return into;
+    }
+
+    /**
+     * Gets the watermark used by the last poll in event-time order. Every reading
+     * released so far has a timestamp at or before it, and later polls only release
+     * readings after it, except late ones.
+     *
+     * @return the watermark, or Long.MIN_VALUE before the first poll
+     */
+    public long getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * Gets the number of readings held back because they are ahead of the watermark.
+     *
+     * @return the size of the reorder buffer
+     */
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    private void insert(long timestamp, double value, int recordTypeCode) {
+        if (pendingCount == pendingTimestamps.length) {
+            int capacity = Math.max(16, pendingCount * 2);
+            pendingTimestamps = Arrays.copyOf(pendingTimestamps, capacity);
+            pendingValues = Arrays.copyOf(pendingValues, capacity);
+            pendingCodes = Arrays.copyOf(pendingCodes, capacity);
+        }
+        int at = upperBound(timestamp); // After equal timestamps, keeping arrival order
+        int moved = pendingCount - at;
+        System.arraycopy(pendingTimestamps, at, pendingTimestamps, at + 1, moved);
+        System.arraycopy(pendingValues, at, pendingValues, at + 1, moved);
+        System.arraycopy(pendingCodes, at, pendingCodes, at + 1, moved);
+        pendingTimestamps[at] = timestamp;
+        pendingValues[at] = value;
+        pendingCodes[at] = recordTypeCode;
+        pendingCount++;
+    }
+
+    private int upperBound(long timestamp) {
+        int low = 0;
+        int high = pendingCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (pendingTimestamps[mid] <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
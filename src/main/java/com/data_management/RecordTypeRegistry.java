@@ -0,0 +1,96 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps record type names such as "ECG" or "HeartRate" to small integer codes.
+ * Readings are stored and compared by code, so the type name is only looked up once
+ * when a reading is ingested and again if a caller asks for it by name.
+ * Codes are assigned in registration order starting at 0 and never change for the
+ * lifetime of the process.
+ */
+public final class RecordTypeRegistry {
+    private static final RecordTypeRegistry instance = new RecordTypeRegistry(); // Singleton instance
+
+    private final ConcurrentHashMap<String, Integer> codes;
+    private volatile String[] names;
+
+    private RecordTypeRegistry() {
+        this.codes = new ConcurrentHashMap<>();
+        this.names = new String[0];
+    }
+
+    /**
+     * Gets the process-wide registry.
+     *
+     * @return the registry instance
+     */
+    public static RecordTypeRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Gets the code for a record type, registering the type if it is new.
+     *
+     * @param recordType the record type name; cannot be null
+     * @return the code of the record type
+     * @throws IllegalArgumentException if recordType is null
+     */
+    public int codeOf(String recordType) {
+        if (recordType == null) {
+            throw new IllegalArgumentException("Record type cannot be null");
+        }
+        Integer code = codes.get(recordType);
+        return code != null ? code : register(recordType);
+    }
+
+    /**
+     * Gets the code for a record type without registering it.
+     *
+     * @param recordType the record type name
+     * @return the code of the record type, or -1 if it has never been registered
+     */
+    public int find(String recordType) {
+        Integer code = recordType == null ? null : codes.get(recordType);
+        return code != null ? code : -1;
+    }
+
+    /**
+     * Gets the name of a record type code.
+     *
+     * @param code a code returned by {@link #codeOf(String)}
+     * @return the record type name
+     * @throws IllegalArgumentException if the code was never assigned
+     */
+    public String nameOf(int code) {
+        String[] current = names;
+        if (code < 0 || code >= current.length) {
+            throw new IllegalArgumentException("Unknown record type code: " + code);
+        }
+        return current[code];
+    }
+
+    /**
+     * Gets the number of registered record types; valid codes are below this value.
+     *
+     * @return the number of registered record types
+     */
+    public int size() {
+        return names.length;
+    }
+
+    private synchronized int register(String recordType) {
+        Integer existing = codes.get(recordType);
+        if (existing != null) {
+            return existing;
+        }
+        String[] current = names;
+        int code = current.length;
+        String[] grown = Arrays.copyOf(current, code + 1);
+        grown[code] = recordType;
+        names = grown; // Publish the name before the code can be handed out
+        codes.put(recordType, code);
+        return code;
+    }
+}
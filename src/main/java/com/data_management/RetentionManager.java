@@ -0,0 +1,165 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces the memory budget of a {@link RetentionPolicy} on a {@link DataStorage}
+ * and reports what retention dropped. Horizons and capacities are applied by each
+ * series as readings arrive; this class handles the global budget, which needs a
+ * view of all patients: while the stored readings use more than the budget, it
+ * evicts the oldest chunk of whichever series holds the oldest data. Rollup tiers are
+ * not counted, since evicting readings cannot shrink them; rollup horizons bound them.
+ */
+public class RetentionManager {
+    private final DataStorage dataStorage;
+    private final RetentionPolicy policy;
+    private long[] lastEvictedByType = new long[0];
+    private long[] lastDroppedBytesByType = new long[0];
+    private long totalDroppedReadings;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a manager for the given storage and policy.
+     *
+     * @param dataStorage the storage to keep within budget
+     * @param policy      the policy that holds the memory budget
+     */
+    public RetentionManager(DataStorage dataStorage, RetentionPolicy policy) {
+        this.dataStorage = dataStorage;
+        this.policy = policy;
+    }
+
+    /**
+     * Runs one retention pass: evicts the oldest data until the stored readings fit in
+     * the memory budget, then reports everything evicted since the previous pass.
+     *
+     * @return the report for this pass
+     */
+    public synchronized RetentionReport enforce() {
+        long retainedBytes = 0;
+        PriorityQueue<Candidate> oldestFirst = new PriorityQueue<>();
+        for (Patient patient : dataStorage.getAllPatients()) {
+            for (RecordSeries series : patient.getSeries()) {
+                retainedBytes += series.chunkBytes();
+                long oldest = series.oldestTimestamp();
+                if (oldest != Long.MAX_VALUE) {
+                    oldestFirst.add(new Candidate(patient, series, oldest));
+                }
+            }
+        }
+
+        long budget = policy.getMemoryBudget();
+        while (retainedBytes > budget && !oldestFirst.isEmpty()) {
+            Candidate candidate = oldestFirst.poll();
+            long before = candidate.series.chunkBytes();
+            candidate.patient.evictOldestChunk(candidate.series);
+            retainedBytes -= before - candidate.series.chunkBytes();
+            long oldest = candidate.series.oldestTimestamp();
+            if (oldest != Long.MAX_VALUE) {
+                oldestFirst.add(new Candidate(candidate.patient, candidate.series, oldest));
+            }
+        }
+        return collectReport(retainedBytes);
+    }
+
+    /**
+     * Runs {@link #enforce()} periodically on a background thread and prints each
+     * report that dropped data.
+     *
+     * @param period how often to run
+     * @param unit   the unit of period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "retention-manager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                RetentionReport report = enforce();
+                if (report.getDroppedReadings() > 0) {
+                    System.out.println(report);
+                }
+            } catch (Exception e) {
+                System.err.println("Error enforcing retention: " + e.getMessage());
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops the background thread started by {@link #start(long, TimeUnit)}.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Gets the total number of readings evicted over all reported passes.
+     *
+     * @return the cumulative number of dropped readings
+     */
+    public synchronized long getTotalDroppedReadings() {
+        return totalDroppedReadings;
+    }
+
+    private RetentionReport collectReport(long retainedBytes) {
+        RecordTypeRegistry recordTypes = RecordTypeRegistry.getInstance();
+        long[] evictedByType = new long[recordTypes.size()];
+        long[] droppedBytesByType = new long[evictedByType.length];
+        for (Patient patient : dataStorage.getAllPatients()) {
+            for (RecordSeries series : patient.getSeries()) {
+                evictedByType[series.getRecordTypeCode()] += series.getEvictedCount();
+                droppedBytesByType[series.getRecordTypeCode()] += series.getDroppedBytes();
+            }
+        }
+
+        long[] previous = Arrays.copyOf(lastEvictedByType, evictedByType.length);
+        long[] previousBytes = Arrays.copyOf(lastDroppedBytesByType, droppedBytesByType.length);
+        Map<String, Long> droppedByType = new LinkedHashMap<>();
+        long dropped = 0;
+        long droppedBytes = 0;
+        for (int code = 0; code < evictedByType.length; code++) {
+            // Counts go down when patients are cleared; nothing was evicted then
+            long delta = Math.max(0, evictedByType[code] - previous[code]);
+            if (delta > 0) {
+                droppedByType.put(recordTypes.nameOf(code), delta);
+                dropped += delta;
+            }
+            droppedBytes += Math.max(0, droppedBytesByType[code] - previousBytes[code]);
+        }
+        lastEvictedByType = evictedByType;
+        lastDroppedBytesByType = droppedBytesByType;
+        totalDroppedReadings += dropped;
+        return new RetentionReport(dropped, droppedBytes, retainedBytes, droppedByType);
+    }
+
+    private static final class Candidate implements Comparable<Candidate> {
+        final Patient patient;
+        final RecordSeries series;
+        final long oldestTimestamp;
+
+        Candidate(Patient patient, RecordSeries series, long oldestTimestamp) {
+            this.patient = patient;
+            this.series = series;
+            this.oldestTimestamp = oldestTimestamp;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Long.compare(oldestTimestamp, other.oldestTimestamp);
+        }
+    }
+}
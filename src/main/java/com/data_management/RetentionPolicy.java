@@ -0,0 +1,145 @@
+package com.data_management;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes how much patient data {@link DataStorage} keeps.
+ * Each record type can have a time horizon and a fixed capacity: readings older than
+ * the horizon (measured from the newest reading of the same patient and type) are
+ * evicted, and once a series holds {@code capacity} readings every new reading
+ * evicts the oldest one, like a ring buffer. On top of that, a global memory budget
+ * caps the heap used by all series together; it is enforced by a
+ * {@link RetentionManager}, which evicts the oldest data first.
+ * Record types without a rule are kept without limit, subject only to the budget.
+ *
+ * <p>The rollups of a series outlive its readings. A rollup horizon bounds how far back
+ * they reach; without one each series keeps an hour of seconds, a week of minutes and
+ * a year of hours. Rollups do not count against the memory budget, which only evicts
+ * readings, so long-running monitors should set rollup horizons.
+ */
+public class RetentionPolicy {
+    private final ConcurrentHashMap<Integer, Rule> rules = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Long> rollupHorizons = new ConcurrentHashMap<>();
+    private volatile long memoryBudgetBytes = Long.MAX_VALUE;
+
+    /**
+     * Creates a policy for a long-running bedside monitor: an hour of ECG, a day of
+     * saturation and blood pressure and a week of blood levels, within 512 MB.
+     * Capacities leave headroom over the simulator's rates for each record type.
+     * Rollups reach back a day, and a month for blood levels.
+     *
+     * @return a new policy with the monitoring defaults
+     */
+    public static RetentionPolicy monitoringDefaults() {
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.setRetention("ECG", TimeUnit.HOURS.toMillis(1), 8_192);
+        policy.setRetention("Saturation", TimeUnit.DAYS.toMillis(1), 131_072);
+        policy.setRetention("SystolicPressure", TimeUnit.DAYS.toMillis(1), 2_048);
+        policy.setRetention("DiastolicPressure", TimeUnit.DAYS.toMillis(1), 2_048);
+        policy.setRetention("Cholesterol", TimeUnit.DAYS.toMillis(7), 8_192);
+        policy.setRetention("WhiteBloodCells", TimeUnit.DAYS.toMillis(7), 8_192);
+        policy.setRetention("RedBloodCells", TimeUnit.DAYS.toMillis(7), 8_192);
+        for (String recordType : new String[]{"ECG", "Saturation", "SystolicPressure", "DiastolicPressure"}) {
+            policy.setRollupRetention(recordType, TimeUnit.DAYS.toMillis(1));
+        }
+        for (String recordType : new String[]{"Cholesterol", "WhiteBloodCells", "RedBloodCells"}) {
+            policy.setRollupRetention(recordType, TimeUnit.DAYS.toMillis(30));
+        }
+        policy.setMemoryBudget(512L * 1024 * 1024);
+        return policy;
+    }
+
+    /**
+     * Sets the horizon and ring buffer capacity for a record type.
+     *
+     * @param recordType    the record type, e.g. "ECG"; cannot be null
+     * @param horizonMillis how long readings are kept, in milliseconds; must be positive
+     * @param capacity      the maximum number of readings kept per patient; must be positive
+     * @throws IllegalArgumentException if any argument is not valid
+     */
+    public void setRetention(String recordType, long horizonMillis, int capacity) {
+        if (horizonMillis <= 0) {
+            throw new IllegalArgumentException("Horizon must be positive");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        rules.put(RecordTypeRegistry.getInstance().codeOf(recordType), new Rule(horizonMillis, capacity));
+    }
+
+    /**
+     * Sets how far back the rollups of a record type reach. Each rollup tier then keeps
+     * only the buckets that span the horizon.
+     *
+     * @param recordType    the record type, e.g. "ECG"; cannot be null
+     * @param horizonMillis how long rollups are kept, in milliseconds; must be positive
+     * @throws IllegalArgumentException if horizonMillis is not positive
+     */
+    public void setRollupRetention(String recordType, long horizonMillis) {
+        if (horizonMillis <= 0) {
+            throw new IllegalArgumentException("Rollup horizon must be positive");
+        }
+        rollupHorizons.put(RecordTypeRegistry.getInstance().codeOf(recordType), horizonMillis);
+    }
+
+    /**
+     * Sets the total heap that stored readings may use.
+     *
+     * @param bytes the budget in bytes; must be positive
+     * @throws IllegalArgumentException if bytes is not positive
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive");
+        }
+        this.memoryBudgetBytes = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudgetBytes;
+    }
+
+    /**
+     * Gets the horizon for a record type.
+     *
+     * @param recordTypeCode the record type code
+     * @return the horizon in milliseconds, or Long.MAX_VALUE if unlimited
+     */
+    public long getHorizon(int recordTypeCode) {
+        Rule rule = rules.get(recordTypeCode);
+        return rule != null ? rule.horizonMillis : Long.MAX_VALUE;
+    }
+
+    /**
+     * Gets the rollup horizon for a record type.
+     *
+     * @param recordTypeCode the record type code
+     * @return the horizon in milliseconds, or Long.MAX_VALUE for the standard tiers
+     */
+    public long getRollupHorizon(int recordTypeCode) {
+        Long horizon = rollupHorizons.get(recordTypeCode);
+        return horizon != null ? horizon : Long.MAX_VALUE;
+    }
+
+    /**
+     * Gets the per-patient capacity for a record type.
+     *
+     * @param recordTypeCode the record type code
+     * @return the maximum number of readings kept, or Long.MAX_VALUE if unlimited
+     */
+    public long getCapacity(int recordTypeCode) {
+        Rule rule = rules.get(recordTypeCode);
+        return rule != null ? rule.capacity : Long.MAX_VALUE;
+    }
+
+    private static final class Rule {
+        final long horizonMillis;
+        final long capacity;
+
+        Rule(long horizonMillis, long capacity) {
+            this.horizonMillis = horizonMillis;
+            this.capacity = capacity;
+        }
+    }
+}
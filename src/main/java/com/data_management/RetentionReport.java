@@ -0,0 +1,54 @@
+package com.data_management;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Summary of one retention pass: how many readings were evicted since the previous
+ * pass, broken down by record type, and how much memory the stored readings use now.
+ */
+public class RetentionReport {
+    private final long droppedReadings;
+    private final long droppedBytes;
+    private final long retainedBytes;
+    private final Map<String, Long> droppedByType;
+
+    /**
+     * Constructs a report.
+     *
+     * @param droppedReadings the number of readings evicted since the previous pass
+     * @param droppedBytes    the heap released by dropping their chunks, measured like
+     *                        retainedBytes
+     * @param retainedBytes   the heap used by stored readings after the pass
+     * @param droppedByType   evicted readings per record type name
+     */
+    public RetentionReport(long droppedReadings, long droppedBytes, long retainedBytes,
+            Map<String, Long> droppedByType) {
+        this.droppedReadings = droppedReadings;
+        this.droppedBytes = droppedBytes;
+        this.retainedBytes = retainedBytes;
+        this.droppedByType = Collections.unmodifiableMap(droppedByType);
+    }
+
+    public long getDroppedReadings() {
+        return droppedReadings;
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    public Map<String, Long> getDroppedByType() {
+        return droppedByType;
+    }
+
+    @Override
+    public String toString() {
+        return "Retention: dropped " + droppedReadings + " readings (" + droppedBytes / 1024 + " KB) "
+                + droppedByType + ", retained " + retainedBytes / 1024 + " KB";
+    }
+}
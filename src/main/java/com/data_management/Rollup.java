@@ -0,0 +1,143 @@
+package com.data_management;
+
+/**
+ * Aggregate of the readings of one record type over a time range: count, minimum,
+ * maximum, sum, sum of squares and the first and last reading. Returned by the rollup
+ * queries of {@link DataStorage}; either one precomputed bucket or the combination of
+ * several.
+ */
+public class Rollup {
+    private final long startTime;
+    private final long endTime;
+    private final long count;
+    private final double min;
+    private final double max;
+    private final double sum;
+    private final double sumOfSquares;
+    private final long firstTimestamp;
+    private final double first;
+    private final long lastTimestamp;
+    private final double last;
+
+    Rollup(long startTime, long endTime, long count, double min, double max, double sum, double sumOfSquares,
+            long firstTimestamp, double first, long lastTimestamp, double last) {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.sumOfSquares = sumOfSquares;
+        this.firstTimestamp = firstTimestamp;
+        this.first = first;
+        this.lastTimestamp = lastTimestamp;
+        this.last = last;
+    }
+
+    /**
+     * Creates an empty aggregate of a time range.
+     *
+     * @param startTime the start of the range, inclusive
+     * @param endTime   the end of the range, inclusive
+     * @return an aggregate with a count of zero
+     */
+    static Rollup empty(long startTime, long endTime) {
+        return new Rollup(startTime, endTime, 0, Double.NaN, Double.NaN, 0, 0,
+                Long.MAX_VALUE, Double.NaN, Long.MIN_VALUE, Double.NaN);
+    }
+
+    /**
+     * Combines this aggregate with one of an adjacent or overlapping range.
+     *
+     * @param other the aggregate to add
+     * @return an aggregate covering both ranges
+     */
+    Rollup merge(Rollup other) {
+        if (other.count == 0) {
+            return new Rollup(Math.min(startTime, other.startTime), Math.max(endTime, other.endTime), count, min, max,
+                    sum, sumOfSquares, firstTimestamp, first, lastTimestamp, last);
+        }
+        if (count == 0) {
+            return other.merge(this);
+        }
+        boolean otherFirst = other.firstTimestamp < firstTimestamp;
+        boolean otherLast = other.lastTimestamp >= lastTimestamp;
+        return new Rollup(Math.min(startTime, other.startTime), Math.max(endTime, other.endTime),
+                count + other.count, Math.min(min, other.min), Math.max(max, other.max),
+                sum + other.sum, sumOfSquares + other.sumOfSquares,
+                otherFirst ? other.firstTimestamp : firstTimestamp, otherFirst ? other.first : first,
+                otherLast ? other.lastTimestamp : lastTimestamp, otherLast ? other.last : last);
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getSumOfSquares() {
+        return sumOfSquares;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public double getFirst() {
+        return first;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public double getLast() {
+        return last;
+    }
+
+    /**
+     * Gets the mean of the aggregated readings.
+     *
+     * @return the mean, or NaN if there are no readings
+     */
+    public double getMean() {
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    /**
+     * Gets the population standard deviation of the aggregated readings.
+     *
+     * @return the standard deviation, or NaN if there are no readings
+     */
+    public double getStandardDeviation() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        double mean = sum / count;
+        return Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean));
+    }
+
+    @Override
+    public String toString() {
+        return "Rollup[" + startTime + ".." + endTime + ", count=" + count + ", min=" + min + ", max=" + max
+                + ", mean=" + getMean() + "]";
+    }
+}
@@ -0,0 +1,359 @@
+package com.data_management;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-width time buckets aggregating the readings of one {@link RecordSeries}, kept
+ * up to date as readings are added. Each bucket holds count, minimum, maximum, sum,
+ * sum of squares and the first and last reading, in parallel primitive columns
+ * ordered by bucket start. Only the newest {@code capacity} buckets are kept; a
+ * {@link RetentionPolicy} rollup horizon lowers the capacity to the buckets it spans.
+ * The columns grow by doubling as buckets are opened, up to the capacity. A tier can
+ * be disabled while the signal is too sparse to fill its buckets; it then drops its
+ * buckets and ignores readings, and once enabled again only aggregates the buckets
+ * after the one it was enabled in, which it is sure to hold every reading of.
+ *
+ * <p>Like {@link RecordSeries}, a tier has a single writer and lock-free readers. Every
+ * write moves {@code version} through an odd value and readers retry when it changed.
+ */
+final class RollupTier {
+    static final long[] STANDARD_WIDTHS = {1_000L, 60_000L, 3_600_000L};
+    // An hour of seconds, a week of minutes, a year of hours
+    private static final int[] STANDARD_CAPACITIES = {3_600, 10_080, 8_760};
+    static final long BYTES_PER_BUCKET = 10 * 8; // Ten 8-byte columns
+
+    private final long width;
+    private final int maxCapacity;
+    private int capacity; // Changed by the writer only
+    private long firstStart = Long.MIN_VALUE; // Older buckets are dropped; Long.MAX_VALUE until the first add
+    private volatile boolean enabled = true;
+    private volatile Columns columns = new Columns(16);
+    private volatile int head;
+    private volatile int tail;
+    private volatile int version;
+
+    RollupTier(long width, int capacity) {
+        this.width = width;
+        this.maxCapacity = capacity;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates the 1 s, 1 min and 1 h tiers, finest first.
+     *
+     * @return new, empty tiers
+     */
+    static RollupTier[] standardTiers() {
+        RollupTier[] tiers = new RollupTier[STANDARD_WIDTHS.length];
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i] = new RollupTier(STANDARD_WIDTHS[i], STANDARD_CAPACITIES[i]);
+        }
+        return tiers;
+    }
+
+    long getWidth() {
+        return width;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables the tier. Disabling drops every bucket. Must only be called
+     * by the tier's writer.
+     *
+     * @param enabled whether the tier aggregates readings
+     */
+    void setEnabled(boolean enabled) {
+        if (enabled == this.enabled) {
+            return;
+        }
+        version++;
+        this.enabled = enabled;
+        firstStart = Long.MAX_VALUE;
+        columns = new Columns(1);
+        head = 0;
+        tail = 0;
+        version++;
+    }
+
+    /**
+     * Keeps only the buckets that span a horizon, dropping older ones and shrinking the
+     * columns if they are much larger than needed. Must only be called by the tier's writer.
+     *
+     * @param horizon how far back buckets are kept in milliseconds, or Long.MAX_VALUE
+     *                for the tier's full capacity
+     */
+    void setHorizon(long horizon) {
+        // A bucket at either end of the horizon is only partly inside it
+        int bounded = (int) Math.min(maxCapacity, horizon / width + 2);
+        version++;
+        capacity = bounded;
+        if (tail - head > capacity) {
+            head = tail - capacity;
+        }
+        Columns current = columns;
+        if (current.starts.length > 2 * (capacity + 1) && current.starts.length > 16) {
+            int size = tail - head;
+            Columns target = new Columns(Math.max(16, capacity + 1));
+            target.copyFrom(current, head, 0, size);
+            columns = target;
+            head = 0;
+            tail = size;
+        }
+        version++;
+    }
+
+    /**
+     * Gets the heap used by the tier's columns.
+     *
+     * @return the allocated bytes
+     */
+    long allocatedBytes() {
+        return columns.starts.length * BYTES_PER_BUCKET;
+    }
+
+    /**
+     * Gets the start of the bucket that contains a time.
+     *
+     * @param timestamp the time
+     * @return the bucket start
+     */
+    long bucketStart(long timestamp) {
+        return Math.floorDiv(timestamp, width) * width;
+    }
+
+    /**
+     * Adds a reading to its bucket. Must only be called by the tier's writer.
+     *
+     * @param timestamp the time of the reading
+     * @param value     the measured value
+     */
+    void add(long timestamp, double value) {
+        if (!enabled) {
+            return;
+        }
+        long start = bucketStart(timestamp);
+        if (firstStart == Long.MAX_VALUE) {
+            // Readings of this bucket arrived while the tier was disabled
+            firstStart = start > Long.MAX_VALUE - width ? start : start + width;
+        }
+        if (start < firstStart) {
+            return;
+        }
+        Columns current = columns;
+        int first = head;
+        int end = tail;
+        version++;
+        if (end > first && current.starts[end - 1] == start) {
+            current.update(end - 1, timestamp, value);
+        } else if (end == first || current.starts[end - 1] < start) {
+            current = insert(end, start);
+            current.update(tail - 1, timestamp, value);
+        } else {
+            int index = search(current, first, end, start);
+            if (index < end && current.starts[index] == start) {
+                current.update(index, timestamp, value);
+            } else if (index > first || end - first < capacity) {
+                current = insert(index, start);
+                current.update(index - (first - head), timestamp, value);
+            } // else older than every retained bucket of a full tier; dropped
+        }
+        if (tail - head > capacity) {
+            head = tail - capacity;
+        }
+        version++;
+    }
+
+    /**
+     * Aggregates every bucket that starts within a time range.
+     *
+     * @param fromTime the start of the range, inclusive
+     * @param toTime   the end of the range, exclusive
+     * @return the combined aggregate
+     */
+    Rollup aggregate(long fromTime, long toTime) {
+        while (true) {
+            int observed = stableVersion();
+            Columns current = columns;
+            int first = head;
+            int end = Math.min(tail, current.starts.length);
+            Rollup result = Rollup.empty(fromTime, toTime - 1);
+            for (int i = search(current, first, end, fromTime); i < end && current.starts[i] < toTime; i++) {
+                result = result.merge(current.get(i, width));
+            }
+            if (version == observed) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Lists the buckets that overlap a time range.
+     *
+     * @param startTime the start of the range, inclusive
+     * @param endTime   the end of the range, inclusive
+     * @return the non-empty buckets in time order
+     */
+    List<Rollup> buckets(long startTime, long endTime) {
+        while (true) {
+            int observed = stableVersion();
+            Columns current = columns;
+            int first = head;
+            int end = Math.min(tail, current.starts.length);
+            List<Rollup> result = new ArrayList<>();
+            for (int i = search(current, first, end, bucketStart(startTime));
+                    i < end && current.starts[i] <= endTime; i++) {
+                result.add(current.get(i, width));
+            }
+            if (version == observed) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Gets the start of the oldest retained bucket.
+     *
+     * @return the oldest bucket start, or Long.MAX_VALUE if the tier is empty
+     */
+    long oldestStart() {
+        while (true) {
+            int observed = stableVersion();
+            Columns current = columns;
+            int first = head;
+            long oldest = first < tail && first < current.starts.length ? current.starts[first] : Long.MAX_VALUE;
+            if (version == observed) {
+                return oldest;
+            }
+        }
+    }
+
+    private int stableVersion() {
+        int observed = version;
+        while ((observed & 1) != 0) {
+            Thread.onSpinWait();
+            observed = version;
+        }
+        return observed;
+    }
+
+    /**
+     * Opens an empty bucket at an index, compacting or growing the columns as needed.
+     * Called with the version odd.
+     *
+     * @return the columns holding the new bucket, shifted down by any compaction
+     */
+    private Columns insert(int index, long start) {
+        Columns current = columns;
+        int first = head;
+        int end = tail;
+        if (end == current.starts.length) {
+            int size = end - first;
+            int grown = (int) Math.min(current.starts.length * 2L, capacity + 1L); // Never more than one spare bucket
+            Columns target = size + 1 > current.starts.length / 2 && grown > current.starts.length
+                    ? new Columns(grown) : current;
+            target.copyFrom(current, first, 0, size);
+            current = target;
+            columns = target;
+            head = 0;
+            tail = size;
+            index -= first;
+            end = size;
+        }
+        current.copyFrom(current, index, index + 1, end - index);
+        current.clear(index, start);
+        tail = end + 1;
+        return current;
+    }
+
+    private static int search(Columns columns, int low, int high, long start) {
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (columns.starts[middle] < start) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static final class Columns {
+        final long[] starts;
+        final long[] counts;
+        final double[] mins;
+        final double[] maxs;
+        final double[] sums;
+        final double[] sumsOfSquares;
+        final long[] firstTimestamps;
+        final double[] firsts;
+        final long[] lastTimestamps;
+        final double[] lasts;
+
+        Columns(int length) {
+            starts = new long[length];
+            counts = new long[length];
+            mins = new double[length];
+            maxs = new double[length];
+            sums = new double[length];
+            sumsOfSquares = new double[length];
+            firstTimestamps = new long[length];
+            firsts = new double[length];
+            lastTimestamps = new long[length];
+            lasts = new double[length];
+        }
+
+        void clear(int index, long start) {
+            starts[index] = start;
+            counts[index] = 0;
+            mins[index] = Double.POSITIVE_INFINITY;
+            maxs[index] = Double.NEGATIVE_INFINITY;
+            sums[index] = 0;
+            sumsOfSquares[index] = 0;
+            firstTimestamps[index] = Long.MAX_VALUE;
+            lastTimestamps[index] = Long.MIN_VALUE;
+        }
+
+        void update(int index, long timestamp, double value) {
+            counts[index]++;
+            mins[index] = Math.min(mins[index], value);
+            maxs[index] = Math.max(maxs[index], value);
+            sums[index] += value;
+            sumsOfSquares[index] += value * value;
+            if (timestamp < firstTimestamps[index]) {
+                firstTimestamps[index] = timestamp;
+                firsts[index] = value;
+            }
+            if (timestamp >= lastTimestamps[index]) {
+                lastTimestamps[index] = timestamp;
+                lasts[index] = value;
+            }
+        }
+
+        Rollup get(int index, long width) {
+            return new Rollup(starts[index], starts[index] + width - 1, counts[index], mins[index], maxs[index],
+                    sums[index], sumsOfSquares[index], firstTimestamps[index], firsts[index],
+                    lastTimestamps[index], lasts[index]);
+        }
+
+        void copyFrom(Columns source, int from, int to, int length) {
+            System.arraycopy(source.starts, from, starts, to, length);
+            System.arraycopy(source.counts, from, counts, to, length);
+            System.arraycopy(source.mins, from, mins, to, length);
+            System.arraycopy(source.maxs, from, maxs, to, length);
+            System.arraycopy(source.sums, from, sums, to, length);
+            System.arraycopy(source.sumsOfSquares, from, sumsOfSquares, to, length);
+            System.arraycopy(source.firstTimestamps, from, firstTimestamps, to, length);
+            System.arraycopy(source.firsts, from, firsts, to, length);
+            System.arraycopy(source.lastTimestamps, from, lastTimestamps, to, length);
+            System.arraycopy(source.lasts, from, lasts, to, length);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.data_management;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes binary snapshots of a {@link DataStorage} and restores the storage from the
+ * latest snapshot plus the tail of its {@link WriteAheadLog}.
+ *
+ * <p>A snapshot is taken from lock-free series views, so ingest continues while it is
+ * written. It records the log position at which it started; readings logged after that
+ * position are replayed on restore, skipping those the snapshot already holds. Once a
+ * snapshot is complete, log segments before its position are deleted.
+ *
+ * <p>Snapshot layout, big-endian: {@code int magic, int version, long logPosition,
+ * long createdAt}, the record types as {@code int count} and {@code (int code, short
+ * length, UTF-8 name)} entries, then {@code int patientCount} and per patient
+ * {@code int id, int seriesCount} followed by each series as {@code int code,
+ * int count, long[count] timestamps, double[count] values}.
+ */
+public class SnapshotManager {
+    private static final int MAGIC = 0x4347534E;
+    private static final int FORMAT_VERSION = 1;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    private final DataStorage dataStorage;
+    private final Path directory;
+    private final WriteAheadLog writeAheadLog;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a manager that keeps snapshots in a directory.
+     *
+     * @param dataStorage   the storage to snapshot and restore
+     * @param directory     the directory holding the snapshot files
+     * @param writeAheadLog the log that covers readings after each snapshot, or null
+     */
+    public SnapshotManager(DataStorage dataStorage, Path directory, WriteAheadLog writeAheadLog) {
+        this.dataStorage = dataStorage;
+        this.directory = directory;
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    /**
+     * Writes a snapshot of every patient, replacing the previous snapshot, and drops
+     * the log segments it makes redundant.
+     *
+     * @return the path of the new snapshot
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized Path snapshot() throws IOException {
+        Files.createDirectories(directory);
+        long logPosition = writeAheadLog != null ? writeAheadLog.getAppendedPosition() : 0;
+        Path target = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, logPosition, SNAPSHOT_SUFFIX));
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+
+        RecordTypeRegistry recordTypes = RecordTypeRegistry.getInstance();
+        List<Patient> patients = dataStorage.getAllPatients();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 20))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(logPosition);
+            out.writeLong(System.currentTimeMillis());
+
+            int typeCount = recordTypes.size();
+            out.writeInt(typeCount);
+            for (int code = 0; code < typeCount; code++) {
+                byte[] name = recordTypes.nameOf(code).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(code);
+                out.writeShort(name.length);
+                out.write(name);
+            }
+
+            out.writeInt(patients.size());
+            RecordSeries.View view = new RecordSeries.View();
+            long[] timestamps = new long[0];
+            double[] values = new double[0];
+            for (Patient patient : patients) {
+                RecordSeries[] series = patient.getSeries();
+                out.writeInt(patient.getPatientId());
+                out.writeInt(series.length);
+                for (RecordSeries current : series) {
+                    int count;
+                    do {
+                        view.load(current);
+                        count = (int) (view.tail() - view.head());
+                        if (timestamps.length < count) {
+                            timestamps = new long[count];
+                            values = new double[count];
+                        }
+                        for (int i = 0; i < count; i++) {
+                            timestamps[i] = view.timestampAt(view.head() + i);
+                            values[i] = view.valueAt(view.head() + i);
+                        }
+                    } while (!view.isCurrent());
+                    out.writeInt(current.getRecordTypeCode());
+                    out.writeInt(count);
+                    for (int i = 0; i < count; i++) {
+                        out.writeLong(timestamps[i]);
+                    }
+                    for (int i = 0; i < count; i++) {
+                        out.writeDouble(values[i]);
+                    }
+                }
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Path old : snapshots()) {
+            if (!old.equals(target)) {
+                Files.deleteIfExists(old);
+            }
+        }
+        if (writeAheadLog != null) {
+            writeAheadLog.deleteSegmentsBefore(logPosition);
+        }
+        return target;
+    }
+
+    /**
+     * Loads the latest snapshot into the storage, replays the log written after it and
+     * attaches the log to the storage. Call this on startup, before any data is read.
+     * The storage's event-time policy is suspended meanwhile, since a snapshot is
+     * loaded one record type at a time and would otherwise look late to itself.
+     *
+     * @return the number of restored readings
+     * @throws IOException if the snapshot or the log cannot be read
+     */
+    public long restore() throws IOException {
+        EventTimePolicy eventTimePolicy = dataStorage.getEventTimePolicy();
+        dataStorage.setEventTimePolicy(null);
+        try {
+            long restored = 0;
+            long logPosition = 0;
+            List<Path> snapshots = Files.isDirectory(directory) ? snapshots() : new ArrayList<>();
+            if (!snapshots.isEmpty()) {
+                Path latest = snapshots.get(snapshots.size() - 1);
+                try (FileChannel channel = FileChannel.open(latest, StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                        throw new IOException("Not a supported snapshot: " + latest);
+                    }
+                    logPosition = buffer.getLong();
+                    buffer.getLong(); // Creation time
+                    restored = load(buffer);
+                }
+            }
+            if (writeAheadLog != null) {
+                restored += dataStorage.recover(writeAheadLog, logPosition, true);
+            }
+            return restored;
+        } finally {
+            dataStorage.setEventTimePolicy(eventTimePolicy);
+        }
+    }
+
+    /**
+     * Writes a snapshot periodically on a background thread.
+     *
+     * @param period how often to snapshot
+     * @param unit   the unit of period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (Exception e) {
+                System.err.println("Error writing snapshot: " + e.getMessage());
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops the background thread started by {@link #start(long, TimeUnit)}.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private long load(MappedByteBuffer buffer) {
+        RecordTypeRegistry recordTypes = RecordTypeRegistry.getInstance();
+        int[] localCodes = new int[buffer.getInt()]; // Snapshot code -> code in this process
+        for (int i = 0; i < localCodes.length; i++) {
+            int code = buffer.getInt();
+            byte[] name = new byte[buffer.getShort()];
+            buffer.get(name);
+            localCodes[code] = recordTypes.codeOf(new String(name, StandardCharsets.UTF_8));
+        }
+
+        long loaded = 0;
+        int patientCount = buffer.getInt();
+        for (int p = 0; p < patientCount; p++) {
+            int patientId = buffer.getInt();
+            Patient patient = dataStorage.patientFor(patientId);
+            int seriesCount = buffer.getInt();
+            for (int s = 0; s < seriesCount; s++) {
+                int code = localCodes[buffer.getInt()];
+                int count = buffer.getInt();
+                int timestamps = buffer.position();
+                int values = timestamps + count * Long.BYTES;
+                for (int i = 0; i < count; i++) {
+                    patient.addRecord(buffer.getDouble(values + i * Double.BYTES), code,
+                            buffer.getLong(timestamps + i * Long.BYTES));
+                }
+                if (count > 0) {
+                    // Series are written in time order, so the last reading is the latest
+                    dataStorage.updateLatest(patientId, code, buffer.getLong(values - Long.BYTES),
+                            buffer.getDouble(values + (count - 1) * Double.BYTES));
+                }
+                buffer.position(values + count * Double.BYTES);
+                loaded += count;
+            }
+        }
+        return loaded;
+    }
+
+    private List<Path> snapshots() throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path file : files) {
+                snapshots.add(file);
+            }
+        }
+        snapshots.sort(null); // Zero-padded log positions sort in order
+        return snapshots;
+    }
+}
@@ -0,0 +1,113 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counters for one upstream source: how many readings it delivered, and the newest
+ * timestamp seen for each record type of each of its patients, which a client sends
+ * back when it resumes the stream after a reconnect. Timestamps are kept per record
+ * type because the simulator emits each type of a patient on its own schedule, so the
+ * newest reading of one type says nothing about older readings of another. They are
+ * updated by the thread that decodes the source's frames, the socket thread or an
+ * {@link IngestPipeline}'s consumer, and read by anyone.
+ */
+final class SourceMetrics {
+    private static final int DENSE_PATIENTS = 1 << 16; // Patient IDs below this are kept in an array
+
+    private volatile long readingCount;
+    private volatile long latestTimestamp = Long.MIN_VALUE;
+
+    // Guarded by this
+    private long[][] latestByType = new long[0][]; // By record type code, then patient; Long.MIN_VALUE if not seen
+    private final Map<Long, Long> latestBySparseKey = new HashMap<>(); // Keyed by patientId << 32 | recordTypeCode
+
+    /**
+     * Counts the readings a frame added to a batch.
+     *
+     * @param batch the batch the frame was decoded into
+     * @param first the index of the frame's first reading in the batch
+     */
+    synchronized void record(IngestBatch batch, int first) {
+        long latest = latestTimestamp;
+        for (int i = first; i < batch.size(); i++) {
+            long timestamp = batch.timestampAt(i);
+            advance(batch.patientIdAt(i), batch.recordTypeCodeAt(i), timestamp);
+            latest = Math.max(latest, timestamp);
+        }
+        readingCount += batch.size() - first;
+        latestTimestamp = latest;
+    }
+
+    /**
+     * Counts a single reading.
+     *
+     * @param patientId      the patient the reading belongs to
+     * @param recordTypeCode the record type code of the reading
+     * @param timestamp      the time of the reading
+     */
+    synchronized void record(int patientId, int recordTypeCode, long timestamp) {
+        advance(patientId, recordTypeCode, timestamp);
+        readingCount++;
+        if (timestamp > latestTimestamp) {
+            latestTimestamp = timestamp;
+        }
+    }
+
+    long getReadingCount() {
+        return readingCount;
+    }
+
+    /**
+     * Gets the newest reading time seen from the source.
+     *
+     * @return the timestamp, or Long.MIN_VALUE if nothing was received yet
+     */
+    long getLatestTimestamp() {
+        return latestTimestamp;
+    }
+
+    /**
+     * Gets the newest reading time seen for each record type of each patient of the source.
+     *
+     * @return a new map from patient ID to a map from record type name to timestamp
+     */
+    synchronized Map<Integer, Map<String, Long>> getLatestByPatient() {
+        RecordTypeRegistry recordTypes = RecordTypeRegistry.getInstance();
+        Map<Integer, Map<String, Long>> latest = new HashMap<>();
+        for (int code = 0; code < latestByType.length; code++) {
+            long[] byPatient = latestByType[code];
+            for (int patientId = 0; byPatient != null && patientId < byPatient.length; patientId++) {
+                if (byPatient[patientId] != Long.MIN_VALUE) {
+                    latest.computeIfAbsent(patientId, id -> new HashMap<>())
+                            .put(recordTypes.nameOf(code), byPatient[patientId]);
+                }
+            }
+        }
+        for (Map.Entry<Long, Long> entry : latestBySparseKey.entrySet()) {
+            long key = entry.getKey();
+            latest.computeIfAbsent((int) (key >> 32), id -> new HashMap<>())
+                    .put(recordTypes.nameOf((int) key), entry.getValue());
+        }
+        return latest;
+    }
+
+    private void advance(int patientId, int recordTypeCode, long timestamp) {
+        if (patientId >= 0 && patientId < DENSE_PATIENTS && recordTypeCode >= 0) {
+            if (recordTypeCode >= latestByType.length) {
+                latestByType = Arrays.copyOf(latestByType, recordTypeCode + 1);
+            }
+            long[] byPatient = latestByType[recordTypeCode] != null ? latestByType[recordTypeCode] : new long[0];
+            if (patientId >= byPatient.length) {
+                int length = byPatient.length;
+                byPatient = Arrays.copyOf(byPatient, Math.min(DENSE_PATIENTS, Math.max(patientId + 1, length * 2)));
+                Arrays.fill(byPatient, length, byPatient.length, Long.MIN_VALUE);
+                latestByType[recordTypeCode] = byPatient;
+            }
+            byPatient[patientId] = Math.max(byPatient[patientId], timestamp);
+        } else {
+            latestBySparseKey.merge(((long) patientId << 32) | (recordTypeCode & 0xFFFFFFFFL), timestamp, Math::max);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.data_management;
+
+import java.net.URI;
+
+/**
+ * The state of one upstream source of a {@link WebSocketFanInReader}: whether it is
+ * connected, how fast its readings arrived since the previous report and how far
+ * behind the wall clock its newest reading is.
+ */
+public class SourceReport {
+    private final URI uri;
+    private final boolean connected;
+    private final long readings;
+    private final double readingsPerSecond;
+    private final long lagMillis;
+
+    /**
+     * Constructs a report.
+     *
+     * @param uri               the address of the source
+     * @param connected         whether the connection is open
+     * @param readings          the number of readings received from the source in total
+     * @param readingsPerSecond the rate of readings since the previous report
+     * @param lagMillis         the wall-clock time minus the newest reading's timestamp,
+     *                          or -1 if nothing was received yet
+     */
+    public SourceReport(URI uri, boolean connected, long readings, double readingsPerSecond, long lagMillis) {
+        this.uri = uri;
+        this.connected = connected;
+        this.readings = readings;
+        this.readingsPerSecond = readingsPerSecond;
+        this.lagMillis = lagMillis;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getReadings() {
+        return readings;
+    }
+
+    public double getReadingsPerSecond() {
+        return readingsPerSecond;
+    }
+
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Source %s: %s, %d readings, %.1f readings/s, lag %s", uri,
+                connected ? "connected" : "disconnected", readings, readingsPerSecond,
+                lagMillis < 0 ? "n/a" : lagMillis + " ms");
+    }
+}
@@ -0,0 +1,414 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A DataReader for line-oriented TCP streams such as the simulator's
+ * {@code TcpOutputStrategy}, one reading per line in either layout {@link RecordCodec}
+ * understands.
+ *
+ * <p>One thread serves every connection through a non-blocking {@link Selector}: the
+ * reader connects to each configured source, reconnecting a second after it is lost,
+ * and, if given a listen address, also accepts devices that connect to it. Each
+ * connection reads into its own direct buffer; complete lines are parsed in place and
+ * a partial line at the end of a read is kept for the next. The readings of one pass
+ * over the ready connections are stored as one {@link IngestBatch}.
+ */
+public class TcpDataReader implements DataReader {
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int BATCH_SIZE = 4096;
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private final List<InetSocketAddress> sources;
+    private InetSocketAddress listenAddress;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicLong readingCount = new AtomicLong();
+    private final RecordCodec codec = new RecordCodec(); // Used on the selector thread only
+    private final IngestBatch batch = new IngestBatch(BATCH_SIZE);
+    private final List<Reconnect> reconnects = new ArrayList<>(); // Used on the selector thread only
+
+    private Selector selector;
+    private ServerSocketChannel acceptor;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    /**
+     * Creates a reader that connects to the given sources once streaming starts.
+     *
+     * @param sources the addresses of the simulators or gateways to read from
+     */
+    public TcpDataReader(InetSocketAddress... sources) {
+        this(Arrays.asList(sources));
+    }
+
+    /**
+     * Creates a reader that connects to the given sources once streaming starts.
+     *
+     * @param sources the addresses of the simulators or gateways to read from
+     * @throws IllegalArgumentException if sources is null
+     */
+    public TcpDataReader(List<InetSocketAddress> sources) {
+        if (sources == null) {
+            throw new IllegalArgumentException("Sources must not be null");
+        }
+        this.sources = new ArrayList<>(sources);
+    }
+
+    /**
+     * Also accepts connections from devices that push their readings. Must be called
+     * before streaming starts.
+     *
+     * @param listenAddress the address to listen on, or null to only connect out
+     */
+    public void setListenAddress(InetSocketAddress listenAddress) {
+        this.listenAddress = listenAddress;
+    }
+
+    /**
+     * Gets the address the reader accepts connections on, with the port chosen if it
+     * was given as 0.
+     *
+     * @return the bound address, or null if the reader does not listen
+     */
+    public InetSocketAddress getBoundAddress() {
+        ServerSocketChannel bound = acceptor;
+        try {
+            return bound != null ? (InetSocketAddress) bound.getLocalAddress() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UnsupportedOperationException always, as TCP reading is streaming-based
+     */
+    @Override
+    public void readData(DataStorage dataStorage) {
+        throw new UnsupportedOperationException("Use startStreaming for real-time data.");
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Opens the listen socket, if any, and starts connecting to the sources on the
+     * reader's selector thread.
+     *
+     * @throws IllegalStateException if streaming has already started, or the listen
+     *                               address cannot be bound
+     */
+    @Override
+    public synchronized void startStreaming(DataStorage dataStorage) {
+        if (running) {
+            throw new IllegalStateException("TCP streaming already started");
+        }
+        try {
+            selector = Selector.open();
+            if (listenAddress != null) {
+                acceptor = ServerSocketChannel.open();
+                acceptor.bind(listenAddress);
+                acceptor.configureBlocking(false);
+                acceptor.register(selector, SelectionKey.OP_ACCEPT);
+                System.out.println("Listening for TCP data on " + acceptor.getLocalAddress());
+            }
+        } catch (IOException e) {
+            closeQuietly();
+            throw new IllegalStateException("Cannot listen on " + listenAddress + ": " + e.getMessage(), e);
+        }
+        for (InetSocketAddress source : sources) {
+            reconnects.add(new Reconnect(source, 0));
+        }
+        running = true;
+        selectorThread = new Thread(() -> selectLoop(dataStorage), "tcp-reader");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * Stores the readings already received and closes every connection.
+     */
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets how many connections are open, in either direction.
+     *
+     * @return the number of open connections
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Gets how many readings have been handed to the storage.
+     *
+     * @return the number of readings
+     */
+    public long getReadingCount() {
+        return readingCount.get();
+    }
+
+    private void selectLoop(DataStorage dataStorage) {
+        try {
+            while (running) {
+                long wait = connectDue();
+                selector.select(wait);
+                Iterator<SelectionKey> ready = selector.selectedKeys().iterator();
+                while (ready.hasNext()) {
+                    SelectionKey key = ready.next();
+                    ready.remove();
+                    handle(key, dataStorage);
+                }
+                store(dataStorage);
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("TCP reader stopped: " + e.getMessage());
+        } finally {
+            store(dataStorage);
+            closeQuietly();
+        }
+    }
+
+    private void handle(SelectionKey key, DataStorage dataStorage) {
+        if (!key.isValid()) {
+            return;
+        }
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isAcceptable()) {
+                SocketChannel channel = acceptor.accept();
+                if (channel != null) {
+                    channel.configureBlocking(false);
+                    channel.register(selector, SelectionKey.OP_READ, new Connection(channel, null));
+                    connectionCount.incrementAndGet();
+                }
+            } else if (key.isConnectable()) {
+                connection.channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                connectionCount.incrementAndGet();
+                System.out.println("Connected to TCP source " + connection.source);
+            } else if (key.isReadable()) {
+                read(connection, dataStorage);
+            }
+        } catch (IOException e) {
+            System.err.println("TCP connection " + describe(connection) + " failed: " + e.getMessage());
+            drop(key, connection);
+        }
+    }
+
+    private void read(Connection connection, DataStorage dataStorage) throws IOException {
+        ByteBuffer buffer = connection.buffer;
+        int read;
+        while ((read = connection.channel.read(buffer)) > 0) {
+            parseLines(connection);
+            if (batch.size() >= BATCH_SIZE) {
+                store(dataStorage);
+            }
+            buffer = connection.buffer;
+        }
+        if (read < 0) {
+            if (buffer.position() > 0) {
+                // The last line had no line break
+                parseLine(connection, 0, buffer.position());
+                buffer.clear();
+            }
+            SelectionKey key = connection.channel.keyFor(selector);
+            System.out.println("TCP connection " + describe(connection) + " closed by peer");
+            drop(key, connection);
+        }
+    }
+
+    /**
+     * Parses the complete lines in the connection's buffer and keeps the partial line
+     * after them at the start of the buffer.
+     */
+    private void parseLines(Connection connection) {
+        ByteBuffer buffer = connection.buffer;
+        int end = buffer.position();
+        int from = 0;
+        for (int i = 0; i < end; i++) {
+            if (buffer.get(i) == '\n') {
+                parseLine(connection, from, i);
+                from = i + 1;
+            }
+        }
+        buffer.flip();
+        buffer.position(from);
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            // A line longer than the buffer; grow it rather than splitting the line
+            ByteBuffer grown = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+            buffer.flip();
+            grown.put(buffer);
+            connection.buffer = grown;
+        }
+    }
+
+    private void parseLine(Connection connection, int from, int to) {
+        try {
+            if (codec.parse(connection.buffer, from, to)) {
+                codec.addTo(batch);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error processing TCP line from " + describe(connection) + ": " + e.getMessage());
+        }
+    }
+
+    private void store(DataStorage dataStorage) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        readingCount.addAndGet(batch.size());
+        try {
+            dataStorage.addPatientData(batch);
+        } catch (RuntimeException e) {
+            System.err.println("Error storing " + batch.size() + " TCP readings: " + e.getMessage());
+        }
+        batch.clear();
+    }
+
+    private void drop(SelectionKey key, Connection connection) {
+        if (key != null) {
+            key.cancel();
+        }
+        boolean connected = connection.channel.isConnected();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        if (connected) {
+            connectionCount.decrementAndGet();
+        }
+        if (connection.source != null && running) {
+            reconnects.add(new Reconnect(connection.source, System.currentTimeMillis() + RECONNECT_DELAY_MILLIS));
+        }
+    }
+
+    /**
+     * Starts the connections that are due and tells how long to wait for the next.
+     *
+     * @return the milliseconds until the next connection is due, or 0 for none
+     */
+    private long connectDue() {
+        long now = System.currentTimeMillis();
+        long next = 0;
+        Iterator<Reconnect> pending = reconnects.iterator();
+        while (pending.hasNext()) {
+            Reconnect reconnect = pending.next();
+            if (reconnect.dueMillis <= now) {
+                pending.remove();
+                connect(reconnect.source);
+            } else {
+                long wait = reconnect.dueMillis - now;
+                next = next == 0 ? wait : Math.min(next, wait);
+            }
+        }
+        return next;
+    }
+
+    private void connect(InetSocketAddress source) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel, source);
+            if (channel.connect(source)) {
+                channel.register(selector, SelectionKey.OP_READ, connection);
+                connectionCount.incrementAndGet();
+                System.out.println("Connected to TCP source " + source);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot connect to TCP source " + source + ": " + e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException closing) {
+                    // Nothing more to release
+                }
+            }
+            reconnects.add(new Reconnect(source, System.currentTimeMillis() + RECONNECT_DELAY_MILLIS));
+        }
+    }
+
+    private void closeQuietly() {
+        if (selector != null) {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+        acceptor = null;
+        reconnects.clear();
+        connectionCount.set(0);
+    }
+
+    private static String describe(Connection connection) {
+        if (connection == null) {
+            return "listener";
+        }
+        if (connection.source != null) {
+            return connection.source.toString();
+        }
+        try {
+            return String.valueOf(connection.channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "device";
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final InetSocketAddress source; // Null for connections the reader accepted
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES); // Filled from position 0
+
+        Connection(SocketChannel channel, InetSocketAddress source) {
+            this.channel = channel;
+            this.source = source;
+        }
+    }
+
+    private static final class Reconnect {
+        final InetSocketAddress source;
+        final long dueMillis;
+
+        Reconnect(InetSocketAddress source, long dueMillis) {
+            this.source = source;
+            this.dueMillis = dueMillis;
+        }
+    }
+}
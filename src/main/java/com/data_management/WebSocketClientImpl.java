@@ -1,17 +1,34 @@
 package com.data_management;
 
+import com.cardio_generator.outputs.RecordFrame;
+import com.cardio_generator.outputs.WebSocketOutputStrategy;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Map;
 
 /**
  * WebSocketClient class that connects to a WebSocket server and processes incoming messages.
  * It utilizes the DataStorage class to store parsed information.
+ *
+ * <p>The client asks the server for binary {@link RecordFrame}s in its handshake and
+ * handles text messages as well, for servers that do not offer them.
+ *
+ * <p>A lost connection is re-established by a {@link ReconnectManager} with exponential
+ * backoff. Once back, the client sends the server the newest timestamp it received of
+ * each patient, and a {@link WebSocketOutputStrategy} replays the readings sent during
+ * the outage, so trend windows have no holes.
  */
 public class WebSocketClientImpl extends WebSocketClient implements DataReader {
 
     private DataStorage dataStorage;
+    private final IngestBatch batch = new IngestBatch(); // Reused for multi-line messages; filled on the socket thread
+    private final RecordCodec codec = new RecordCodec(); // Used on the socket thread only
+    private volatile IngestPipeline pipeline; // Null to parse and store on the socket thread
+    private final SourceMetrics sourceMetrics = new SourceMetrics(); // What was received, for reports and resuming
+    private volatile ReconnectManager reconnectManager = new ReconnectManager();
 
     /**
      * Constructor to initialize the WebSocket client with the server URI.
@@ -20,28 +37,44 @@ public class WebSocketClientImpl extends WebSocketClient implements DataReader {
      */
     public WebSocketClientImpl(URI serverUri) {
         super(serverUri);
+        addHeader(RecordFrame.FORMAT_HEADER, RecordFrame.BINARY_V1);
     }
 
     @Override
     public void onOpen(ServerHandshake handshake) {
         System.out.println("Connected to WebSocket server.");
+        reconnectManager.connected();
+        Map<Integer, Map<String, Long>> lastSeen = sourceMetrics.getLatestByPatient();
+        if (!lastSeen.isEmpty() && isOpen()) {
+            // Back after an outage; ask for what was missed
+            send(WebSocketOutputStrategy.resumeRequest(lastSeen));
+        }
     }    @Override
     public void onMessage(String message) {
+        IngestPipeline queued = pipeline;
+        if (queued != null) {
+            queued.enqueue(message, sourceMetrics);
+            return;
+        }
+        if (message.indexOf('\n') >= 0) {
+            onBurst(message);
+            return;
+        }
         try {
             // Parse the incoming message
-            // Expected format: patientId,measurementValue,recordType,timestamp
-            String[] parts = message.split(",");
-            if (parts.length != 4) {
+            // Expected format: patientId,measurementValue,recordType,timestamp, or the simulator's
+            // patientId,timestamp,label,data
+            if (!codec.parse(message)) {
                 throw new IllegalArgumentException("Invalid message format: " + message);
             }
-
-            int patientId = Integer.parseInt(parts[0]);
-            double measurementValue = Double.parseDouble(parts[1]);
-            String recordType = parts[2];
-            long timestamp = Long.parseLong(parts[3]);
+            int patientId = codec.getPatientId();
+            double measurementValue = codec.getValue();
+            String recordType = RecordTypeRegistry.getInstance().nameOf(codec.getRecordTypeCode());
+            long timestamp = codec.getTimestamp();
 
             // Store the parsed data in DataStorage
             dataStorage.addPatientData(patientId, measurementValue, recordType, timestamp);
+            sourceMetrics.record(patientId, codec.getRecordTypeCode(), timestamp);
 
             System.out.println("Processed WebSocket message: Patient " + patientId +
                     ", " + recordType + " = " + measurementValue +
@@ -50,26 +83,77 @@ public class WebSocketClientImpl extends WebSocketClient implements DataReader {
             System.err.println("Error processing message: " + message);
             e.printStackTrace();
         }
-    }    @Override
+    }
+
+    /**
+     * Stores the readings of a binary {@link RecordFrame} as one batch.
+     */
+    @Override
+    public void onMessage(ByteBuffer frame) {
+        IngestPipeline queued = pipeline;
+        if (queued != null) {
+            queued.enqueue(frame, sourceMetrics);
+            return;
+        }
+        batch.clear();
+        try {
+            codec.decodeFrame(frame, batch);
+            dataStorage.addPatientData(batch);
+            sourceMetrics.record(batch, 0);
+        } catch (Exception e) {
+            System.err.println("Error processing binary message of " + frame.remaining() + " bytes: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Stores a message holding one reading per line as one batch. Malformed lines are
+     * reported and skipped without dropping the rest of the message.
+     */
+    private void onBurst(String message) {
+        batch.clear();
+        int from = 0;
+        while (from < message.length()) {
+            int to = message.indexOf('\n', from);
+            if (to < 0) {
+                to = message.length();
+            }
+            try {
+                if (codec.parse(message, from, to)) {
+                    codec.addTo(batch);
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error processing message line: " + message.substring(from, to).trim()
+                        + " - " + e.getMessage());
+            }
+            from = to + 1;
+        }
+        try {
+            dataStorage.addPatientData(batch);
+            sourceMetrics.record(batch, 0);
+            System.out.println("Processed WebSocket batch of " + batch.size() + " readings");
+        } catch (Exception e) {
+            System.err.println("Error storing WebSocket batch of " + batch.size() + " readings");
+            e.printStackTrace();
+        }
+    }
+
+    @Override
     public void onClose(int code, String reason, boolean remote) {
         System.out.println("WebSocket connection closed: " + reason + " (Code: " + code + ")");
 
-        // Attempt to reconnect after a delay for certain close codes
+        // Attempt to reconnect after a delay for certain close codes; a failed attempt closes again
         if (code != 1000 && code != 1001) { // Not normal closure or going away
-            System.out.println("Attempting to reconnect in 5 seconds...");
-            new Thread(() -> {
-                try {
-                    Thread.sleep(5000);
-                    if (!isOpen()) {
-                        reconnect();
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    System.err.println("Reconnection attempt interrupted");
-                } catch (Exception e) {
-                    System.err.println("Failed to reconnect: " + e.getMessage());
+            ReconnectManager manager = reconnectManager;
+            long delay = manager.schedule(() -> {
+                // Only a connection that finished closing can be reset without blocking the shared thread
+                if (isClosed()) {
+                    reconnect();
                 }
-            }).start();
+            });
+            if (delay >= 0) {
+                System.out.println("Attempting to reconnect in " + delay + " ms (attempt " + manager.getAttempts() + ")");
+            }
         }
     }    @Override
     public void onError(Exception ex) {
@@ -87,9 +171,46 @@ public class WebSocketClientImpl extends WebSocketClient implements DataReader {
         throw new UnsupportedOperationException("Use startStreaming for real-time data.");
     }
 
+    /**
+     * Hands incoming messages to a pipeline instead of parsing and storing them on the
+     * socket thread, so that a busy storage never stalls reading from the socket. The
+     * pipeline is started with the storage when streaming starts, unless it already
+     * runs for clients that share it.
+     *
+     * @param pipeline the pipeline, or null to process messages on the socket thread
+     */
+    public void setIngestPipeline(IngestPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public IngestPipeline getIngestPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Replaces the backoff used to reconnect after the connection is lost.
+     *
+     * @param reconnectManager the manager; cannot be null
+     * @throws IllegalArgumentException if reconnectManager is null
+     */
+    public void setReconnectManager(ReconnectManager reconnectManager) {
+        if (reconnectManager == null) {
+            throw new IllegalArgumentException("Reconnect manager must not be null");
+        }
+        this.reconnectManager = reconnectManager;
+    }
+
+    SourceMetrics getSourceMetrics() {
+        return sourceMetrics;
+    }
+
     @Override
     public void startStreaming(DataStorage dataStorage) {
         this.dataStorage = dataStorage;
+        IngestPipeline queued = pipeline;
+        if (queued != null && !queued.isStarted()) {
+            queued.start(dataStorage);
+        }
         this.connect();
     }
 }
\ No newline at end of file
@@ -78,6 +78,17 @@ public class WebSocketDataReader implements DataReader {
         isStreamingStarted = true;
     }
     
+    /**
+     * Processes incoming messages on a pipeline rather than on the socket thread; see
+     * {@link WebSocketClientImpl#setIngestPipeline(IngestPipeline)}. Must be called
+     * before streaming starts.
+     *
+     * @param pipeline the pipeline, or null to process messages on the socket thread
+     */
+    public void setIngestPipeline(IngestPipeline pipeline) {
+        webSocketClient.setIngestPipeline(pipeline);
+    }
+
     /**
      * Checks if the WebSocket connection is currently open.
      *
@@ -0,0 +1,161 @@
+package com.data_management;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A DataReader that follows several WebSocket servers at once, such as one simulator
+ * or gateway per ward. Each source has its own {@link WebSocketClientImpl} with its own
+ * connection thread; all of them hand their frames to one shared {@link IngestPipeline},
+ * whose consumer stores the readings of every source in common batches.
+ *
+ * <p>{@link #getSourceReports()} tells for each source whether it is connected, its
+ * rate of readings and how far its newest reading lags behind the wall clock.
+ */
+public class WebSocketFanInReader implements DataReader {
+    private final List<Source> sources = new ArrayList<>();
+    private final IngestPipeline pipeline;
+    private long lastReportNanos = System.nanoTime(); // Guarded by this
+    private ScheduledExecutorService reporter;
+    private boolean streaming;
+
+    /**
+     * Creates a reader for the given servers, merging them through a pipeline of the
+     * default size that blocks the sources when full.
+     *
+     * @param serverUris the WebSocket servers to follow
+     */
+    public WebSocketFanInReader(List<URI> serverUris) {
+        this(serverUris, new IngestPipeline());
+    }
+
+    /**
+     * Creates a reader for the given servers.
+     *
+     * @param serverUris the WebSocket servers to follow
+     * @param pipeline   the shared stage that parses and stores every source's frames
+     * @throws IllegalArgumentException if there are no servers or pipeline is null
+     */
+    public WebSocketFanInReader(List<URI> serverUris, IngestPipeline pipeline) {
+        if (serverUris == null || serverUris.isEmpty()) {
+            throw new IllegalArgumentException("At least one server URI is required");
+        }
+        if (pipeline == null) {
+            throw new IllegalArgumentException("Ingest pipeline must not be null");
+        }
+        this.pipeline = pipeline;
+        for (URI serverUri : serverUris) {
+            WebSocketClientImpl client = new WebSocketClientImpl(serverUri);
+            client.setIngestPipeline(pipeline);
+            sources.add(new Source(client, client.getSourceMetrics()));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UnsupportedOperationException always, as WebSocket data reading is streaming-based
+     */
+    @Override
+    public void readData(DataStorage dataStorage) {
+        throw new UnsupportedOperationException("Use startStreaming for real-time data.");
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Starts the shared pipeline and connects to every server concurrently.
+     */
+    @Override
+    public synchronized void startStreaming(DataStorage dataStorage) {
+        if (streaming) {
+            System.out.println("WebSocket fan-in streaming already started. Ignoring duplicate call.");
+            return;
+        }
+        streaming = true;
+        pipeline.start(dataStorage);
+        for (Source source : sources) {
+            System.out.println("Starting WebSocket data streaming from: " + source.client.getURI());
+            source.client.startStreaming(dataStorage);
+        }
+    }
+
+    /**
+     * Gets the state of every source, with rates measured since the previous call.
+     *
+     * @return one report per source, in the order the servers were given
+     */
+    public synchronized List<SourceReport> getSourceReports() {
+        long now = System.nanoTime();
+        double seconds = Math.max(now - lastReportNanos, 1) / 1e9;
+        lastReportNanos = now;
+        long wallClock = System.currentTimeMillis();
+        List<SourceReport> reports = new ArrayList<>(sources.size());
+        for (Source source : sources) {
+            long readings = source.metrics.getReadingCount();
+            long latest = source.metrics.getLatestTimestamp();
+            reports.add(new SourceReport(source.client.getURI(), source.client.isOpen(), readings,
+                    (readings - source.reportedReadings) / seconds,
+                    latest == Long.MIN_VALUE ? -1 : Math.max(0, wallClock - latest)));
+            source.reportedReadings = readings;
+        }
+        return reports;
+    }
+
+    /**
+     * Prints the source reports periodically on a background thread.
+     *
+     * @param period how often to report
+     * @param unit   the unit of period
+     */
+    public synchronized void startReporting(long period, TimeUnit unit) {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fan-in-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            for (SourceReport report : getSourceReports()) {
+                System.out.println(report);
+            }
+        }, period, period, unit);
+    }
+
+    public IngestPipeline getIngestPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Closes every connection, then stores the frames already received.
+     */
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        for (Source source : sources) {
+            if (source.client.isOpen()) {
+                source.client.close();
+            }
+        }
+        pipeline.close();
+    }
+
+    private static final class Source {
+        final WebSocketClientImpl client;
+        final SourceMetrics metrics;
+        long reportedReadings; // Guarded by the reader
+
+        Source(WebSocketClientImpl client, SourceMetrics metrics) {
+            this.client = client;
+            this.metrics = metrics;
+        }
+    }
+}
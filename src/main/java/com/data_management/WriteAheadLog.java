@@ -0,0 +1,555 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of every reading added to {@link DataStorage}, so that the
+ * storage can be rebuilt after a restart.
+ *
+ * <p>Readings are appended to an in-memory buffer and written by a single flusher
+ * thread. Each write is one frame holding every reading appended since the previous
+ * write, so one {@link FileChannel#force(boolean)} covers many readings (group commit).
+ * How long {@link #append} waits is set by the {@link Durability} level.
+ *
+ * <p>The log is split into segment files named after the log position they start at.
+ * A frame is {@code [int length][int crc32][entries]}; an entry is either a reading
+ * or the definition of a record type code, and every segment defines the codes it
+ * uses so it can be replayed on its own. A torn frame at the end of the log, left
+ * by a crash, is cut off when the log is opened.
+ */
+public class WriteAheadLog implements AutoCloseable {
+    /**
+     * How long {@link #append} waits for a reading to reach the disk.
+     */
+    public enum Durability {
+        /** Written to the operating system by the flusher, never forced; survives a process crash only. */
+        NONE,
+        /** Forced by the flusher once per batch; append does not wait, so the last batch may be lost. */
+        ASYNC,
+        /** Append returns once the batch holding the reading has been forced. */
+        SYNC
+    }
+
+    static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int MAX_BUFFER_BYTES = 8 * 1024 * 1024;
+    private static final byte READING = 1;
+    private static final byte TYPE_DEFINITION = 2;
+    private static final int READING_BYTES = 1 + Integer.BYTES * 2 + Long.BYTES + Double.BYTES;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final Durability durability;
+    private final long segmentBytes;
+    private final long flushIntervalMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pending = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private final Thread flusher;
+
+    // Guarded by lock
+    private ByteBuffer active = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+    private boolean[] definedInSegment = new boolean[0];
+    private long appendedCount;
+    private long flushedCount;
+    private long appendedPosition; // Log position after the last appended entry
+    private boolean closed;
+    private IOException failure;
+
+    // Only used by the flusher thread once the log is open
+    private FileChannel segment;
+    private long segmentStart;
+    private long segmentSize;
+
+    /**
+     * Opens the log in a directory with the default segment size, creating it if needed.
+     *
+     * @param directory  the directory holding the segment files
+     * @param durability how long appends wait for the disk
+     * @throws IOException if the directory or the last segment cannot be opened
+     */
+    public WriteAheadLog(Path directory, Durability durability) throws IOException {
+        this(directory, durability, DEFAULT_SEGMENT_BYTES, 10);
+    }
+
+    /**
+     * Opens the log in a directory, creating it if needed.
+     *
+     * @param directory           the directory holding the segment files
+     * @param durability          how long appends wait for the disk
+     * @param segmentBytes        the size after which a new segment file is started
+     * @param flushIntervalMillis the longest time an appended reading waits to be written
+     * @throws IOException if the directory or the last segment cannot be opened
+     */
+    public WriteAheadLog(Path directory, Durability durability, long segmentBytes, long flushIntervalMillis)
+            throws IOException {
+        if (durability == null) {
+            throw new IllegalArgumentException("Durability must not be null");
+        }
+        if (segmentBytes <= 0 || flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Segment size and flush interval must be positive");
+        }
+        this.directory = directory;
+        this.durability = durability;
+        this.segmentBytes = segmentBytes;
+        this.flushIntervalMillis = flushIntervalMillis;
+        Files.createDirectories(directory);
+        openLastSegment();
+        this.flusher = new Thread(this::flushLoop, "write-ahead-log");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Appends a reading to the log. Depending on the durability level this returns at
+     * once or waits until the reading has been forced to disk.
+     *
+     * @param patientId      the patient the reading belongs to
+     * @param recordTypeCode the record type code from {@link RecordTypeRegistry}
+     * @param timestamp      the time of the measurement in milliseconds since epoch
+     * @param value          the measured value
+     * @throws UncheckedIOException if the log can no longer be written
+     * @throws IllegalStateException if the log is closed
+     */
+    public void append(int patientId, int recordTypeCode, long timestamp, double value) {
+        lock.lock();
+        try {
+            awaitRoom();
+            put(patientId, recordTypeCode, timestamp, value);
+            awaitDurable(++appendedCount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends every stored reading of a batch as one group, so a {@link Durability#SYNC}
+     * log waits for the disk once per batch rather than once per reading. Readings the
+     * storage rejected while storing the batch are skipped; a batch that was not stored
+     * is appended whole.
+     *
+     * @param batch the readings to append
+     * @throws UncheckedIOException if the log can no longer be written
+     * @throws IllegalStateException if the log is closed
+     */
+    public void append(IngestBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            awaitRoom();
+            for (int i = 0; i < batch.size(); i++) {
+                if (!batch.isRejected(i)) {
+                    put(batch.patientIdAt(i), batch.recordTypeCodeAt(i), batch.timestampAt(i), batch.valueAt(i));
+                    appendedCount++;
+                }
+            }
+            awaitDurable(appendedCount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitRoom() {
+        checkWritable();
+        while (active.position() >= MAX_BUFFER_BYTES) {
+            // The flusher is behind; hold the writer back instead of growing without bound
+            pending.signal();
+            flushed.awaitUninterruptibly();
+            checkWritable();
+        }
+    }
+
+    private void put(int patientId, int recordTypeCode, long timestamp, double value) {
+        if (recordTypeCode >= definedInSegment.length || !definedInSegment[recordTypeCode]) {
+            writeTypeDefinition(recordTypeCode);
+        }
+        ensureRoom(READING_BYTES);
+        active.put(READING).putInt(patientId).putInt(recordTypeCode).putLong(timestamp).putDouble(value);
+        appendedPosition += READING_BYTES;
+    }
+
+    private void awaitDurable(long sequence) {
+        if (durability == Durability.SYNC) {
+            pending.signal();
+            while (flushedCount < sequence) {
+                flushed.awaitUninterruptibly();
+                checkFailure();
+            }
+        }
+    }
+
+    /**
+     * Gets the log position after the last appended entry. A snapshot that includes
+     * every reading appended so far can be completed by replaying from here.
+     *
+     * @return the current end of the log
+     */
+    public long getAppendedPosition() {
+        lock.lock();
+        try {
+            return appendedPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every reading appended so far has been written, and forced unless
+     * the durability level is {@link Durability#NONE}.
+     *
+     * @throws IOException if the log could not be written
+     */
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            long target = appendedCount;
+            pending.signal();
+            while (flushedCount < target && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replays the whole log into a storage.
+     *
+     * @param dataStorage the storage to rebuild; must not have this log attached
+     * @return the number of replayed readings
+     * @throws IOException if a segment cannot be read
+     */
+    public long replay(DataStorage dataStorage) throws IOException {
+        return replay(dataStorage, 0);
+    }
+
+    /**
+     * Replays every reading at or after a log position into a storage. Readings are
+     * added with the record type names they were logged with.
+     *
+     * @param dataStorage  the storage to rebuild; must not have this log attached
+     * @param fromPosition the first log position to replay
+     * @return the number of replayed readings
+     * @throws IOException if a segment cannot be read
+     */
+    public long replay(DataStorage dataStorage, long fromPosition) throws IOException {
+        return replay(dataStorage, fromPosition, false);
+    }
+
+    long replay(DataStorage dataStorage, long fromPosition, boolean skipStored) throws IOException {
+        flush();
+        List<Long> starts = segmentStarts(directory);
+        long replayed = 0;
+        for (int i = 0; i < starts.size(); i++) {
+            long start = starts.get(i);
+            if (i + 1 < starts.size() && starts.get(i + 1) <= fromPosition) {
+                continue; // Entirely before the requested position
+            }
+            replayed += replaySegment(segmentPath(directory, start), start, fromPosition, skipStored, dataStorage);
+        }
+        return replayed;
+    }
+
+    /**
+     * Deletes segments that only hold entries before a log position, typically the
+     * position a snapshot was taken at.
+     *
+     * @param position the log position everything before which is no longer needed
+     * @throws IOException if a segment cannot be deleted
+     */
+    public void deleteSegmentsBefore(long position) throws IOException {
+        List<Long> starts = segmentStarts(directory);
+        long current;
+        lock.lock();
+        try {
+            current = segmentStart;
+        } finally {
+            lock.unlock();
+        }
+        for (int i = 0; i + 1 < starts.size(); i++) {
+            if (starts.get(i + 1) <= position && starts.get(i) < current) {
+                Files.deleteIfExists(segmentPath(directory, starts.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Writes out everything appended so far and closes the log.
+     *
+     * @throws IOException if the last batch could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            lock.lock();
+            try {
+                closed = true;
+                pending.signal();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                flusher.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            segment.close();
+        }
+    }
+
+    private void writeTypeDefinition(int recordTypeCode) {
+        byte[] name = RecordTypeRegistry.getInstance().nameOf(recordTypeCode).getBytes(StandardCharsets.UTF_8);
+        int length = 1 + Integer.BYTES + Short.BYTES + name.length;
+        ensureRoom(length);
+        active.put(TYPE_DEFINITION).putInt(recordTypeCode).putShort((short) name.length).put(name);
+        appendedPosition += length;
+        if (recordTypeCode >= definedInSegment.length) {
+            boolean[] grown = new boolean[Math.max(recordTypeCode + 1, definedInSegment.length * 2)];
+            System.arraycopy(definedInSegment, 0, grown, 0, definedInSegment.length);
+            definedInSegment = grown;
+        }
+        definedInSegment[recordTypeCode] = true;
+    }
+
+    private void ensureRoom(int bytes) {
+        if (active.position() == 0) {
+            // Frame header space; filled in by the flusher
+            active.position(FRAME_HEADER_BYTES);
+            appendedPosition += FRAME_HEADER_BYTES;
+        }
+        if (active.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(active.capacity() * 2, active.position() + bytes));
+            active.flip();
+            grown.put(active);
+            active = grown;
+        }
+    }
+
+    private void checkWritable() {
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("Write-ahead log failed", failure);
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer batch;
+            long batchCount;
+            boolean roll;
+            lock.lock();
+            try {
+                while (active.position() == 0 && !closed) {
+                    pending.await(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+                if (active.position() == 0 && closed) {
+                    return;
+                }
+                batch = active;
+                active = spare;
+                spare = batch;
+                batchCount = appendedCount;
+                roll = segmentSize + batch.position() >= segmentBytes;
+                if (roll) {
+                    // Entries appended from now on go to the next segment and must define their types there
+                    definedInSegment = new boolean[definedInSegment.length];
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                writeFrame(batch);
+                if (roll) {
+                    rollSegment();
+                }
+            } catch (IOException e) {
+                error = e;
+                System.err.println("Error writing to write-ahead log: " + e.getMessage());
+            }
+
+            lock.lock();
+            try {
+                batch.clear();
+                if (error != null) {
+                    failure = error;
+                }
+                flushedCount = batchCount;
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void writeFrame(ByteBuffer batch) throws IOException {
+        int end = batch.position();
+        int payloadLength = end - FRAME_HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(batch.array(), FRAME_HEADER_BYTES, payloadLength);
+        batch.putInt(0, payloadLength);
+        batch.putInt(Integer.BYTES, (int) crc.getValue());
+        batch.flip();
+        while (batch.hasRemaining()) {
+            segment.write(batch);
+        }
+        segmentSize += end;
+        if (durability != Durability.NONE) {
+            segment.force(false);
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        segment.force(true);
+        segment.close();
+        segmentStart += segmentSize;
+        segmentSize = 0;
+        segment = FileChannel.open(segmentPath(directory, segmentStart),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private void openLastSegment() throws IOException {
+        List<Long> starts = segmentStarts(directory);
+        segmentStart = starts.isEmpty() ? 0 : starts.get(starts.size() - 1);
+        Path path = segmentPath(directory, segmentStart);
+        segment = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segmentSize = validLength(segment);
+        if (segmentSize < segment.size()) {
+            System.err.println("Truncating torn write-ahead log tail in " + path);
+            segment.truncate(segmentSize);
+        }
+        segment.position(segmentSize);
+        appendedPosition = segmentStart + segmentSize;
+    }
+
+    private static long validLength(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+        long position = 0;
+        long size = channel.size();
+        while (position + FRAME_HEADER_BYTES <= size) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(0);
+            if (length <= 0 || position + FRAME_HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            channel.read(payload, position + FRAME_HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != header.getInt(Integer.BYTES)) {
+                break;
+            }
+            position += FRAME_HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private static long replaySegment(Path path, long start, long fromPosition, boolean skipStored,
+            DataStorage dataStorage) throws IOException {
+        long replayed = 0;
+        RecordTypeRegistry recordTypes = RecordTypeRegistry.getInstance();
+        int[] localCodes = new int[0]; // Logged code -> code in this process
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long valid = validLength(channel);
+            ByteBuffer data = ByteBuffer.allocate((int) valid);
+            while (data.hasRemaining() && channel.read(data, data.position()) >= 0) {
+                // Keep reading until the valid part of the segment is loaded
+            }
+            data.flip();
+            while (data.hasRemaining()) {
+                int frameEnd = data.position() + FRAME_HEADER_BYTES + data.getInt();
+                data.getInt(); // CRC, already checked by validLength
+                while (data.position() < frameEnd) {
+                    long position = start + data.position();
+                    byte kind = data.get();
+                    if (kind == TYPE_DEFINITION) {
+                        int code = data.getInt();
+                        byte[] name = new byte[data.getShort()];
+                        data.get(name);
+                        if (code >= localCodes.length) {
+                            int[] grown = new int[code + 1];
+                            System.arraycopy(localCodes, 0, grown, 0, localCodes.length);
+                            localCodes = grown;
+                        }
+                        localCodes[code] = recordTypes.codeOf(new String(name, StandardCharsets.UTF_8));
+                    } else if (kind == READING) {
+                        int patientId = data.getInt();
+                        int code = data.getInt();
+                        long timestamp = data.getLong();
+                        double value = data.getDouble();
+                        if (position >= fromPosition
+                                && !(skipStored && isStored(dataStorage, patientId, localCodes[code], timestamp, value))) {
+                            dataStorage.addPatientData(patientId, value, localCodes[code], timestamp);
+                            replayed++;
+                        }
+                    } else {
+                        throw new IOException("Corrupt write-ahead log entry in " + path + " at " + position);
+                    }
+                }
+            }
+        }
+        return replayed;
+    }
+
+    private static boolean isStored(DataStorage dataStorage, int patientId, int recordTypeCode, long timestamp,
+            double value) {
+        Patient patient = dataStorage.getPatient(patientId);
+        return patient != null && patient.hasRecord(recordTypeCode, timestamp, value);
+    }
+
+    private static List<Long> segmentStarts(Path directory) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                starts.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        starts.sort(null);
+        return starts;
+    }
+
+    private static Path segmentPath(Path directory, long start) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, start, SEGMENT_SUFFIX));
+    }
+}
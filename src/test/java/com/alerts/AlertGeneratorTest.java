@@ -2,6 +2,7 @@ package com.alerts;
 
 import com.cardio_generator.outputs.OutputStrategy;
 import com.data_management.DataStorage;
+import com.data_management.EventTimePolicy;
 import com.data_management.FileDataReader;
 import com.data_management.Patient;
 import org.junit.jupiter.api.BeforeEach;
@@ -161,4 +162,55 @@ public class AlertGeneratorTest {
                    "Expected triggered alert with priority and repeat");
         outputStrategy.clear();
     }
-}
\ No newline at end of file
+
+    @Test
+    void testSecondEvaluationOnlySeesNewReadings() {
+        Patient patient = storage.getAllPatients().get(0);
+        alertGenerator.evaluateData(patient);
+        outputStrategy.clear();
+
+        alertGenerator.evaluateData(patient);
+        assertTrue(outputStrategy.getAlerts().isEmpty(), "Old readings must not alert again");
+
+        storage.addPatientData(patient.getPatientId(), 195.0, "BloodPressure", 1714376790000L);
+        alertGenerator.evaluateData(patient);
+        assertTrue(outputStrategy.getAlerts().stream()
+                .anyMatch(alert -> alert.contains("Critical: Systolic BP above 180 mmHg")));
+        assertFalse(outputStrategy.getAlerts().stream()
+                .anyMatch(alert -> alert.contains("Critical: Systolic BP below 90 mmHg")));
+    }
+
+    @Test
+    void testEventTimeEvaluationWaitsForTheWatermark() {
+        storage.clear();
+        storage.setEventTimePolicy(new EventTimePolicy(5_000, 60_000));
+        try {
+            AlertGenerator eventTimeGenerator = new AlertGenerator(storage, outputStrategy, true);
+            storage.addPatientData(42, 120.0, "BloodPressure", 10_000L);
+            storage.addPatientData(42, 195.0, "BloodPressure", 20_000L); // Ahead of the watermark
+            Patient patient = storage.getPatient(42);
+            eventTimeGenerator.evaluateData(patient);
+            assertFalse(outputStrategy.getAlerts().stream().anyMatch(alert -> alert.contains("above 180")));
+
+            storage.addPatientData(42, 80.0, "BloodPressure", 12_000L); // Late, but behind the new watermark
+            storage.addPatientData(42, 121.0, "BloodPressure", 30_000L);
+            eventTimeGenerator.evaluateData(patient);
+            List<String> alerts = outputStrategy.getAlerts();
+            int low = indexOf(alerts, "below 90");
+            int high = indexOf(alerts, "above 180");
+            assertTrue(low >= 0 && high > low, "Readings must be evaluated in timestamp order: " + alerts);
+        } finally {
+            storage.setEventTimePolicy(null);
+            storage.clear();
+        }
+    }
+
+    private static int indexOf(List<String> alerts, String condition) {
+        for (int i = 0; i < alerts.size(); i++) {
+            if (alerts.get(i).contains(condition)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,43 @@
+package com.cardio_generator.outputs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplayBufferTest {
+
+    @Test
+    void testReplaysEachLabelAfterItsOwnLastReading() {
+        ReplayBuffer buffer = new ReplayBuffer(8);
+        buffer.add(1, 2000L, "HeartRate", "72.0");
+        buffer.add(1, 1500L, "Saturation", "97.0%"); // Sent after HeartRate, with an older timestamp
+        buffer.add(1, 2100L, "HeartRate", "73.0");
+        buffer.add(2, 1000L, "ECG", "0.5");
+
+        // The client had the first HeartRate reading only
+        Map<Integer, Map<String, Long>> lastSeen = new HashMap<>();
+        lastSeen.computeIfAbsent(1, id -> new HashMap<>()).put("HeartRate", 2000L);
+        ReplayBuffer.Replay replay = buffer.after(lastSeen);
+
+        assertEquals(3, replay.size);
+        assertEquals("Saturation", replay.labels[0]);
+        assertEquals(1500L, replay.timestamps[0]);
+        assertEquals(2100L, replay.timestamps[1]);
+        assertEquals(2, replay.patientIds[2]);
+    }
+
+    @Test
+    void testResumeRequestRoundTripsLabels() {
+        Map<Integer, Map<String, Long>> lastSeen = new HashMap<>();
+        lastSeen.computeIfAbsent(3, id -> new HashMap<>()).put("Saturation", 1500L);
+        lastSeen.get(3).put("HeartRate", 2000L);
+        String request = WebSocketOutputStrategy.resumeRequest(lastSeen);
+
+        assertTrue(request.startsWith("RESUME "));
+        assertTrue(request.contains("3:Saturation:1500"));
+        assertTrue(request.contains("3:HeartRate:2000"));
+    }
+}
@@ -1,10 +1,26 @@
 package com.data_management;
 
+import com.cardio_generator.outputs.AsyncOutputStrategy;
+import com.cardio_generator.outputs.OutputStrategy;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class DataStorageTest {
+    @AfterEach
+    void tearDown() {
+        DataStorage.getInstance().setOutputStrategy(null);
+        DataStorage.getInstance().setShardCount(0);
+        DataStorage.getInstance().setDuplicateSuppression(false);
+    }
+
     @Test
     void testAddAndGetPatientData() {
         DataStorage storage = DataStorage.getInstance(); // Use Singleton
@@ -13,4 +29,388 @@ public class DataStorageTest {
         assertNotNull(patient);
         assertEquals(1, patient.getPatientId());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testReadersSeeOrderedRecordsWhileWriting() throws InterruptedException {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 20_000; i++) {
+                // Every tenth reading arrives late to exercise inserts under concurrent reads
+                long timestamp = i % 10 == 9 ? i - 5 : i;
+                storage.addPatientData(7, i, "ECG", timestamp);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            List<PatientRecord> records = storage.getRecords(7, 0, Long.MAX_VALUE);
+            for (int i = 1; i < records.size(); i++) {
+                if (records.get(i).getTimestamp() < records.get(i - 1).getTimestamp()) {
+                    failed.set(true);
+                }
+            }
+        }
+        writer.join();
+        assertFalse(failed.get(), "Readers must never observe unordered records");
+        assertEquals(20_000, storage.getRecords(7, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testReadingsAreRebroadcastAsynchronously() throws InterruptedException {
+        DataStorage storage = DataStorage.getInstance();
+        CountDownLatch received = new CountDownLatch(1);
+        OutputStrategy recordingOutput = (patientId, timestamp, label, data) -> received.countDown();
+        AsyncOutputStrategy asyncOutput = new AsyncOutputStrategy(recordingOutput);
+        storage.setOutputStrategy(asyncOutput);
+
+        storage.addPatientData(2, 98.0, "Saturation", 1000L);
+
+        assertTrue(received.await(5, TimeUnit.SECONDS), "Expected the reading to be re-broadcast");
+        asyncOutput.close();
+    }
+
+    @Test
+    void testRecordsSinceCursorOnlyReturnsNewReadings() {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        storage.addPatientData(5, 1.0, "ECG", 1000L);
+        storage.addPatientData(5, 2.0, "ECG", 2000L);
+
+        RecordDelta first = storage.getRecordsSince(5, 0);
+        assertTrue(first.isResync());
+        assertEquals(2, first.getRecords().size());
+        assertEquals(2, first.getCursor());
+
+        storage.addPatientData(5, 3.0, "ECG", 3000L);
+        storage.addPatientData(5, 0.5, "ECG", 500L); // Late reading
+        storage.addPatientData(5, 97.0, "Saturation", 3000L);
+        RecordDelta second = storage.getRecordsSince(5, first.getCursor(), RecordTypeRegistry.getInstance().codeOf("ECG"));
+        assertFalse(second.isResync());
+        assertEquals(2, second.getRecords().size());
+        assertEquals(3.0, second.getRecords().get(0).getMeasurementValue());
+        assertEquals(500L, second.getRecords().get(1).getTimestamp());
+        assertEquals(5, second.getCursor());
+
+        assertTrue(storage.getRecordsSince(5, second.getCursor()).getRecords().isEmpty());
+        storage.clear();
+    }
+
+    @Test
+    void testCursorThatFellBehindResyncs() {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        storage.addPatientData(6, 1.0, "ECG", 0L);
+        long cursor = storage.getRecordsSince(6, 0).getCursor();
+        for (int i = 1; i <= Patient.JOURNAL_CAPACITY + 10; i++) {
+            storage.addPatientData(6, i, "ECG", i);
+        }
+
+        RecordDelta delta = storage.getRecordsSince(6, cursor);
+        assertTrue(delta.isResync());
+        assertEquals(Patient.JOURNAL_CAPACITY + 11, delta.getRecords().size());
+        assertEquals(storage.getPatient(6).getSequence(), delta.getCursor());
+        storage.clear();
+    }
+
+    @Test
+    void testLaggingCursorNeverSeesOverwrittenReadings() throws InterruptedException {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        int ecg = RecordTypeRegistry.getInstance().codeOf("ECG");
+        int saturation = RecordTypeRegistry.getInstance().codeOf("Saturation");
+        storage.addPatientData(7, 1.0, "Saturation", 1L);
+        storage.getRecordsSince(7, 0); // Creates the journal
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            // Runs of a batch are written under one lock, so they overwrite many slots at once
+            IngestBatch batch = new IngestBatch(700);
+            for (long timestamp = 2; timestamp <= 300_000; timestamp++) {
+                batch.add(7, timestamp, timestamp % 2 == 0 ? ecg : saturation, timestamp);
+                if (batch.size() == 700) {
+                    storage.addPatientData(batch);
+                    batch.clear();
+                }
+            }
+            storage.addPatientData(batch);
+            done.set(true);
+        });
+        writer.start();
+
+        // A reading's sequence number equals its timestamp and value, so any reading taken
+        // from a slot that was overwritten, or only partly written, is out of place
+        Patient patient = storage.getPatient(7);
+        int checked = 0;
+        while (!done.get()) {
+            long cursor = Math.max(1, patient.getSequence() - Patient.JOURNAL_CAPACITY + 50);
+            RecordDelta delta = patient.getRecordsSince(cursor);
+            if (delta.isResync()) {
+                continue;
+            }
+            List<PatientRecord> records = delta.getRecords();
+            for (int k = 0; k < records.size(); k++) {
+                PatientRecord record = records.get(k);
+                long expected = cursor + 1 + k;
+                assertEquals(expected, record.getTimestamp());
+                assertEquals(expected, record.getMeasurementValue());
+                assertEquals(expected % 2 == 0 ? ecg : saturation, record.getRecordTypeCode());
+            }
+            checked++;
+        }
+        writer.join();
+        assertTrue(checked > 0);
+        storage.clear();
+    }
+
+    @Test
+    void testLatestValuesIgnoreLateReadings() {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        int ecg = RecordTypeRegistry.getInstance().codeOf("ECG");
+        assertTrue(Double.isNaN(storage.getLatestValue(8, ecg)));
+        assertNull(storage.getLatestRecord(8, ecg));
+
+        storage.addPatientData(8, 1.0, "ECG", 2000L);
+        storage.addPatientData(8, 2.0, "ECG", 1000L); // Late reading
+        storage.addPatientData(8, 97.0, "Saturation", 3000L);
+        assertEquals(1.0, storage.getLatestValue(8, ecg));
+        assertEquals(2000L, storage.getLatestRecord(8, ecg).getTimestamp());
+
+        // More patients than fit in one page of the table
+        for (int id = 100; id < 700; id++) {
+            storage.addPatientData(id, id, "ECG", 5000L);
+        }
+        List<PatientRecord> latest = storage.getLatestRecords(ecg);
+        assertEquals(601, latest.size());
+        assertEquals(8, latest.get(0).getPatientId());
+        assertEquals(699.0, latest.get(600).getMeasurementValue());
+        assertEquals(699, latest.get(600).getPatientId());
+
+        storage.clear();
+        assertTrue(storage.getLatestRecords(ecg).isEmpty());
+    }
+
+    @Test
+    void testPopulationQueriesFollowLatestValues() {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        int saturation = RecordTypeRegistry.getInstance().codeOf("Saturation");
+        for (int id = 1; id <= 300; id++) {
+            storage.addPatientData(id, 80 + id % 20, "Saturation", 1000L);
+        }
+        assertEquals(45, storage.getPatientsBelow(saturation, 83).size()); // 80, 81 and 82
+        assertEquals(80.0, storage.getPatientsBelow(saturation, 83).get(0).getMeasurementValue());
+
+        // A newer reading moves the patient; a late one does not
+        storage.addPatientData(20, 99.5, "Saturation", 2000L);
+        storage.addPatientData(20, 70.0, "Saturation", 1500L);
+        List<PatientRecord> top = storage.getHighestLatest(saturation, 3);
+        assertEquals(3, top.size());
+        assertEquals(20, top.get(0).getPatientId());
+        assertEquals(2000L, top.get(0).getTimestamp());
+        assertEquals(99.0, top.get(1).getMeasurementValue());
+        assertEquals(44, storage.getPatientsBelow(saturation, 83).size());
+        assertEquals(1, storage.getPatientsAbove(saturation, 99).size());
+        assertEquals(80.0, storage.getLowestLatest(saturation, 1).get(0).getMeasurementValue());
+        assertTrue(storage.getPatientsBelow(RecordTypeRegistry.getInstance().codeOf("ECG"), 1).isEmpty());
+
+        storage.clear();
+        assertTrue(storage.getHighestLatest(saturation, 5).isEmpty());
+    }
+
+    @Test
+    void testLatestValueReadsAreNeverTorn() throws InterruptedException {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        int ecg = RecordTypeRegistry.getInstance().codeOf("ECG");
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= 50_000; i++) {
+                storage.addPatientData(9, i, "ECG", i);
+            }
+        });
+        writer.start();
+        long previous = 0;
+        while (writer.isAlive()) {
+            PatientRecord record = storage.getLatestRecord(9, ecg);
+            if (record != null) {
+                if (record.getTimestamp() != (long) record.getMeasurementValue() || record.getTimestamp() < previous) {
+                    failed.set(true);
+                }
+                previous = record.getTimestamp();
+            }
+        }
+        writer.join();
+        assertFalse(failed.get());
+        assertEquals(50_000.0, storage.getLatestValue(9, ecg));
+        storage.clear();
+    }
+
+    @Test
+    void testBatchGroupsReadingsByPatient() {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        List<Integer> broadcast = new java.util.ArrayList<>();
+        storage.setOutputStrategy((patientId, timestamp, label, data) -> broadcast.add(patientId));
+
+        IngestBatch batch = new IngestBatch(2); // Grows while it is filled
+        batch.add(11, 1.0, "ECG", 3000L);
+        batch.add(-4, 2.0, "ECG", 1000L);
+        batch.add(11, 2.0, "ECG", 1000L); // Late reading
+        batch.add(11, 97.0, "Saturation", 2000L);
+        batch.add(-4, 3.0, "ECG", 2000L);
+        storage.addPatientData(batch);
+
+        List<PatientRecord> records = storage.getRecords(11, 0, Long.MAX_VALUE);
+        assertEquals(3, records.size());
+        assertEquals(1000L, records.get(0).getTimestamp());
+        assertEquals(3, storage.getPatient(11).getSequence());
+        assertEquals(2, storage.getRecords(-4, 0, Long.MAX_VALUE).size());
+        assertEquals(1.0, storage.getLatestValue(11, RecordTypeRegistry.getInstance().codeOf("ECG")));
+        assertEquals(List.of(11, -4, 11, 11, -4), broadcast); // Re-broadcast in batch order
+
+        batch.clear();
+        storage.addPatientData(batch);
+        assertEquals(5, broadcast.size());
+        storage.clear();
+    }
+
+    @Test
+    void testShardedIngestStoresEveryReadingInOrder() throws InterruptedException {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        storage.setShardCount(4);
+        assertEquals(4, storage.getShardCount());
+
+        Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++) {
+            int producer = p;
+            producers[p] = new Thread(() -> {
+                IngestBatch batch = new IngestBatch();
+                for (int i = 0; i < 5_000; i++) {
+                    // Each producer owns ten patients and alternates single readings with batches
+                    int patientId = producer * 10 + i % 10;
+                    if (i % 2 == 0) {
+                        storage.addPatientData(patientId, i, "ECG", i);
+                    } else {
+                        batch.add(patientId, i, "ECG", i);
+                        storage.addPatientData(batch);
+                        batch.clear();
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        storage.awaitIngested();
+
+        assertEquals(40, storage.getAllPatients().size());
+        for (Patient patient : storage.getAllPatients()) {
+            List<PatientRecord> records = patient.getRecords(0, Long.MAX_VALUE);
+            assertEquals(500, records.size());
+            for (int i = 1; i < records.size(); i++) {
+                assertTrue(records.get(i - 1).getTimestamp() < records.get(i).getTimestamp());
+            }
+        }
+
+        storage.setShardCount(0);
+        storage.addPatientData(99, 1.0, "ECG", 1L);
+        assertNotNull(storage.getPatient(99)); // Stored on the calling thread again
+        storage.clear();
+    }
+
+    @Test
+    void testReshardingWhileIngestingKeepsEveryReadingInOrder() throws InterruptedException {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        // Without out-of-orderness any reading stored after a newer one of its patient is dropped
+        storage.setEventTimePolicy(new EventTimePolicy(0, 0));
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++) {
+            int producer = p;
+            producers[p] = new Thread(() -> {
+                try {
+                    IngestBatch batch = new IngestBatch();
+                    for (int i = 0; i < 20_000; i++) {
+                        int patientId = producer * 10 + i % 10;
+                        if (i % 50 == 0) {
+                            storage.addPatientData(patientId, i, "ECG", i);
+                            continue;
+                        }
+                        batch.add(patientId, i, "ECG", i);
+                        if (batch.size() == 49) {
+                            storage.addPatientData(batch);
+                            batch.clear();
+                        }
+                    }
+                    storage.addPatientData(batch);
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                }
+            });
+            producers[p].start();
+        }
+        int[] counts = {3, 0, 1, 4, 2};
+        for (int swap = 0; Arrays.stream(producers).anyMatch(Thread::isAlive); swap++) {
+            storage.setShardCount(counts[swap % counts.length]);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        storage.awaitIngested();
+
+        assertFalse(failed.get(), "Producers must not see closed shards");
+        assertEquals(40, storage.getAllPatients().size());
+        for (Patient patient : storage.getAllPatients()) {
+            assertEquals(0, patient.getDroppedCount());
+            assertEquals(2_000, patient.getRecords(0, Long.MAX_VALUE).size());
+        }
+        storage.setEventTimePolicy(null);
+        storage.clear();
+    }
+
+    @Test
+    void testDuplicateSuppressionDropsReplayedReadings() {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        storage.setDuplicateSuppression(true);
+        List<Integer> broadcast = new java.util.ArrayList<>();
+        storage.setOutputStrategy((patientId, timestamp, label, data) -> broadcast.add(patientId));
+
+        for (int i = 0; i < 5_000; i++) {
+            storage.addPatientData(12, i, "ECG", i * 4L);
+        }
+        // A reconnect replays the last second, one reading twice, plus a reading that is new
+        for (int i = 4_750; i < 5_000; i++) {
+            storage.addPatientData(12, i, "ECG", i * 4L);
+        }
+        storage.addPatientData(12, 4_999, "ECG", 4_999 * 4L);
+        storage.addPatientData(12, -1, "ECG", 4_750 * 4L + 1);
+        // Older than the filter remembers; found by the exact lookup
+        storage.addPatientData(12, 3, "ECG", 12L);
+        // Same timestamp, other record type
+        storage.addPatientData(12, 97, "Saturation", 12L);
+
+        assertEquals(5_002, storage.getRecords(12, 0, Long.MAX_VALUE).size());
+        assertEquals(252, storage.getDuplicateCount());
+        assertEquals(5_002, broadcast.size());
+
+        // A file imported twice through the batch path
+        IngestBatch batch = new IngestBatch();
+        batch.add(13, 1.0, "ECG", 100L);
+        batch.add(13, 2.0, "ECG", 200L);
+        storage.addPatientData(batch);
+        storage.addPatientData(batch);
+        assertEquals(2, storage.getRecords(13, 0, Long.MAX_VALUE).size());
+        assertEquals(2, storage.getPatient(13).getDuplicateCount());
+        assertEquals(5_004, broadcast.size());
+
+        storage.setDuplicateSuppression(false);
+        storage.addPatientData(13, 2.0, "ECG", 200L);
+        assertEquals(3, storage.getRecords(13, 0, Long.MAX_VALUE).size());
+        storage.clear();
+    }
+}
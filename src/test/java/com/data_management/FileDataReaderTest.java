@@ -1,15 +1,26 @@
 package com.data_management;
 
+import com.cardio_generator.outputs.FileOutputStrategy;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
 
 public class FileDataReaderTest {
     private DataStorage dataStorage;
@@ -63,4 +74,180 @@ public class FileDataReaderTest {
             fileDataReader.readData(dataStorage);
         }, "Expected IllegalArgumentException for malformed data");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testImportDataMatchesReadData(@TempDir Path tempDir) throws IOException {
+        Path tempFile = tempDir.resolve("history.txt");
+        Random random = new Random(3);
+        List<String> lines = new ArrayList<>();
+        String[] types = {"HeartRate", "Saturation", "ECG", "BloodPressure"};
+        for (int i = 0; i < 5_000; i++) {
+            double value = i % 7 == 0 ? random.nextGaussian() * 1e-7 : Math.round(random.nextDouble() * 1e4) / 100.0;
+            lines.add((i % 50) + "," + value + "," + types[i % types.length] + "," + (1_000L + i));
+            if (i % 1000 == 0) {
+                lines.add(" 3 , -12.5 , HeartRate , 99\r"); // Spaces, a negative value and a carriage return
+                lines.add("");
+            }
+        }
+        Files.write(tempFile, lines);
+
+        new FileDataReader(tempFile.toString()).readData(dataStorage);
+        List<PatientRecord> expected = dataStorage.getRecords(3, 0, Long.MAX_VALUE);
+        dataStorage.clear();
+
+        fileDataReader = new FileDataReader(tempFile.toString());
+        fileDataReader.setChunkBytes(4096); // Many chunks, most ending mid-line
+        ImportReport report = fileDataReader.importData(dataStorage, 4);
+        assertEquals(5_005, report.getReadings());
+        assertEquals(Files.size(tempFile), report.getBytes());
+        assertTrue(report.getChunks() > 10);
+        assertEquals(50, dataStorage.getAllPatients().size());
+
+        List<PatientRecord> imported = dataStorage.getRecords(3, 0, Long.MAX_VALUE);
+        assertEquals(expected.size(), imported.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTimestamp(), imported.get(i).getTimestamp());
+            assertEquals(expected.get(i).getMeasurementValue(), imported.get(i).getMeasurementValue());
+            assertEquals(expected.get(i).getRecordTypeCode(), imported.get(i).getRecordTypeCode());
+        }
+    }
+
+    @Test
+    void testImportDataReportsFirstMalformedLine(@TempDir Path tempDir) throws IOException {
+        Path tempFile = tempDir.resolve("malformed_history.txt");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            lines.add(i == 1_500 ? "1,abc,HeartRate,1" : i == 1_800 ? "1,2,3" : "2,70.0,HeartRate," + i);
+        }
+        Files.write(tempFile, lines);
+
+        fileDataReader = new FileDataReader(tempFile.toString());
+        fileDataReader.setChunkBytes(1024);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> fileDataReader.importData(dataStorage, 3));
+        assertTrue(e.getMessage().contains("1,abc,HeartRate,1"));
+        assertTrue(dataStorage.getRecords(2, 0, Long.MAX_VALUE).size() >= 1_500); // Other chunks are imported
+    }
+
+    @Test
+    @Timeout(30)
+    void testStreamingTailsFilesOfBothLayouts(@TempDir Path tempDir) throws Exception {
+        FileOutputStrategy simulator = new FileOutputStrategy(tempDir.toString());
+        simulator.output(41, 1000L, "HeartRate", "72.0");
+        fileDataReader = new FileDataReader(tempDir.toString());
+        try {
+            fileDataReader.startStreaming(dataStorage);
+            awaitReadings(41, 1);
+
+            simulator.output(41, 2000L, "Saturation", "97.0%");
+            Path csv = tempDir.resolve("history.csv");
+            append(csv, "42,120.0,SystolicPressure,1000\n42,80.0,Diastolic"); // The second line is not complete
+            awaitReadings(41, 2);
+            awaitReadings(42, 1);
+            append(csv, "Pressure,1000\nnot a reading\n");
+            awaitReadings(42, 2);
+            assertEquals(4, fileDataReader.getStreamedReadingCount());
+        } finally {
+            fileDataReader.close();
+        }
+        double[] values = dataStorage.getRecords(41, 0, Long.MAX_VALUE).stream()
+                .mapToDouble(PatientRecord::getMeasurementValue).toArray();
+        assertArrayEquals(new double[]{72, 97}, values);
+        assertTrue(Files.exists(tempDir.resolve(".offsets")));
+    }
+
+    @Test
+    @Timeout(30)
+    void testStreamingResumesFromSavedOffsets(@TempDir Path tempDir) throws Exception {
+        Path data = tempDir.resolve("data");
+        Files.createDirectories(data);
+        Path file = data.resolve("ECG.txt");
+        append(file, "43,1000,ECG,0.5\n43,2000,ECG,0.6\n");
+        fileDataReader = new FileDataReader(file.toString());
+        fileDataReader.setOffsetsFile(tempDir.resolve("offsets"));
+        try {
+            fileDataReader.startStreaming(dataStorage);
+            awaitReadings(43, 2);
+        } finally {
+            fileDataReader.close(); // Saves the offsets
+        }
+
+        append(file, "43,3000,ECG,0.7\n");
+        dataStorage.clear();
+        fileDataReader = new FileDataReader(file.toString());
+        fileDataReader.setOffsetsFile(tempDir.resolve("offsets"));
+        try {
+            fileDataReader.startStreaming(dataStorage);
+            awaitReadings(43, 1);
+            Thread.sleep(300); // A pass over the whole file would have stored the old lines by now
+            assertEquals(1, fileDataReader.getStreamedReadingCount());
+        } finally {
+            fileDataReader.close();
+        }
+        assertEquals(3000L, dataStorage.getRecords(43, 0, Long.MAX_VALUE).get(0).getTimestamp());
+    }
+
+    @Test
+    @Timeout(30)
+    void testStreamingStoresLongBacklogInBatches(@TempDir Path tempDir) throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            lines.add("44," + i + ",ECG,0.5");
+        }
+        Files.write(tempDir.resolve("ECG.txt"), lines);
+        DataStorage storage = mock(DataStorage.class);
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> batchSizes.add(invocation.<IngestBatch>getArgument(0).size()))
+                .when(storage).addPatientData(any(IngestBatch.class));
+
+        fileDataReader = new FileDataReader(tempDir.toString());
+        try {
+            fileDataReader.startStreaming(storage);
+            while (fileDataReader.getStreamedReadingCount() < lines.size()) {
+                Thread.sleep(10);
+            }
+        } finally {
+            fileDataReader.close();
+        }
+        // Stored after each buffer that filled the batch, not once the whole file is read
+        assertTrue(batchSizes.size() >= 3, "Stored in " + batchSizes);
+        for (int size : batchSizes) {
+            assertTrue(size < 2 * 4096, "Batch of " + size);
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testStreamingRereadsReplacedFile(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("ECG.txt");
+        append(file, "45,1000,ECG,0.5\n");
+        fileDataReader = new FileDataReader(tempDir.toString());
+        try {
+            fileDataReader.startStreaming(dataStorage);
+            awaitReadings(45, 1);
+
+            // A new file under the same name, longer than the old offset
+            Path replacement = tempDir.resolve(".ECG.tmp");
+            append(replacement, "45,2000,ECG,0.6\n45,3000,ECG,0.7\n");
+            Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            awaitReadings(45, 3);
+        } finally {
+            fileDataReader.close();
+        }
+        long[] timestamps = dataStorage.getRecords(45, 0, Long.MAX_VALUE).stream()
+                .mapToLong(PatientRecord::getTimestamp).toArray();
+        assertArrayEquals(new long[]{1000, 2000, 3000}, timestamps);
+    }
+
+    private static void append(Path file, String text) throws IOException {
+        Files.write(file, text.getBytes(StandardCharsets.US_ASCII), StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    private void awaitReadings(int patientId, int count) throws InterruptedException {
+        while (dataStorage.getPatient(patientId) == null
+                || dataStorage.getRecords(patientId, 0, Long.MAX_VALUE).size() < count) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.data_management;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GorillaCodecTest {
+    private static final int SIZE = RecordSeries.CHUNK_SIZE;
+
+    @Test
+    void testRoundTripOfIrregularData() {
+        Random random = new Random(3);
+        long[] timestamps = new long[SIZE];
+        double[] values = new double[SIZE];
+        long time = -5_000;
+        for (int i = 0; i < SIZE; i++) {
+            // Mix regular steps, jitter, repeats and huge jumps
+            time += i % 50 == 0 ? random.nextInt(Integer.MAX_VALUE) : i % 3 == 0 ? 0 : 1000 + random.nextInt(3000);
+            timestamps[i] = time;
+            values[i] = i % 7 == 0 ? Double.NaN : i % 5 == 0 ? values[Math.max(0, i - 1)] : random.nextGaussian() * 1e6;
+        }
+        values[1] = Double.NEGATIVE_INFINITY;
+        values[2] = -0.0;
+
+        long[] decodedTimestamps = new long[SIZE];
+        double[] decodedValues = new double[SIZE];
+        GorillaCodec.decode(GorillaCodec.encode(timestamps, values, SIZE), SIZE, decodedTimestamps, decodedValues);
+        assertArrayEquals(timestamps, decodedTimestamps);
+        for (int i = 0; i < SIZE; i++) {
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decodedValues[i]));
+        }
+    }
+
+    @Test
+    void testRegularSignalsCompressTenfold() {
+        Random random = new Random(11);
+        RecordSeries saturation = new RecordSeries(0);
+        RecordSeries ecg = new RecordSeries(1);
+        int readings = 100 * SIZE;
+        double level = 97;
+        for (int i = 0; i < readings; i++) {
+            if (i % 60 == 0) {
+                level = Math.min(100, Math.max(90, level + random.nextInt(3) - 1));
+            }
+            saturation.add(level, 1_700_000_000_000L + i * 1000L + random.nextInt(3));
+            // A 12-bit ADC sample at 250 Hz
+            ecg.add(2048 + Math.round(600 * Math.sin(i / 10.0)) + random.nextInt(16), 1_700_000_000_000L + i * 4L);
+        }
+        // A PatientRecord costs about 40 bytes per reading
+        assertTrue(saturation.chunkBytes() * 10 <= readings * 40L, "Saturation: " + saturation.chunkBytes());
+        assertTrue(ecg.chunkBytes() * 10 <= readings * 40L, "ECG: " + ecg.chunkBytes());
+    }
+
+    @Test
+    void testLateInsertIntoSealedChunk() {
+        Patient patient = new Patient(1);
+        for (int i = 0; i < 4 * SIZE; i++) {
+            patient.addRecord(i, "ECG", i * 10L);
+        }
+        patient.addRecord(-1, "ECG", 15L); // Lands in the first, sealed chunk
+        patient.addRecord(-2, "ECG", 10L * SIZE * 2 + 5); // Lands in the third
+
+        List<PatientRecord> records = patient.getRecords(0, Long.MAX_VALUE);
+        assertEquals(4 * SIZE + 2, records.size());
+        for (int i = 1; i < records.size(); i++) {
+            assertTrue(records.get(i - 1).getTimestamp() <= records.get(i).getTimestamp());
+        }
+        assertEquals(-1.0, records.get(2).getMeasurementValue());
+        assertEquals(2, patient.getRecords(15, 20).size());
+        assertEquals(SIZE - 1.0, records.get(SIZE).getMeasurementValue());
+    }
+}
@@ -0,0 +1,76 @@
+package com.data_management;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatestValueTableTest {
+
+    @Test
+    void testReadsWhileClearing() throws InterruptedException {
+        LatestValueTable table = new LatestValueTable(new PopulationIndex());
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                while (!done.get()) {
+                    try {
+                        table.getValue(9, 0);
+                        table.getRecord(9, 0);
+                    } catch (RuntimeException e) {
+                        failed.set(true);
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+        while (System.nanoTime() < deadline && !failed.get()) {
+            table.update(9, 0, 1000L, 1.0);
+            table.clear(); // Drops the slot a reader may have just looked up
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertFalse(failed.get(), "Reads must not fail while the table is cleared");
+    }
+
+    @Test
+    void testNewPatientsDoNotDeadlockWithClear() throws InterruptedException {
+        LatestValueTable table = new LatestValueTable(new PopulationIndex());
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int id = 0; !done.get(); id++) {
+                table.update(id, 0, 1000L, id); // Every reading is of a new patient
+            }
+        });
+        writer.setDaemon(true);
+        writer.start();
+        Thread clearer = new Thread(() -> {
+            for (int i = 0; i < 20_000; i++) {
+                table.clear();
+            }
+        });
+        clearer.setDaemon(true);
+        clearer.start();
+        clearer.join(TimeUnit.SECONDS.toMillis(10));
+        done.set(true);
+        writer.join(TimeUnit.SECONDS.toMillis(1));
+        assertFalse(clearer.isAlive() || writer.isAlive(), "Ingest and clear deadlocked");
+
+        table.clear();
+        for (int id = 0; id < 600; id++) {
+            table.update(1000 + id, 0, 1000L, id);
+        }
+        List<PatientRecord> records = table.getRecordsByType(0);
+        assertEquals(600, records.size());
+        assertEquals(1599, records.get(599).getPatientId());
+        assertEquals(599.0, records.get(599).getMeasurementValue());
+    }
+}
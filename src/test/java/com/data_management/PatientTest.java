@@ -42,4 +42,142 @@ public class PatientTest {
             patient.getRecords(3000L, 2000L);
         }, "Expected IllegalArgumentException for invalid time range (start > end)");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testGetRecordsMergesRecordTypesInTimeOrder() {
+        patient.addRecord(70.0, "HeartRate", 3000L);
+        patient.addRecord(120.0, "BloodPressure", 1000L);
+        patient.addRecord(80.0, "DiastolicBloodPressure", 1000L);
+        patient.addRecord(72.0, "HeartRate", 2000L); // Arrives late
+
+        List<PatientRecord> records = patient.getRecords(0L, 5000L);
+        assertEquals(4, records.size());
+        assertEquals("BloodPressure", records.get(0).getRecordType());
+        assertEquals("DiastolicBloodPressure", records.get(1).getRecordType());
+        assertEquals(72.0, records.get(2).getMeasurementValue());
+        assertEquals(3000L, records.get(3).getTimestamp());
+    }
+
+    @Test
+    void testGetRecordsAcrossManyChunks() {
+        for (int i = 0; i < 5000; i++) {
+            patient.addRecord(i, "ECG", 10_000L + i);
+        }
+
+        List<PatientRecord> records = patient.getRecords(12_000L, 13_499L);
+        assertEquals(1500, records.size());
+        assertEquals(12_000L, records.get(0).getTimestamp());
+        assertEquals(3499.0, records.get(1499).getMeasurementValue());
+        assertEquals(1, records.get(0).getPatientId());
+    }
+
+    @Test
+    void testGetRecordsByTypeReturnsOnlyRequestedTypes() {
+        RecordTypeRegistry recordTypes = RecordTypeRegistry.getInstance();
+        patient.addRecord(120.0, "SystolicBloodPressure", 1000L);
+        patient.addRecord(97.0, "BloodSaturation", 1500L);
+        patient.addRecord(80.0, "DiastolicBloodPressure", 2000L);
+
+        List<PatientRecord> records = patient.getRecordsByType(0L, 5000L,
+                recordTypes.codeOf("DiastolicBloodPressure"), recordTypes.codeOf("SystolicBloodPressure"));
+        assertEquals(2, records.size());
+        assertEquals("SystolicBloodPressure", records.get(0).getRecordType());
+        assertEquals(recordTypes.codeOf("DiastolicBloodPressure"), records.get(1).getRecordTypeCode());
+        assertEquals("DiastolicBloodPressure", recordTypes.nameOf(records.get(1).getRecordTypeCode()));
+    }
+
+    @Test
+    void testEventTimePolicyBoundsLateReadings() {
+        patient.setEventTimePolicy(new EventTimePolicy(1_000, 10_000));
+        patient.addRecord(1.0, "ECG", 20_000L);
+        assertEquals(19_000L, patient.getWatermark());
+
+        patient.addRecord(2.0, "ECG", 19_500L); // Out of order, but ahead of the watermark
+        patient.addRecord(3.0, "ECG", 12_000L); // Late, within the allowed lateness
+        patient.addRecord(4.0, "ECG", 8_000L); // Too late
+        assertEquals(1, patient.getLateCount());
+        assertEquals(1, patient.getDroppedCount());
+        assertEquals(3, patient.getSequence());
+
+        List<PatientRecord> records = patient.getRecords(0L, Long.MAX_VALUE);
+        assertEquals(3, records.size());
+        assertEquals(12_000L, records.get(0).getTimestamp());
+        assertEquals(19_500L, records.get(1).getTimestamp());
+    }
+
+    @Test
+    void testChunksStayOpenWithinAllowedLateness() {
+        int size = RecordSeries.CHUNK_SIZE;
+        patient.setEventTimePolicy(new EventTimePolicy(0, 2L * size));
+        for (int i = 0; i < 8 * size; i++) {
+            patient.addRecord(i % 7, "ECG", i);
+        }
+        // Chunks holding readings within the allowed lateness stay uncompressed
+        assertEquals(5, patient.getSeries()[0].sealedChunkCount());
+
+        patient.addRecord(-1.0, "ECG", 6L * size + 1); // Late insert into an open chunk
+        List<PatientRecord> records = patient.getRecords(6L * size, 6L * size + 2);
+        assertEquals(4, records.size());
+        assertEquals(-1.0, records.get(2).getMeasurementValue());
+    }
+
+    @Test
+    void testCursorIteratesLikeGetRecords() {
+        RecordTypeRegistry recordTypes = RecordTypeRegistry.getInstance();
+        int heartRate = recordTypes.codeOf("HeartRate");
+        for (int i = 0; i < 1000; i++) {
+            patient.addRecord(60 + i % 40, "HeartRate", i * 10L);
+            patient.addRecord(95, "Saturation", i * 10L + 5);
+        }
+        RecordCursor cursor = new RecordCursor();
+        List<PatientRecord> expected = patient.getRecords(2_000, 4_000);
+        patient.openRecords(2_000, 4_000, cursor);
+        assertEquals(expected.size(), cursor.size());
+        for (PatientRecord record : expected) {
+            assertTrue(cursor.next());
+            assertEquals(record.getTimestamp(), cursor.timestamp());
+            assertEquals(record.getMeasurementValue(), cursor.value());
+            assertEquals(record.getRecordTypeCode(), cursor.type());
+        }
+        assertFalse(cursor.next());
+        assertThrows(IllegalStateException.class, cursor::value);
+
+        // The same cursor is refilled for one record type, and can be walked again
+        patient.openRecords(0, 95, cursor, heartRate);
+        assertEquals(10, cursor.size());
+        cursor.next();
+        cursor.rewind();
+        int count = 0;
+        while (cursor.next()) {
+            assertEquals(heartRate, cursor.type());
+            count++;
+        }
+        assertEquals(10, count);
+    }
+
+    @Test
+    void testStreamPollsIntoCursor() {
+        int heartRate = RecordTypeRegistry.getInstance().codeOf("HeartRate");
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        try {
+            RecordStream stream = RecordStream.inArrivalOrder(7, heartRate);
+            RecordCursor cursor = new RecordCursor();
+            storage.addPatientData(7, 80, "HeartRate", 1000L);
+            assertTrue(stream.poll(storage, cursor).isResync()); // The first poll starts the journal
+            storage.addPatientData(7, 81, "HeartRate", 2000L);
+            storage.addPatientData(7, 95, "Saturation", 2000L);
+            storage.addPatientData(7, 82, "HeartRate", 500L); // Late, so still new
+            stream.poll(storage, cursor);
+            assertFalse(cursor.isResync());
+            assertEquals(2, cursor.size());
+            assertTrue(cursor.next());
+            assertEquals(81.0, cursor.value());
+            assertTrue(cursor.next());
+            assertEquals(500L, cursor.timestamp());
+            assertTrue(stream.poll(storage, cursor).isEmpty());
+        } finally {
+            storage.clear();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.data_management;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReconnectManagerTest {
+
+    @Test
+    void testBackoffDoublesWithJitterUpToTheMaximum() throws InterruptedException {
+        ReconnectManager manager = new ReconnectManager(10, 40);
+        long[][] bounds = {{5, 10}, {10, 20}, {20, 40}, {20, 40}, {20, 40}};
+        for (long[] bound : bounds) {
+            CountDownLatch ran = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            long delay = manager.schedule(() -> {
+                ran.countDown();
+                awaitQuietly(release);
+            });
+            assertTrue(delay >= bound[0] && delay <= bound[1], "delay " + delay);
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+            release.countDown();
+            Thread.sleep(5); // Let the attempt finish
+        }
+        assertEquals(5, manager.getAttempts());
+
+        manager.connected();
+        long delay = manager.schedule(() -> { });
+        assertTrue(delay >= 5 && delay <= 10, "delay " + delay);
+
+        manager.cancel();
+        assertEquals(-1, manager.schedule(() -> { }));
+
+        ReconnectManager waiting = new ReconnectManager(60_000, 60_000);
+        assertNotEquals(-1, waiting.schedule(() -> { }));
+        assertEquals(-1, waiting.schedule(() -> { })); // Only one pending attempt at a time
+        waiting.cancel();
+        assertThrows(IllegalArgumentException.class, () -> new ReconnectManager(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new ReconnectManager(20, 10));
+    }
+
+    @Test
+    void testFailureReportedDuringAnAttemptSchedulesTheNext() throws InterruptedException {
+        ReconnectManager manager = new ReconnectManager(5, 10);
+        CountDownLatch retried = new CountDownLatch(1);
+        long[] rescheduled = new long[1];
+        manager.schedule(() -> {
+            // A connection refused mid-attempt is reported before the attempt returns
+            rescheduled[0] = manager.schedule(retried::countDown);
+        });
+        assertTrue(retried.await(5, TimeUnit.SECONDS));
+        assertNotEquals(-1, rescheduled[0]);
+        assertEquals(2, manager.getAttempts());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.data_management;
+
+import com.cardio_generator.outputs.RecordFrame;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the per-line cost of parsing readings with {@link RecordCodec} against the
+ * split-and-parse approach the readers used before, and the cost per reading of the
+ * whole WebSocket path, formatting and parsing one text frame per reading against
+ * packing and decoding binary {@link RecordFrame}s. Not run by the test suite; after
+ * {@code mvn test-compile}, run
+ * {@code java -cp target/classes:target/test-classes com.data_management.RecordCodecBenchmark}.
+ */
+public class RecordCodecBenchmark {
+    private static final int LINES = 100_000;
+    private static final int ROUNDS = 30;
+
+    public static void main(String[] args) {
+        String[] lines = sampleLines();
+        RecordTypeRegistry recordTypes = RecordTypeRegistry.getInstance();
+        RecordCodec codec = new RecordCodec();
+        RecordFrame frame = new RecordFrame(512);
+        IngestBatch batch = new IngestBatch();
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean measured = round >= ROUNDS - 10; // The first rounds warm up the JIT
+            long started = System.nanoTime();
+            for (String line : lines) {
+                String[] parts = line.split(",");
+                int patientId = Integer.parseInt(parts[0].trim());
+                double value = Double.parseDouble(parts[1].trim());
+                int code = recordTypes.codeOf(parts[2].trim());
+                long timestamp = Long.parseLong(parts[3].trim());
+                sink += patientId + (long) value + code + timestamp;
+            }
+            long split = System.nanoTime() - started;
+
+            started = System.nanoTime();
+            for (String line : lines) {
+                codec.parse(line);
+                sink += codec.getPatientId() + (long) codec.getValue() + codec.getRecordTypeCode()
+                        + codec.getTimestamp();
+            }
+            long parsed = System.nanoTime() - started;
+
+            // Both ends of the WebSocket link, from the simulator's output call to a reading in a batch
+            started = System.nanoTime();
+            for (int i = 0; i < LINES; i++) {
+                codec.parse(String.format("%d,%d,%s,%s", i % 1000, 1_714_376_789_050L + i, "HeartRate",
+                        String.valueOf(72.5)));
+                sink += codec.getPatientId();
+            }
+            long text = System.nanoTime() - started;
+
+            started = System.nanoTime();
+            for (int i = 0; i < LINES; i++) {
+                frame.add(i % 1000, "HeartRate", 1_714_376_789_050L + i, RecordFrame.parseData(String.valueOf(72.5)));
+                if (frame.size() == 512 || i == LINES - 1) {
+                    ByteBuffer encoded = frame.toByteBuffer();
+                    frame.clear();
+                    batch.clear();
+                    sink += codec.decodeFrame(encoded, batch);
+                }
+            }
+            long binary = System.nanoTime() - started;
+            if (measured) {
+                System.out.printf(Locale.ROOT, "split: %6.1f ns/line   codec: %6.1f ns/line   "
+                        + "text frames: %6.1f ns/reading   binary frames: %6.1f ns/reading%n",
+                        split / (double) LINES, parsed / (double) LINES, text / (double) LINES,
+                        binary / (double) LINES);
+            }
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    private static String[] sampleLines() {
+        Random random = new Random(1);
+        String[] types = {"HeartRate", "Saturation", "ECG", "SystolicPressure", "DiastolicPressure"};
+        String[] lines = new String[LINES];
+        for (int i = 0; i < LINES; i++) {
+            double value = Math.round(random.nextDouble() * 20_000) / 100.0;
+            lines[i] = random.nextInt(1000) + "," + value + "," + types[i % types.length] + ","
+                    + (1_714_376_789_050L + i);
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,135 @@
+package com.data_management;
+
+import com.cardio_generator.outputs.RecordFrame;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecordCodecTest {
+    private final RecordTypeRegistry recordTypes = RecordTypeRegistry.getInstance();
+
+    @Test
+    void testParsesBothLayouts() {
+        RecordCodec codec = new RecordCodec();
+        assertTrue(codec.parse("1,100.0,WhiteBloodCells,1714376789050"));
+        assertEquals(1, codec.getPatientId());
+        assertEquals(100.0, codec.getValue());
+        assertEquals(recordTypes.codeOf("WhiteBloodCells"), codec.getRecordTypeCode());
+        assertEquals(1714376789050L, codec.getTimestamp());
+
+        // The simulator's layout, with its percent sign and alert data
+        assertTrue(codec.parse("7,1714376789051,Saturation,97.0%"));
+        assertEquals(7, codec.getPatientId());
+        assertEquals(97.0, codec.getValue());
+        assertEquals(1714376789051L, codec.getTimestamp());
+        assertTrue(codec.parse("7,1714376789052,Alert,triggered"));
+        assertEquals(1.0, codec.getValue());
+        assertTrue(codec.parse("7,1714376789053,Alert,resolved"));
+        assertEquals(0.0, codec.getValue());
+
+        // The simulator's file layout, with the name of every field
+        assertTrue(codec.parse("Patient ID: 8, Timestamp: 1714376789054, Label: Saturation, Data: 95.0%"));
+        assertEquals(8, codec.getPatientId());
+        assertEquals(95.0, codec.getValue());
+        assertEquals(recordTypes.codeOf("Saturation"), codec.getRecordTypeCode());
+        assertEquals(1714376789054L, codec.getTimestamp());
+
+        // Integer data after a millisecond timestamp, as other producers write it
+        assertTrue(codec.parse("1,1714376789050,HeartRate,72"));
+        assertEquals(72.0, codec.getValue());
+        assertEquals(1714376789050L, codec.getTimestamp());
+        assertTrue(codec.parse("Patient ID: 8, Timestamp: 99, Label: HeartRate, Data: 72"));
+        assertEquals(72.0, codec.getValue());
+        assertEquals(99L, codec.getTimestamp());
+
+        // Otherwise an integer in the last field is a timestamp unless the layout is fixed
+        assertTrue(codec.parse(" 3 , 120 , HeartRate , 99\r"));
+        assertEquals(120.0, codec.getValue());
+        assertEquals(99L, codec.getTimestamp());
+        RecordCodec simulator = new RecordCodec(RecordCodec.Layout.SIMULATOR);
+        assertTrue(simulator.parse("3,99,HeartRate,120"));
+        assertEquals(120.0, simulator.getValue());
+        assertEquals(99L, simulator.getTimestamp());
+
+        assertFalse(codec.parse("  \r"));
+        assertThrows(IllegalArgumentException.class, () -> codec.parse("1,abc,HeartRate,1"));
+        assertThrows(IllegalArgumentException.class, () -> codec.parse("1,2,HeartRate"));
+        assertThrows(IllegalArgumentException.class, () -> codec.parse("1,2,HeartRate,3,4"));
+        assertThrows(IllegalArgumentException.class, () -> codec.parse("99999999999,2,HeartRate,3"));
+    }
+
+    @Test
+    void testValuesMatchParseDouble() {
+        RecordCodec codec = new RecordCodec(RecordCodec.Layout.STORAGE);
+        Random random = new Random(5);
+        for (int i = 0; i < 10_000; i++) {
+            String text;
+            switch (i % 4) {
+                case 0:
+                    text = Double.toString(random.nextGaussian() * Math.pow(10, random.nextInt(30) - 15));
+                    break;
+                case 1:
+                    text = Long.toString(random.nextLong());
+                    break;
+                case 2:
+                    text = String.format(Locale.ROOT, "%.6f", random.nextDouble() * 1000);
+                    break;
+                default:
+                    text = "-0." + Math.abs(random.nextInt());
+            }
+            assertTrue(codec.parse("1," + text + ",ECG,5"));
+            assertEquals(Double.parseDouble(text), codec.getValue(), text);
+        }
+    }
+
+    @Test
+    void testParsesBytesInPlace() {
+        RecordCodec codec = new RecordCodec();
+        byte[] text = "skip\n2,1714376789050,ECG,0.25\n".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.wrap(text);
+        assertTrue(codec.parse(buffer, 5, text.length - 1));
+        assertEquals(2, codec.getPatientId());
+        assertEquals(0.25, codec.getValue());
+        assertEquals(recordTypes.codeOf("ECG"), codec.getRecordTypeCode());
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void testDecodesRecordFrames() {
+        RecordFrame frame = new RecordFrame(2);
+        frame.add(4, "HeartRate", 1000L, 72.0);
+        frame.add(5, "Saturation", 1001L, RecordFrame.parseData("97%"));
+        frame.add(4, "HeartRate", 1002L, 73.5);
+        frame.add(6, "Alert", 1003L, RecordFrame.parseData("triggered"));
+        ByteBuffer encoded = frame.toByteBuffer();
+        assertEquals(1 + 2 + (2 + 9) + (2 + 10) + (2 + 5) + 4 + 4 * RecordFrame.RECORD_BYTES, encoded.remaining());
+
+        RecordCodec codec = new RecordCodec();
+        IngestBatch batch = new IngestBatch();
+        assertEquals(4, codec.decodeFrame(encoded, batch));
+        assertEquals(0, encoded.position());
+        assertEquals(4, batch.size());
+        assertEquals(5, batch.patientIdAt(1));
+        assertEquals(97.0, batch.valueAt(1));
+        assertEquals(recordTypes.codeOf("Saturation"), batch.recordTypeCodeAt(1));
+        assertEquals(1002L, batch.timestampAt(2));
+        assertEquals(recordTypes.codeOf("HeartRate"), batch.recordTypeCodeAt(2));
+        assertEquals(1.0, batch.valueAt(3));
+
+        // Broken frames are refused whole
+        batch.clear();
+        ByteBuffer truncated = frame.toByteBuffer();
+        truncated.limit(truncated.limit() - 1);
+        assertThrows(IllegalArgumentException.class, () -> codec.decodeFrame(truncated, batch));
+        ByteBuffer future = frame.toByteBuffer();
+        future.put(0, (byte) 2);
+        assertThrows(IllegalArgumentException.class, () -> codec.decodeFrame(future, batch));
+        assertEquals(0, batch.size());
+        assertThrows(NumberFormatException.class, () -> RecordFrame.parseData("n/a"));
+    }
+}
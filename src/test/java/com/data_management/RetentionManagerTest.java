@@ -0,0 +1,137 @@
+package com.data_management;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetentionManagerTest {
+    private DataStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        storage = DataStorage.getInstance();
+        storage.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.setRetentionPolicy(null);
+        storage.clear();
+    }
+
+    @Test
+    void testCapacityKeepsNewestReadings() {
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.setRetention("ECG", Long.MAX_VALUE / 2, 1000);
+        storage.setRetentionPolicy(policy);
+
+        for (int i = 0; i < 5000; i++) {
+            storage.addPatientData(1, i, "ECG", i);
+        }
+
+        List<PatientRecord> records = storage.getRecords(1, 0, Long.MAX_VALUE);
+        assertEquals(1000, records.size());
+        assertEquals(4000L, records.get(0).getTimestamp());
+        assertEquals(4999.0, records.get(999).getMeasurementValue());
+    }
+
+    @Test
+    void testHorizonEvictsOldReadings() {
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.setRetention("Saturation", 10_000L, 100_000);
+        storage.setRetentionPolicy(policy);
+
+        for (int i = 0; i <= 60; i++) {
+            storage.addPatientData(1, 97.0, "Saturation", i * 1000L);
+            storage.addPatientData(1, 120.0, "SystolicPressure", i * 1000L);
+        }
+
+        RecordTypeRegistry recordTypes = RecordTypeRegistry.getInstance();
+        assertEquals(11, storage.getRecordsByType(1, 0, Long.MAX_VALUE, recordTypes.codeOf("Saturation")).size());
+        assertEquals(61, storage.getRecordsByType(1, 0, Long.MAX_VALUE, recordTypes.codeOf("SystolicPressure")).size());
+
+        RetentionReport report = new RetentionManager(storage, policy).enforce();
+        assertEquals(50, report.getDroppedReadings());
+        assertEquals(50L, report.getDroppedByType().get("Saturation"));
+    }
+
+    @Test
+    void testMemoryBudgetEvictsOldestDataFirst() {
+        RetentionPolicy policy = new RetentionPolicy();
+        storage.setRetentionPolicy(policy);
+
+        // Patient 1 holds the oldest data, patient 2 the newest
+        for (int i = 0; i < 3 * RecordSeries.CHUNK_SIZE; i++) {
+            storage.addPatientData(1, i, "ECG", i);
+        }
+        for (int i = 0; i < 3 * RecordSeries.CHUNK_SIZE; i++) {
+            storage.addPatientData(2, i, "ECG", 1_000_000L + i);
+        }
+        // Room for the readings of patient 2 and the open chunk of patient 1, but not its sealed chunks
+        long budget = RecordSeries.BYTES_PER_CHUNK;
+        for (RecordSeries series : storage.getPatient(2).getSeries()) {
+            budget += series.chunkBytes();
+        }
+        policy.setMemoryBudget(budget);
+
+        RecordSeries oldest = storage.getPatient(1).getSeries()[0];
+        long before = oldest.chunkBytes();
+        RetentionManager manager = new RetentionManager(storage, policy);
+        RetentionReport report = manager.enforce();
+
+        assertTrue(report.getRetainedBytes() <= policy.getMemoryBudget());
+        // The sealed chunks are compressed, so they held less than raw columns would
+        assertEquals(before - oldest.chunkBytes(), report.getDroppedBytes());
+        assertTrue(report.getDroppedBytes() < 2 * RecordSeries.BYTES_PER_CHUNK);
+        assertEquals(2 * RecordSeries.CHUNK_SIZE, report.getDroppedReadings());
+        assertEquals(RecordSeries.CHUNK_SIZE, storage.getRecords(1, 0, Long.MAX_VALUE).size());
+        assertEquals(3 * RecordSeries.CHUNK_SIZE, storage.getRecords(2, 0, Long.MAX_VALUE).size());
+        assertEquals(0, manager.enforce().getDroppedReadings(), "Nothing new to report on a second pass");
+    }
+
+    @Test
+    void testRollupsDoNotCountAgainstBudget() {
+        RetentionPolicy policy = new RetentionPolicy();
+        storage.setRetentionPolicy(policy);
+        for (int i = 0; i < 3 * RecordSeries.CHUNK_SIZE; i++) {
+            storage.addPatientData(1, i, "ECG", i * 100L);
+        }
+        RecordSeries series = storage.getPatient(1).getSeries()[0];
+        assertTrue(series.rollupBytes() > series.chunkBytes());
+        policy.setMemoryBudget(series.chunkBytes());
+
+        RetentionReport report = new RetentionManager(storage, policy).enforce();
+        assertEquals(0, report.getDroppedReadings(), "Readings fit the budget even though rollups do not");
+        assertEquals(series.chunkBytes(), report.getRetainedBytes());
+    }
+
+    @Test
+    void testReadersStayConsistentWhileRingWraps() throws InterruptedException {
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.setRetention("ECG", Long.MAX_VALUE / 2, 600);
+        storage.setRetentionPolicy(policy);
+
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 200_000; i++) {
+                storage.addPatientData(3, i, "ECG", i); // Value mirrors the timestamp
+            }
+        });
+        writer.start();
+        boolean consistent = true;
+        while (writer.isAlive()) {
+            List<PatientRecord> records = storage.getRecords(3, 0, Long.MAX_VALUE);
+            consistent &= records.size() <= 600;
+            for (int i = 0; i < records.size(); i++) {
+                PatientRecord record = records.get(i);
+                consistent &= record.getMeasurementValue() == record.getTimestamp();
+                consistent &= i == 0 || record.getTimestamp() == records.get(i - 1).getTimestamp() + 1;
+            }
+        }
+        writer.join();
+        assertTrue(consistent, "Readers must never see overwritten or torn readings");
+    }
+}
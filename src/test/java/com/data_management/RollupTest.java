@@ -0,0 +1,190 @@
+package com.data_management;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RollupTest {
+    private DataStorage storage;
+    private int ecg;
+
+    @BeforeEach
+    void setUp() {
+        storage = DataStorage.getInstance();
+        storage.clear();
+        ecg = RecordTypeRegistry.getInstance().codeOf("ECG");
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.clear();
+    }
+
+    @Test
+    void testRollupMatchesRawReadings() {
+        Random random = new Random(7);
+        long time = 0;
+        for (int i = 0; i < 20_000; i++) {
+            time += random.nextInt(500);
+            // Every tenth reading arrives a little late
+            long timestamp = i % 10 == 0 ? Math.max(0, time - random.nextInt(5_000)) : time;
+            storage.addPatientData(1, random.nextGaussian() * 10 + 70, "ECG", timestamp);
+        }
+
+        long[][] ranges = {{0, time}, {12_345, 2_345_678}, {3_599_999, 3_600_001}, {61_500, 61_700}, {0, 0}};
+        for (long[] range : ranges) {
+            Rollup rollup = storage.getRollup(1, ecg, range[0], range[1]);
+            List<PatientRecord> records = storage.getRecordsByType(1, range[0], range[1], ecg);
+            assertEquals(records.size(), rollup.getCount());
+            if (records.isEmpty()) {
+                continue;
+            }
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            double sum = 0;
+            for (PatientRecord record : records) {
+                min = Math.min(min, record.getMeasurementValue());
+                max = Math.max(max, record.getMeasurementValue());
+                sum += record.getMeasurementValue();
+            }
+            assertEquals(min, rollup.getMin());
+            assertEquals(max, rollup.getMax());
+            assertEquals(sum / records.size(), rollup.getMean(), 1e-9);
+            assertEquals(records.get(0).getTimestamp(), rollup.getFirstTimestamp());
+            assertEquals(records.get(records.size() - 1).getTimestamp(), rollup.getLastTimestamp());
+        }
+    }
+
+    @Test
+    void testBucketsUseCoarsestTierWithinResolution() {
+        for (long t = 0; t < 2 * 3_600_000L; t += 250) {
+            storage.addPatientData(1, 2.0, "ECG", t);
+        }
+
+        List<Rollup> hours = storage.getRollups(1, ecg, 0, 2 * 3_600_000L - 1, 3_600_000L);
+        assertEquals(2, hours.size());
+        assertEquals(14_400, hours.get(0).getCount());
+
+        List<Rollup> minutes = storage.getRollups(1, ecg, 0, 3_600_000L - 1, 300_000L);
+        assertEquals(60, minutes.size());
+        assertEquals(240, minutes.get(59).getCount());
+        assertEquals(60_000L, minutes.get(1).getStartTime());
+
+        long end = 2 * 3_600_000L - 1;
+        assertEquals(2, storage.getRollups(1, ecg, end - 1_999, end, 1).size(), "Finer than a second uses seconds");
+        assertTrue(storage.getRollups(1, ecg, 0, 1_999, 1).isEmpty(), "The second tier keeps only an hour");
+        assertEquals(0.0, hours.get(1).getStandardDeviation());
+    }
+
+    @Test
+    void testRollupsOutliveRetainedReadings() {
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.setRetention("ECG", 60_000L, 1_000_000);
+        storage.setRetentionPolicy(policy);
+        try {
+            for (long t = 0; t < 3 * 3_600_000L; t += 1_000) {
+                storage.addPatientData(1, 1.0, "ECG", t);
+            }
+            assertEquals(61, storage.getRecords(1, 0, Long.MAX_VALUE).size());
+            assertEquals(3 * 3_600, storage.getRollup(1, ecg, 0, Long.MAX_VALUE).getCount());
+        } finally {
+            storage.setRetentionPolicy(null);
+        }
+    }
+
+    @Test
+    void testSparseSignalSkipsSecondTier() {
+        for (long t = 0; t < 2 * 3_600_000L; t += 1_000) {
+            storage.addPatientData(1, t % 7, "ECG", t);
+        }
+        RecordSeries series = storage.getPatient(1).getSeries()[0];
+        RollupTier seconds = series.getRollupTiers()[0];
+        assertFalse(seconds.isEnabled(), "One reading per second bucket");
+        assertTrue(series.rollupBytes() < 3_600 * RollupTier.BYTES_PER_BUCKET, "Bytes: " + series.rollupBytes());
+
+        // Queries read the raw readings instead, and bucket lists use the minute tier
+        long newest = 2 * 3_600_000L - 1_000;
+        assertEquals(90, storage.getRollup(1, ecg, newest - 89_500, newest).getCount());
+        List<Rollup> buckets = storage.getRollups(1, ecg, newest - 1_000, newest, 1_000);
+        assertEquals(1, buckets.size());
+        assertEquals(60_000L, buckets.get(0).getEndTime() + 1 - buckets.get(0).getStartTime());
+
+        // A faster signal enables the tier again, for the buckets after the one it was enabled in
+        for (long t = 2 * 3_600_000L; t < 2 * 3_600_000L + 1_000_000L; t += 100) {
+            storage.addPatientData(1, 1.0, "ECG", t);
+        }
+        assertTrue(seconds.isEnabled());
+        long end = 2 * 3_600_000L + 1_000_000L;
+        assertEquals(storage.getRecordsByType(1, 0, end, ecg).size(), storage.getRollup(1, ecg, 0, end).getCount());
+    }
+
+    @Test
+    void testRollupHorizonBoundsTierMemory() {
+        for (long t = 0; t < 2 * 3_600_000L; t += 250) {
+            storage.addPatientData(1, 1.0, "ECG", t);
+        }
+        RecordSeries series = storage.getPatient(1).getSeries()[0];
+        long unbounded = series.rollupBytes();
+        assertTrue(unbounded >= 3_600 * RollupTier.BYTES_PER_BUCKET, "An hour of seconds: " + unbounded);
+        assertEquals(series.chunkBytes() + unbounded, series.allocatedBytes());
+
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.setRollupRetention("ECG", 60_000L);
+        storage.setRetentionPolicy(policy);
+        try {
+            for (RollupTier tier : series.getRollupTiers()) {
+                assertEquals(Math.min(62, 60_000L / tier.getWidth() + 2), tier.getCapacity());
+            }
+            assertTrue(series.rollupBytes() * 10 < unbounded, "Bounded: " + series.rollupBytes());
+            // The minute before the newest reading is still summarized from the tiers
+            long newest = 2 * 3_600_000L - 250;
+            assertEquals(240, storage.getRollup(1, ecg, newest - 59_750, newest + 1).getCount());
+        } finally {
+            storage.setRetentionPolicy(null);
+        }
+    }
+
+    @Test
+    void testUnknownPatientHasEmptyRollup() {
+        Rollup rollup = storage.getRollup(42, ecg, 0, 1000);
+        assertEquals(0, rollup.getCount());
+        assertTrue(Double.isNaN(rollup.getMean()));
+        assertTrue(storage.getRollups(42, ecg, 0, 1000, 1000).isEmpty());
+    }
+
+    @Test
+    void testPercentilesMatchSortedReadings() {
+        Random random = new Random(11);
+        for (int i = 0; i < 5_000; i++) {
+            storage.addPatientData(2, random.nextInt(60) + 60, "ECG", random.nextInt(1_000_000));
+        }
+        long[][] ranges = {{0, Long.MAX_VALUE}, {250_000, 250_999}, {400_000, 400_000}};
+        for (long[] range : ranges) {
+            double[] sorted = storage.getRecordsByType(2, range[0], range[1], ecg).stream()
+                    .mapToDouble(PatientRecord::getMeasurementValue).sorted().toArray();
+            double[] percentiles = storage.getPercentiles(2, ecg, range[0], range[1], 0, 50, 95, 100);
+            if (sorted.length == 0) {
+                assertTrue(Double.isNaN(percentiles[1]));
+                continue;
+            }
+            assertEquals(sorted[0], percentiles[0]);
+            assertEquals(sorted[sorted.length - 1], percentiles[3]);
+            double rank = 0.95 * (sorted.length - 1);
+            int lower = (int) rank;
+            double expected = sorted[lower] + (sorted[Math.min(lower + 1, sorted.length - 1)] - sorted[lower])
+                    * (rank - lower);
+            assertEquals(expected, percentiles[2], 1e-9);
+        }
+
+        storage.addPatientData(3, 10, "ECG", 1);
+        storage.addPatientData(3, 20, "ECG", 2);
+        assertEquals(15.0, storage.getPercentile(3, ecg, 0, 10, 50));
+        assertTrue(Double.isNaN(storage.getPercentile(42, ecg, 0, 10, 50)));
+        assertThrows(IllegalArgumentException.class, () -> storage.getPercentile(3, ecg, 0, 10, 101));
+    }
+}
@@ -0,0 +1,114 @@
+package com.data_management;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotManagerTest {
+    @TempDir
+    Path directory;
+
+    private DataStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        storage = DataStorage.getInstance();
+        storage.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.setWriteAheadLog(null);
+        storage.clear();
+    }
+
+    @Test
+    void testSnapshotOnlyRoundTrip() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            storage.addPatientData(1, i * 0.5, "ECG", i);
+            storage.addPatientData(2, 95.0 + i % 3, "Saturation", i * 1000L);
+        }
+        storage.addPatientData(1, 120.0, "SystolicPressure", 10L);
+        List<PatientRecord> before = storage.getRecords(1, 0, Long.MAX_VALUE);
+
+        new SnapshotManager(storage, directory, null).snapshot();
+        storage.clear();
+        assertEquals(2001, new SnapshotManager(storage, directory, null).restore());
+
+        List<PatientRecord> after = storage.getRecords(1, 0, Long.MAX_VALUE);
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++) {
+            assertEquals(before.get(i).getTimestamp(), after.get(i).getTimestamp());
+            assertEquals(before.get(i).getMeasurementValue(), after.get(i).getMeasurementValue());
+            assertEquals(before.get(i).getRecordType(), after.get(i).getRecordType());
+        }
+        assertEquals(1000, storage.getRecords(2, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    void testRestoreReplaysLogTailAfterSnapshot() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.ASYNC, 4096, 1)) {
+            SnapshotManager snapshots = new SnapshotManager(storage, directory, log);
+            assertEquals(0, snapshots.restore());
+            for (int i = 0; i < 500; i++) {
+                storage.addPatientData(1, i, "ECG", i);
+            }
+            log.flush();
+            snapshots.snapshot();
+            for (int i = 500; i < 800; i++) {
+                storage.addPatientData(1, i, "ECG", i);
+            }
+            storage.setWriteAheadLog(null);
+        }
+        storage.clear();
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.ASYNC, 4096, 1)) {
+            assertEquals(800, new SnapshotManager(storage, directory, log).restore());
+            List<PatientRecord> records = storage.getRecords(1, 0, Long.MAX_VALUE);
+            assertEquals(800, records.size());
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals(i, records.get(i).getTimestamp());
+            }
+            assertSame(log, storage.getWriteAheadLog());
+        }
+    }
+
+    @Test
+    void testSnapshotWhileIngesting() throws Exception {
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.NONE)) {
+            SnapshotManager snapshots = new SnapshotManager(storage, directory, log);
+            snapshots.restore();
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    storage.addPatientData(i % 10, i, "ECG", i);
+                }
+            });
+            writer.start();
+            while (writer.isAlive()) {
+                snapshots.snapshot();
+            }
+            writer.join();
+            storage.setWriteAheadLog(null);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.filter(file -> file.toString().endsWith(".bin")).count());
+        }
+        storage.clear();
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.NONE)) {
+            assertEquals(50_000, new SnapshotManager(storage, directory, log).restore());
+        }
+        for (int patientId = 0; patientId < 10; patientId++) {
+            assertEquals(5_000, storage.getRecords(patientId, 0, Long.MAX_VALUE).size());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.data_management;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TcpDataReaderTest {
+    private DataStorage storage;
+    private TcpDataReader reader;
+
+    @BeforeEach
+    void setUp() {
+        storage = DataStorage.getInstance();
+        storage.clear();
+        storage.setShardCount(0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testReadsLinesSplitAcrossPackets() throws Exception {
+        try (ServerSocket simulator = new ServerSocket(0)) {
+            reader = new TcpDataReader(new InetSocketAddress("localhost", simulator.getLocalPort()));
+            reader.startStreaming(storage);
+            try (Socket connection = simulator.accept()) {
+                OutputStream out = connection.getOutputStream();
+                // The simulator's layout, with a line cut in the middle of a field
+                write(out, "31,1000,HeartRate,72.0\n31,2000,Heart");
+                Thread.sleep(50);
+                write(out, "Rate,75.0\r\nnot a reading\n31,3000,Saturation,97%\n");
+                awaitReadings(31, 3);
+            }
+        }
+        assertEquals(3, reader.getReadingCount());
+        double[] values = storage.getRecords(31, 0, Long.MAX_VALUE).stream()
+                .mapToDouble(PatientRecord::getMeasurementValue).toArray();
+        assertArrayEquals(new double[]{72, 75, 97}, values);
+    }
+
+    @Test
+    @Timeout(30)
+    void testAcceptsDevicesAndLongLines() throws Exception {
+        reader = new TcpDataReader();
+        reader.setListenAddress(new InetSocketAddress("localhost", 0));
+        reader.startStreaming(storage);
+        char[] padding = new char[100_000]; // Longer than a connection's buffer
+        Arrays.fill(padding, ' ');
+
+        try (Socket first = new Socket("localhost", reader.getBoundAddress().getPort());
+             Socket second = new Socket("localhost", reader.getBoundAddress().getPort())) {
+            write(first.getOutputStream(), "32,1.5,ECG,1000\n32," + new String(padding) + "2.5,ECG,2000\n");
+            write(second.getOutputStream(), "33,120,SystolicPressure,1000");
+            second.shutdownOutput(); // The last line has no line break
+            awaitReadings(32, 2);
+            awaitReadings(33, 1);
+            assertEquals(1, reader.getConnectionCount()); // The second device hung up
+        }
+        assertEquals(2.5, storage.getRecords(32, 0, Long.MAX_VALUE).get(1).getMeasurementValue());
+    }
+
+    private static void write(OutputStream out, String text) throws Exception {
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private void awaitReadings(int patientId, int count) throws InterruptedException {
+        while (storage.getPatient(patientId) == null
+                || storage.getRecords(patientId, 0, Long.MAX_VALUE).size() < count) {
+            Thread.sleep(10);
+        }
+    }
+}
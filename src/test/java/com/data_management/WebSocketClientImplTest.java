@@ -3,6 +3,7 @@ package com.data_management;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
@@ -69,6 +70,20 @@ public class WebSocketClientImplTest {
         verify(mockDataStorage).addPatientData(1, 80.0, "DiastolicPressure", 1714376789200L);
     }
 
+    @Test
+    void testMultiLineMessageIsStoredAsOneBatch() {
+        webSocketClient.startStreaming(mockDataStorage);
+        ArgumentCaptor<IngestBatch> batch = ArgumentCaptor.forClass(IngestBatch.class);
+
+        webSocketClient.onMessage("1,120.5,SystolicPressure,1714376789000\n"
+                + "bad,line\n"
+                + "2,78.2,HeartRate,1714376789100\n");
+
+        verify(mockDataStorage).addPatientData(batch.capture());
+        verify(mockDataStorage, never()).addPatientData(anyInt(), anyDouble(), anyString(), anyLong());
+        assertEquals(2, batch.getValue().size());
+    }
+
     @Test
     void testOnMessageInvalidFormat() {
         webSocketClient.startStreaming(mockDataStorage);
@@ -194,4 +209,58 @@ public class WebSocketClientImplTest {
         verify(mockDataStorage).addPatientData(123, 98.6, "Heart_Rate", 1714376789050L);
         verify(mockDataStorage).addPatientData(123, 98.6, "Type123", 1714376789050L);
     }
+
+    @Test
+    void testPipelineStoresMessagesOffSocketThread() {
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        IngestPipeline pipeline = new IngestPipeline(4, IngestPipeline.OverflowPolicy.BLOCK);
+        webSocketClient.setIngestPipeline(pipeline);
+        webSocketClient.startStreaming(storage);
+
+        for (int i = 0; i < 100; i++) {
+            webSocketClient.onMessage("77," + i + ".5,HeartRate," + (1000L + i));
+        }
+        webSocketClient.onMessage("77,1.0,HeartRate,5000\nmalformed\n77,2.0,HeartRate,5001");
+        pipeline.flush();
+
+        List<PatientRecord> records = storage.getRecords(77, 0, Long.MAX_VALUE);
+        assertEquals(102, records.size());
+        assertEquals(102, pipeline.getReadingCount());
+        assertEquals(101, pipeline.getAcceptedCount());
+        assertEquals(0, pipeline.getDroppedCount());
+        assertEquals(0, pipeline.getDepth());
+        assertTrue(pipeline.getMaxDepth() <= 4);
+        pipeline.close();
+        assertThrows(IllegalStateException.class, () -> pipeline.offer("77,1.0,HeartRate,6000"));
+    }
+
+    @Test
+    void testPipelineOverflowPolicies() {
+        IngestPipeline dropNewest = new IngestPipeline(2, IngestPipeline.OverflowPolicy.DROP_NEWEST);
+        assertTrue(dropNewest.offer("78,1.0,HeartRate,1000"));
+        assertTrue(dropNewest.offer("78,2.0,HeartRate,2000"));
+        assertFalse(dropNewest.offer("78,3.0,HeartRate,3000"));
+        assertEquals(2, dropNewest.getDepth());
+        assertEquals(1, dropNewest.getDroppedCount());
+
+        // Nothing consumes before start, so the ring overflows and keeps the newest frames
+        DataStorage storage = DataStorage.getInstance();
+        storage.clear();
+        IngestPipeline dropOldest = new IngestPipeline(2, IngestPipeline.OverflowPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(dropOldest.offer("79," + i + ".0,HeartRate," + (1000L * i)));
+        }
+        assertEquals(2, dropOldest.getDepth());
+        assertEquals(2, dropOldest.getMaxDepth());
+        assertEquals(3, dropOldest.getDroppedCount());
+        dropOldest.start(storage);
+        dropOldest.flush();
+        dropOldest.close();
+
+        List<PatientRecord> records = storage.getRecords(79, 0, Long.MAX_VALUE);
+        assertEquals(2, records.size());
+        assertEquals(4000L, records.get(0).getTimestamp());
+        assertEquals(5000L, records.get(1).getTimestamp());
+    }
 }
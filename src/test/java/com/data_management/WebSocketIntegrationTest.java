@@ -2,11 +2,17 @@ package com.data_management;
 
 import com.alerts.AlertGenerator;
 import com.cardio_generator.outputs.ConsoleOutputStrategy;
+import com.cardio_generator.outputs.WebSocketOutputStrategy;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 
+import java.net.ServerSocket;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -203,4 +209,163 @@ public class WebSocketIntegrationTest {
         assertEquals("HeartRate", records.get(0).getRecordType());
         assertEquals(72.0, records.get(0).getMeasurementValue());
     }
+
+    @Test
+    @Timeout(30)
+    void testBinaryAndTextClientsReceiveReadings() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        WebSocketOutputStrategy server = new WebSocketOutputStrategy(port, 64, 5);
+        URI uri = new URI("ws://localhost:" + port);
+        WebSocketClientImpl binaryClient = new WebSocketClientImpl(uri);
+        binaryClient.startStreaming(dataStorage);
+        List<String> textMessages = Collections.synchronizedList(new ArrayList<>());
+        WebSocketClient textClient = new WebSocketClient(uri) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                textMessages.add(message);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+        };
+        try {
+            while (!binaryClient.isOpen()) { // The server is listening once the binary client got in
+                Thread.sleep(10);
+            }
+            assertTrue(textClient.connectBlocking(10, TimeUnit.SECONDS));
+            Thread.sleep(100); // Let the server finish both handshakes
+
+            for (int i = 0; i < 200; i++) {
+                server.output(42, 1000L + i, "HeartRate", String.valueOf(60 + i % 40));
+            }
+            server.output(42, 2000L, "Alert", "triggered");
+            server.flush();
+
+            while (dataStorage.getRecords(42, 0, Long.MAX_VALUE).size() < 201 || textMessages.size() < 201) {
+                Thread.sleep(10);
+            }
+            List<PatientRecord> records = dataStorage.getRecords(42, 0, Long.MAX_VALUE);
+            assertEquals(201, records.size());
+            assertEquals(61.0, records.get(1).getMeasurementValue());
+            assertEquals(1.0, records.get(200).getMeasurementValue());
+            assertEquals("42,1000,HeartRate,60", textMessages.get(0));
+        } finally {
+            textClient.closeBlocking();
+            binaryClient.closeBlocking();
+            server.close();
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testFanInMergesSeveralServers() throws Exception {
+        WebSocketOutputStrategy[] servers = new WebSocketOutputStrategy[2];
+        List<URI> uris = new ArrayList<>();
+        for (int i = 0; i < servers.length; i++) {
+            int port;
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+            servers[i] = new WebSocketOutputStrategy(port, 64, 5);
+            uris.add(new URI("ws://localhost:" + port));
+        }
+        WebSocketFanInReader reader = new WebSocketFanInReader(uris);
+        try {
+            reader.startStreaming(dataStorage);
+            while (!reader.getSourceReports().stream().allMatch(SourceReport::isConnected)) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100); // Let the servers finish the handshakes
+
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < 50; i++) {
+                servers[0].output(51, now - 1000 + i, "HeartRate", "70.0");
+                servers[1].output(52, now - 1000 + i, "HeartRate", "80.0");
+            }
+            servers[1].output(52, now - 500, "HeartRate", "81.0");
+            for (WebSocketOutputStrategy server : servers) {
+                server.flush();
+            }
+            while (dataStorage.getRecords(51, 0, Long.MAX_VALUE).size() < 50
+                    || dataStorage.getRecords(52, 0, Long.MAX_VALUE).size() < 51) {
+                Thread.sleep(10);
+            }
+
+            List<SourceReport> reports = reader.getSourceReports();
+            assertEquals(uris.get(0), reports.get(0).getUri());
+            assertEquals(50, reports.get(0).getReadings());
+            assertEquals(51, reports.get(1).getReadings());
+            assertTrue(reports.get(0).getLagMillis() >= 950);
+            assertTrue(reports.get(1).getLagMillis() >= 500);
+            assertTrue(reports.get(1).getLagMillis() < reports.get(0).getLagMillis());
+            assertTrue(reports.get(0).getReadingsPerSecond() > 0);
+            assertEquals(0, reader.getSourceReports().get(0).getReadingsPerSecond()); // Nothing new since
+        } finally {
+            reader.close();
+            for (WebSocketOutputStrategy server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    @Test
+    @Timeout(30)
+    void testReconnectReplaysReadingsMissedDuringOutage() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        WebSocketOutputStrategy server = new WebSocketOutputStrategy(port, 64, 5, 1000);
+        WebSocketClientImpl client = new WebSocketClientImpl(new URI("ws://localhost:" + port));
+        client.setReconnectManager(new ReconnectManager(50, 200));
+        try {
+            client.startStreaming(dataStorage);
+            while (!client.isOpen()) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100); // Let the server finish the handshake
+            for (int i = 0; i < 20; i++) {
+                server.output(61, 1000L + i, "HeartRate", "70.0");
+            }
+            server.flush();
+            while (dataStorage.getRecords(61, 0, Long.MAX_VALUE).size() < 20) {
+                Thread.sleep(10);
+            }
+
+            // Cut the network rather than closing cleanly, then keep producing while it is down
+            client.getSocket().close();
+            while (client.isOpen()) {
+                Thread.sleep(10);
+            }
+            for (int i = 20; i < 50; i++) {
+                server.output(61, 1000L + i, "HeartRate", "71.0");
+                server.output(62, 1000L + i, "HeartRate", "90.0");
+            }
+            server.output(62, 2000L, "Alert", "triggered");
+
+            while (dataStorage.getRecords(61, 0, Long.MAX_VALUE).size() < 50
+                    || dataStorage.getPatient(62) == null
+                    || dataStorage.getRecords(62, 0, Long.MAX_VALUE).size() < 31) {
+                Thread.sleep(10);
+            }
+            assertEquals(50, dataStorage.getRecords(61, 0, Long.MAX_VALUE).size());
+            assertEquals(31, dataStorage.getRecords(62, 0, Long.MAX_VALUE).size());
+            assertTrue(client.isOpen());
+        } finally {
+            client.closeBlocking();
+            server.close();
+        }
+    }
 }
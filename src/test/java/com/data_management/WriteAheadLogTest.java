@@ -0,0 +1,216 @@
+package com.data_management;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteAheadLogTest {
+    @TempDir
+    Path directory;
+
+    private DataStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        storage = DataStorage.getInstance();
+        storage.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.setWriteAheadLog(null);
+        storage.clear();
+    }
+
+    @Test
+    void testBatchIsLoggedAsOneGroup() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.SYNC)) {
+            storage.recover(log);
+            IngestBatch batch = new IngestBatch();
+            for (int i = 0; i < 500; i++) {
+                batch.add(i % 3, i, i % 2 == 0 ? "ECG" : "Saturation", i);
+            }
+            storage.addPatientData(batch);
+        }
+        storage.setWriteAheadLog(null);
+        storage.clear();
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.SYNC)) {
+            assertEquals(500, storage.recover(log));
+            assertEquals(167, storage.getRecords(0, 0, Long.MAX_VALUE).size());
+            assertEquals(499.0, storage.getRecords(1, 0, Long.MAX_VALUE).get(166).getMeasurementValue());
+        }
+    }
+
+    @Test
+    void testBatchAppendIgnoresStaleRejections() throws IOException {
+        int ecg = RecordTypeRegistry.getInstance().codeOf("ECG");
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.SYNC)) {
+            IngestBatch fresh = new IngestBatch(4);
+            fresh.add(1, 1.0, ecg, 1000L);
+            log.append(fresh); // Never stored, so no reading was rejected
+
+            storage.setDuplicateSuppression(true);
+            IngestBatch reused = new IngestBatch(4);
+            reused.add(2, 1.0, ecg, 1000L);
+            reused.add(2, 1.0, ecg, 1000L); // Rejected as a duplicate
+            storage.addPatientData(reused);
+            assertEquals(1, storage.getRecords(2, 0, Long.MAX_VALUE).size());
+            reused.clear();
+            reused.add(3, 1.0, ecg, 1000L);
+            reused.add(3, 2.0, ecg, 2000L);
+            log.append(reused);
+        } finally {
+            storage.setDuplicateSuppression(false);
+        }
+        storage.clear();
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.SYNC)) {
+            assertEquals(3, log.replay(storage));
+            assertEquals(2, storage.getRecords(3, 0, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    void testReplayRestoresReadings() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.SYNC)) {
+            assertEquals(0, storage.recover(log));
+            storage.addPatientData(1, 120.0, "SystolicPressure", 1000L);
+            storage.addPatientData(1, 80.0, "DiastolicPressure", 1000L);
+            storage.addPatientData(2, 97.5, "Saturation", 2000L);
+        }
+        storage.setWriteAheadLog(null);
+        storage.clear();
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.SYNC)) {
+            assertEquals(3, storage.recover(log));
+            List<PatientRecord> records = storage.getRecords(1, 0, Long.MAX_VALUE);
+            assertEquals(2, records.size());
+            assertEquals("SystolicPressure", records.get(0).getRecordType());
+            assertEquals(80.0, records.get(1).getMeasurementValue());
+            assertEquals(97.5, storage.getRecords(2, 0, Long.MAX_VALUE).get(0).getMeasurementValue());
+
+            // Recovering must not log the replayed readings again
+            storage.addPatientData(2, 96.0, "Saturation", 3000L);
+        }
+        storage.setWriteAheadLog(null);
+        storage.clear();
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.NONE)) {
+            assertEquals(4, log.replay(storage));
+        }
+    }
+
+    @Test
+    void testReplaySpansSegments() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.ASYNC, 4096, 1)) {
+            for (int i = 0; i < 1000; i++) {
+                log.append(1, RecordTypeRegistry.getInstance().codeOf(i % 2 == 0 ? "ECG" : "Saturation"), i, i);
+            }
+        }
+        assertTrue(segmentCount() > 1, "Small segments must roll over");
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.ASYNC, 4096, 1)) {
+            assertEquals(1000, log.replay(storage));
+            List<PatientRecord> records = storage.getRecords(1, 0, Long.MAX_VALUE);
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals(i, records.get(i).getTimestamp());
+                assertEquals(i % 2 == 0 ? "ECG" : "Saturation", records.get(i).getRecordType());
+            }
+        }
+    }
+
+    @Test
+    void testReplayFromPositionAndSegmentCleanup() throws IOException {
+        long position;
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.ASYNC, 4096, 1)) {
+            int ecg = RecordTypeRegistry.getInstance().codeOf("ECG");
+            for (int i = 0; i < 600; i++) {
+                log.append(1, ecg, i, i);
+            }
+            log.flush();
+            position = log.getAppendedPosition();
+            for (int i = 600; i < 1000; i++) {
+                log.append(1, ecg, i, i);
+            }
+            log.flush();
+
+            assertEquals(400, log.replay(storage, position));
+            assertEquals(600L, storage.getRecords(1, 0, Long.MAX_VALUE).get(0).getTimestamp());
+
+            int before = segmentCount();
+            log.deleteSegmentsBefore(position);
+            assertTrue(segmentCount() < before);
+            storage.clear();
+            assertEquals(400, log.replay(storage, position));
+        }
+    }
+
+    @Test
+    void testTornTailIsTruncated() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.SYNC)) {
+            log.append(1, RecordTypeRegistry.getInstance().codeOf("ECG"), 1000L, 0.5);
+        }
+        Path segment = segments().get(0);
+        Files.write(segment, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.SYNC)) {
+            log.append(1, RecordTypeRegistry.getInstance().codeOf("ECG"), 2000L, 0.7);
+            assertEquals(2, log.replay(storage));
+        }
+        assertEquals(0.7, storage.getRecords(1, 2000L, 2000L).get(0).getMeasurementValue());
+    }
+
+    @Test
+    void testConcurrentSyncAppendsShareForces() throws Exception {
+        int threads = 8;
+        int perThread = 2000;
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.SYNC)) {
+            storage.setWriteAheadLog(log);
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int patientId = t;
+                Thread writer = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        storage.addPatientData(patientId, i, "ECG", i);
+                    }
+                });
+                writers.add(writer);
+                writer.start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            storage.setWriteAheadLog(null);
+        }
+
+        storage.clear();
+        try (WriteAheadLog log = new WriteAheadLog(directory, WriteAheadLog.Durability.SYNC)) {
+            assertEquals(threads * perThread, log.replay(storage));
+        }
+        for (int t = 0; t < threads; t++) {
+            assertEquals(perThread, storage.getRecords(t, 0, Long.MAX_VALUE).size());
+        }
+    }
+
+    private int segmentCount() throws IOException {
+        return segments().size();
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+}